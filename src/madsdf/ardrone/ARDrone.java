@@ -4,6 +4,7 @@ import madsdf.ardrone.controller.templates.KNNGestureController;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -42,6 +43,8 @@ import madsdf.ardrone.controller.DummyController;
 import madsdf.ardrone.controller.KeyboardController;
 import madsdf.ardrone.controller.templates.TimeseriesChartPanel;
 import madsdf.ardrone.utils.Utils;
+import madsdf.ardrone.utils.SensorCalibration;
+import madsdf.ardrone.video.VideoRecorder;
 import madsdf.shimmer.event.Globals;
 
 /**
@@ -344,6 +347,16 @@ public class ARDrone extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
+                try {
+                    FlightRecorder.get().stop();
+                } catch (IOException ex) {
+                    System.err.println("ARDrone.windowClosing: " + ex);
+                }
+                try {
+                    VideoRecorder.get().stop();
+                } catch (IOException ex) {
+                    System.err.println("ARDrone.windowClosing: " + ex);
+                }
                 System.exit(0);
             }
         });
@@ -355,6 +368,16 @@ public class ARDrone extends JFrame {
         /*DummyController controller = new DummyController(ActionCommand.allCommandMask(), this);
         controllerTickBus.register(controller);*/
         
+        // Record the flight if a log file is configured
+        if (DroneConfig.get().hasKey("flight_log")) {
+            FlightRecorder.get().start(
+                    new File(DroneConfig.get().getString("flight_log")));
+        }
+        if (DroneConfig.get().hasKey("video_log")) {
+            VideoRecorder.get().start(
+                    new File(DroneConfig.get().getString("video_log")));
+        }
+        
         final String[] shimmerIDs = DroneConfig.get().getStringArray("all_shimmers");
         final String leftShimmerID = DroneConfig.get().getString("left_shimmer");
         final String rightShimmerID = DroneConfig.get().getString("right_shimmer");
@@ -369,6 +392,7 @@ public class ARDrone extends JFrame {
                 KNNGestureController.FromProperties("right",
                 ActionCommand.allCommandMask(), this, rightBus,
                 "dtw_gestures_right.properties");
+        rightGestureController.setCalibration(SensorCalibration.get(rightShimmerID));
         controllerTickBus.register(rightGestureController);
         
         leftShimmer = new ShimmerMoveAnalyzerFrame("Left", leftShimmerID, shimmerIDs);
@@ -380,6 +404,7 @@ public class ARDrone extends JFrame {
                 KNNGestureController.FromProperties("left",
                 ActionCommand.allCommandMask(), this, leftBus,
                 "dtw_gestures_left.properties");
+        leftGestureController.setCalibration(SensorCalibration.get(leftShimmerID));
         controllerTickBus.register(leftGestureController);
         
         
@@ -399,6 +424,14 @@ public class ARDrone extends JFrame {
         System.out.println("Running..");
     }
     
+    /**
+     * @return the latest navdata received from the drone. Can be called from
+     * any thread.
+     */
+    public NavDataReader.NavDataEvent getNavData() {
+        return droneClient.getNavData();
+    }
+    
     public void setCommandPriority(int newPriority) {
         // When increasing minimum priority, reset all commands
         if (newPriority > commandPriority) {
@@ -436,14 +469,16 @@ public class ARDrone extends JFrame {
         controllerTickBus.post(new DroneController.TickMessage());
 
         String status = "";
+        // Read the drone state once so both checks see the same snapshot
+        final FlyingState flyingState = droneClient.getFlyingState();
         // Verify if the drone is landing
-        if (isActionLanding() || droneClient.getFlyingState() == FlyingState.LANDING) {
+        if (isActionLanding() || flyingState == FlyingState.LANDING) {
             if (droneClient.land()) {
                 commandState.put(ActionCommand.LAND, false);
             }
         } else {
             // Verify if the drone is taking off
-            if (isActionTakeOff() || droneClient.getFlyingState() == FlyingState.TAKING_OFF) {
+            if (isActionTakeOff() || flyingState == FlyingState.TAKING_OFF) {
                 if (droneClient.takeOff()) {
                     commandState.put(ActionCommand.TAKEOFF, false);
                 }
@@ -491,11 +526,16 @@ public class ARDrone extends JFrame {
     
     @Subscribe
     public void onVideoFrame(final VideoReader.VideoFrameEvent e) {
+        if (e.frame != null) {
+            // Doesn't queue a task per frame when the EDT lags behind
+            videoPanel.offerFrame(e.frame);
+            return;
+        }
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                videoPanel.frameReceived(e.startX, e.startY, e.w, e.h, e.rgbArray,
-                                         e.offset, e.scansize);
+                videoPanel.frameReceived(e.startX, e.startY, e.w, e.h,
+                                         e.rgbArray, e.offset, e.scansize);
             }
         });
     }
@@ -18,6 +18,7 @@ import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import madsdf.ardrone.controller.templates.TimeseriesChartPanel;
 
 /**
@@ -75,11 +76,11 @@ public class DroneClient {
     
     // Program state
     private boolean exit = false;
-    private boolean navDataBootStrap = false;
-    private boolean emergency = false;
     
-    // Drone state
-    private FlyingState droneState = FlyingState.LANDED;
+    // Drone state, replaced by the navdata thread for every packet received.
+    // Readers get a consistent snapshot without locking.
+    private final AtomicReference<NavDataReader.NavDataEvent> navData =
+            new AtomicReference<>(NavDataReader.NavDataEvent.INITIAL);
     
     private VideoReader videoReader;
     private NavDataReader navDataReader;
@@ -110,6 +111,7 @@ public class DroneClient {
 
                 // And send it
                 //System.out.println(new String(buf, "ASCII"));
+                FlightRecorder.get().atCommands(buf, buf.length);
                 atSocket.send(sendPacket);
             }
         } catch (IOException ex) {
@@ -168,40 +170,30 @@ public class DroneClient {
     }
 
     /**
-     * @return the drone flying state
+     * @return the latest navdata snapshot
      */
-    public FlyingState getFlyingState() {
-        return droneState;
+    public NavDataReader.NavDataEvent getNavData() {
+        return navData.get();
     }
 
     /**
-     * @param flyingState set the new flying state
+     * @param snapshot the new drone state, only called by the navdata thread
      */
-    void setFlyingState(FlyingState flyingState) {
-        this.droneState = flyingState;
+    void publishNavData(NavDataReader.NavDataEvent snapshot) {
+        navData.set(snapshot);
     }
 
     /**
-     * @param emergency the emergency to set
-     * @return the emergency field value
-     */
-    public boolean setEmergency(boolean emergency) {
-        return this.emergency = emergency;
-    }
-    
-    
-    /**
-     * @param navDataBootStrap the navDataBootStrap to set
-     * @return the navDatabootStrap value
+     * @return the drone flying state
      */
-    public boolean setNavDataBootStrap(boolean navDataBootStrap) {
-        return this.navDataBootStrap = navDataBootStrap;
+    public FlyingState getFlyingState() {
+        return navData.get().status;
     }
     
     
     // WARNING: Don't call this method when drone is flying, will cause crash
     public void resetEmergency() {
-        checkState(emergency,
+        checkState(getNavData().emergency,
                    "Only call resetEmergency when drone is in emergency");
         
         // Reset emergency state
@@ -234,13 +226,14 @@ public class DroneClient {
      * canceled (false)
      */
     public boolean takeOff() {
+        final NavDataReader.NavDataEvent nav = getNavData();
         // If the drone is already flying cancel the command        
-        if (getFlyingState() == FlyingState.FLYING ||
-            getFlyingState() == FlyingState.LANDING ||
-            navDataBootStrap ||
-            emergency) {
+        if (nav.status == FlyingState.FLYING ||
+            nav.status == FlyingState.LANDING ||
+            nav.bootstrap ||
+            nav.emergency) {
             // If the drone is in emergency state, reset the flag
-            if (emergency) {
+            if (nav.emergency) {
                 sendATCmd("AT*REF=" + incrSeq() + "," + AT_REF_RESET);
                 sendATCmd("AT*REF=" + incrSeq() + "," + AT_REF_EMERGENCY);
             }
@@ -309,8 +302,10 @@ public class DroneClient {
         sendATCmd("AT*CONFIG=" + incrSeq() + ",\"control:control_yaw\",\""
                 + DroneConfig.get().getString("yaw_max") + "\"");
 
-        // Set the navdata demo mode
-        sendATCmd("AT*CONFIG=" + incrSeq() + ",\"general:navdata_demo\",\"TRUE\"");
+        // Set the navdata demo mode (FALSE to get all the options at 200Hz)
+        final String navDataDemo = DroneConfig.get().getString("navdata_demo");
+        sendATCmd("AT*CONFIG=" + incrSeq() + ",\"general:navdata_demo\",\""
+                + navDataDemo + "\"");
 
         // Set the video stream
         sendATCmd("AT*CONFIG=" + incrSeq() + ",\"general:video_enable\",\"TRUE\"");
@@ -344,7 +339,7 @@ public class DroneClient {
         }
 
         // Launch the navadata thread
-        navDataReader = new NavDataReader(this, ebus);
+        navDataReader = new NavDataReader(this, ebus, navDataDemo);
         navDataReader.start();
 
         // Launch the video reader
@@ -0,0 +1,113 @@
+package madsdf.ardrone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import madsdf.shimmer.gui.AccelGyro;
+
+/**
+ * Sequential reader for the logs written by FlightRecorder. The file is
+ * memory-mapped and the payload of each record is a view on the map.
+ */
+public class FlightLogReader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer map;
+
+    // Current record
+    private int type;
+    private long nanoTime;
+    private ByteBuffer payload;
+
+    public FlightLogReader(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY,
+                                             0, channel.size());
+            map = m.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (map.remaining() < 8 || map.getInt() != FlightRecorder.FILE_MAGIC) {
+            throw new IOException("Not a flight log : " + file);
+        }
+        final int version = map.getInt();
+        if (version != FlightRecorder.FILE_VERSION) {
+            throw new IOException("Unsupported flight log version : " + version);
+        }
+    }
+
+    /**
+     * Move to the next record
+     * @return false at the end of the log. A truncated last record (the
+     * recorder was killed) is ignored.
+     */
+    public boolean next() {
+        if (map.remaining() < FlightRecorder.RECORD_HEADER_SIZE) {
+            return false;
+        }
+        final int start = map.position();
+        type = map.getInt();
+        final int length = map.getInt();
+        nanoTime = map.getLong();
+        if (length < 0 || length > map.remaining()) {
+            map.position(start);
+            return false;
+        }
+        payload = map.slice().order(ByteOrder.LITTLE_ENDIAN);
+        payload.limit(length);
+        map.position(map.position() + length);
+        return true;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * @return the payload of the current record, positioned at its start
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * Read a source name from the payload of a sample or decision record
+     */
+    public static String readSource(ByteBuffer payload) {
+        final byte[] b = new byte[payload.get() & 0xFF];
+        payload.get(b);
+        return new String(b, UTF8);
+    }
+
+    /**
+     * Read the sample of a TYPE_SAMPLE record, after readSource
+     * @param timestamp the timestamp to give to the sample
+     * @return a CalibratedSample or an UncalibratedSample depending on the
+     * recorded flag
+     */
+    public static AccelGyro.Sample readSample(ByteBuffer payload,
+                                              long timestamp) {
+        final boolean calibrated = payload.get() != 0;
+        final float[] accel = new float[3];
+        final float[] gyro = new float[3];
+        for (int i = 0; i < 3; ++i) {
+            accel[i] = payload.getFloat();
+        }
+        for (int i = 0; i < 3; ++i) {
+            gyro[i] = payload.getFloat();
+        }
+        if (calibrated) {
+            return new AccelGyro.CalibratedSample(timestamp, accel, gyro);
+        } else {
+            return new AccelGyro.UncalibratedSample(timestamp, accel, gyro);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package madsdf.ardrone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import madsdf.ardrone.utils.AsyncFileWriter;
+import madsdf.shimmer.gui.AccelGyro;
+
+/**
+ * Binary flight log. Records the raw navdata packets, the AT datagrams sent
+ * to the drone, the sensor samples and the gesture decisions, each with a
+ * System.nanoTime() timestamp.
+ *
+ * The recorder is disabled until start() is called, the record methods are
+ * then cheap no-ops. Records are copied into the buffers of an
+ * AsyncFileWriter, so the calling thread never waits for the disk.
+ *
+ * File format (little-endian) : the FILE_MAGIC and FILE_VERSION ints
+ * followed by records. Each record is
+ * - int type
+ * - int payload length
+ * - long nanoTime
+ * - payload
+ * Strings (sources) are written as one length byte followed by UTF-8 bytes.
+ */
+public class FlightRecorder {
+    public static final int FILE_MAGIC = 0x4C465241; // "ARFL"
+    public static final int FILE_VERSION = 1;
+    public static final int RECORD_HEADER_SIZE = 16;
+
+    // Record types
+    // Payload : raw navdata packet
+    public static final int TYPE_NAVDATA = 1;
+    // Payload : AT commands datagram
+    public static final int TYPE_AT_COMMANDS = 2;
+    // Payload : source, calibrated (byte), accel (3 floats), gyro (3 floats)
+    public static final int TYPE_SAMPLE = 3;
+    // Payload : source, stddev (float), nearest class ordinal (int, -1 if
+    // none), nearest distance (float), detected command ordinal (int),
+    // duration (float)
+    public static final int TYPE_DECISION = 4;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int NUM_BUFFERS = 16;
+
+    private static final FlightRecorder instance = new FlightRecorder();
+
+    public static FlightRecorder get() {
+        return instance;
+    }
+
+    /**
+     * Encode a source name once, to be passed to the record methods
+     */
+    public static byte[] source(String name) {
+        byte[] b = name.getBytes(Charset.forName("UTF-8"));
+        if (b.length > 255) {
+            throw new IllegalArgumentException("Source name too long : " + name);
+        }
+        return b;
+    }
+
+    private volatile AsyncFileWriter writer = null;
+
+    private FlightRecorder() {}
+
+    /**
+     * Start recording to the given file
+     */
+    public synchronized void start(File file) throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("Flight recorder already started");
+        }
+        AsyncFileWriter w = new AsyncFileWriter(file, BUFFER_SIZE, NUM_BUFFERS);
+        synchronized (w) {
+            ByteBuffer b = w.claim(8);
+            b.putInt(FILE_MAGIC);
+            b.putInt(FILE_VERSION);
+        }
+        writer = w;
+        System.out.println("Flight recorder : recording to " + file);
+    }
+
+    /**
+     * Stop recording and close the file
+     */
+    public synchronized void stop() throws IOException {
+        final AsyncFileWriter w = writer;
+        if (w != null) {
+            writer = null;
+            w.close();
+            System.out.println("Flight recorder : stopped, "
+                    + w.getDroppedCount() + " records dropped");
+        }
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * @return the number of records dropped because the writer couldn't keep
+     * up, 0 if the recorder is disabled
+     */
+    public long getDroppedCount() {
+        final AsyncFileWriter w = writer;
+        return w == null ? 0 : w.getDroppedCount();
+    }
+
+    // Claim room for a record and write its header. Must be called with the
+    // lock on w held
+    private static ByteBuffer begin(AsyncFileWriter w, int type, int length) {
+        ByteBuffer b = w.claim(RECORD_HEADER_SIZE + length);
+        if (b != null) {
+            b.putInt(type);
+            b.putInt(length);
+            b.putLong(System.nanoTime());
+        }
+        return b;
+    }
+
+    private void raw(int type, byte[] data, int length) {
+        final AsyncFileWriter w = writer;
+        if (w == null) {
+            return;
+        }
+        synchronized (w) {
+            ByteBuffer b = begin(w, type, length);
+            if (b != null) {
+                b.put(data, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Record a navdata packet as received from the drone
+     */
+    public void navData(byte[] packet, int length) {
+        raw(TYPE_NAVDATA, packet, length);
+    }
+
+    /**
+     * Record an AT commands datagram sent to the drone
+     */
+    public void atCommands(byte[] datagram, int length) {
+        raw(TYPE_AT_COMMANDS, datagram, length);
+    }
+
+    /**
+     * Record a sensor sample
+     * @param source the sensor name, encoded with source()
+     */
+    public void sample(byte[] source, boolean calibrated, AccelGyro.Sample s) {
+        final AsyncFileWriter w = writer;
+        if (w == null) {
+            return;
+        }
+        synchronized (w) {
+            ByteBuffer b = begin(w, TYPE_SAMPLE, 1 + source.length + 1 + 6 * 4);
+            if (b != null) {
+                b.put((byte)source.length).put(source);
+                b.put((byte)(calibrated ? 1 : 0));
+                for (int i = 0; i < 3; ++i) {
+                    b.putFloat(s.accel[i]);
+                }
+                for (int i = 0; i < 3; ++i) {
+                    b.putFloat(s.gyro[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a gesture decision
+     * @param source the controller name, encoded with source()
+     * @param nearest the class of the nearest neighbor, null if none
+     */
+    public void decision(byte[] source, float stddev, ActionCommand nearest,
+                         float nearestDist, ActionCommand detected,
+                         float duration) {
+        final AsyncFileWriter w = writer;
+        if (w == null) {
+            return;
+        }
+        synchronized (w) {
+            ByteBuffer b = begin(w, TYPE_DECISION, 1 + source.length + 20);
+            if (b != null) {
+                b.put((byte)source.length).put(source);
+                b.putFloat(stddev);
+                b.putInt(nearest == null ? -1 : nearest.ordinal());
+                b.putFloat(nearestDist);
+                b.putInt(detected.ordinal());
+                b.putFloat(duration);
+            }
+        }
+    }
+}
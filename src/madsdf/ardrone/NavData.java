@@ -0,0 +1,112 @@
+package madsdf.ardrone;
+
+/**
+ * Mutable snapshot of one navdata packet. NavDataReader keeps a single
+ * instance and NavDataDecoder fills it in place for every packet received, so
+ * the navdata thread doesn't allocate anything per packet (even in the full,
+ * non-demo, 200Hz mode).
+ *
+ * Only the options flagged in 'options' have been updated by the last decode,
+ * the fields of the other options keep their previous value.
+ */
+public class NavData {
+    // Header
+    public int state;
+    public int sequence;
+    public int visionFlag;
+    // Bitmask of the option tags found in the last packet (bit 'tag' is set
+    // for tags < 64)
+    public long options;
+
+    // NAVDATA_DEMO_TAG
+    public int ctrlState;
+    public int battery;
+    // Pitch, roll and yaw in degrees
+    public float pitch;
+    public float roll;
+    public float yaw;
+    public int altitude;
+    // Estimated linear velocity
+    public float vx;
+    public float vy;
+    public float vz;
+    public int numFrames;
+
+    // NAVDATA_TIME_TAG : 11 MSB are seconds, 21 LSB are microseconds
+    public int time;
+
+    // NAVDATA_RAW_MEASURES_TAG
+    public final int[] rawAccs = new int[3];
+    public final int[] rawGyros = new int[3];
+    public int vbatRaw;
+
+    // NAVDATA_PHYS_MEASURES_TAG
+    public float accsTemp;
+    public int gyroTemp;
+    public final float[] physAccs = new float[3];
+    public final float[] physGyros = new float[3];
+
+    // NAVDATA_GYROS_OFFSETS_TAG
+    public final float[] gyroOffsets = new float[3];
+
+    // NAVDATA_EULER_ANGLES_TAG
+    public float eulerTheta;
+    public float eulerPhi;
+
+    // NAVDATA_TRIMS_TAG
+    public float trimAngularRates;
+    public float trimTheta;
+    public float trimPhi;
+
+    // NAVDATA_PWM_TAG
+    public final int[] motors = new int[4];
+
+    // NAVDATA_ALTITUDE_TAG
+    public int altitudeVision;
+    public float altitudeVz;
+    public int altitudeRef;
+    public int altitudeRaw;
+
+    // NAVDATA_VISION_DETECT_TAG
+    public int numDetected;
+
+    // NAVDATA_WATCHDOG_TAG
+    public int watchdog;
+
+    // NAVDATA_CKS_TAG
+    public int checksum;
+
+    public boolean hasOption(int tag) {
+        return tag < 64 && (options & (1L << tag)) != 0;
+    }
+
+    /**
+     * @return the flying state part of the control state (demo option)
+     */
+    public int flyingState() {
+        return ctrlState >> 16;
+    }
+
+    /**
+     * Append a one-line description to the given builder. Used to print
+     * the navdata without building intermediate strings.
+     * @param sb the builder to append to
+     * @param status the flying state as seen by the client
+     */
+    public StringBuilder appendTo(StringBuilder sb, FlyingState status) {
+        sb.append("bit mask : ").append(Integer.toBinaryString(state))
+          .append(" | sequence : ").append(sequence)
+          .append(" | watchdog : ").append(state & NavDataReader.COM_WATCHDOG_MASK);
+        if (!hasOption(NavDataDecoder.NAVDATA_DEMO_TAG)) {
+            return sb.append(" | no demo option packet");
+        }
+        sb.append(" | status : ").append(status)
+          .append(" | altitude : ").append(altitude).append(" mm")
+          .append(" | battery : ").append(battery).append(" %")
+          .append(" | speed : [").append(vx).append(", ").append(vy)
+          .append(", ").append(vz).append("]")
+          .append(" | pitch,roll,yaw : [").append(pitch).append(", ")
+          .append(roll).append(", ").append(yaw).append("]");
+        return sb;
+    }
+}
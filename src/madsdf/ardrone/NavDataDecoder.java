@@ -0,0 +1,248 @@
+package madsdf.ardrone;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decode the navdata packets sent by the drone into a NavData.
+ *
+ * A navdata packet is a 16 bytes header (magic, state, sequence, vision flag)
+ * followed by a list of options. Each option starts with a 16 bits tag and a
+ * 16 bits size (which includes the 4 bytes option header). The last option
+ * is the checksum option, which contains the sum of all the bytes preceding
+ * it.
+ *
+ * Everything is little-endian. The decoder reads directly from a
+ * little-endian ByteBuffer view on the receive buffer using absolute gets, so
+ * nothing is copied nor allocated per packet.
+ */
+public class NavDataDecoder {
+    // Magic number at the beginning of the header. Newer firmwares use
+    // 0x55667789, so the last bit is ignored
+    static final int NAVDATA_HEADER = 0x55667788;
+    static final int HEADER_SIZE = 16;
+    static final int OPTION_HEADER_SIZE = 4;
+
+    // Option tags
+    static final int NAVDATA_DEMO_TAG = 0;
+    static final int NAVDATA_TIME_TAG = 1;
+    static final int NAVDATA_RAW_MEASURES_TAG = 2;
+    static final int NAVDATA_PHYS_MEASURES_TAG = 3;
+    static final int NAVDATA_GYROS_OFFSETS_TAG = 4;
+    static final int NAVDATA_EULER_ANGLES_TAG = 5;
+    static final int NAVDATA_REFERENCES_TAG = 6;
+    static final int NAVDATA_TRIMS_TAG = 7;
+    static final int NAVDATA_RC_REFERENCES_TAG = 8;
+    static final int NAVDATA_PWM_TAG = 9;
+    static final int NAVDATA_ALTITUDE_TAG = 10;
+    static final int NAVDATA_VISION_DETECT_TAG = 16;
+    static final int NAVDATA_WATCHDOG_TAG = 17;
+    static final int NAVDATA_CKS_TAG = 0xFFFF;
+
+    // Number of packets rejected since the creation of the decoder
+    private int errors = 0;
+    private String lastError = null;
+
+    /**
+     * Wrap the given receive buffer in a view suitable for decode()
+     */
+    public static ByteBuffer wrap(byte[] buf) {
+        return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Decode a packet.
+     * @param buf little-endian view on the packet, starting at position 0
+     * @param length the length of the packet (the buffer can be bigger)
+     * @param out the navdata to fill
+     * @return false if the packet is malformed or the checksum doesn't match.
+     * In this case, out may have been partially updated.
+     */
+    public boolean decode(ByteBuffer buf, int length, NavData out) {
+        if (length < HEADER_SIZE || length > buf.limit()) {
+            return reject("Packet too short : " + length);
+        }
+        if ((buf.getInt(0) & ~1) != NAVDATA_HEADER) {
+            return reject("Bad header : " + Integer.toHexString(buf.getInt(0)));
+        }
+        out.state = buf.getInt(4);
+        out.sequence = buf.getInt(8);
+        out.visionFlag = buf.getInt(12);
+        out.options = 0;
+
+        int offset = HEADER_SIZE;
+        while (offset + OPTION_HEADER_SIZE <= length) {
+            final int tag = buf.getShort(offset) & 0xFFFF;
+            final int size = buf.getShort(offset + 2) & 0xFFFF;
+            if (size < OPTION_HEADER_SIZE || offset + size > length) {
+                return reject("Bad size " + size + " for option " + tag);
+            }
+            if (tag == NAVDATA_CKS_TAG) {
+                if (size < OPTION_HEADER_SIZE + 4) {
+                    return reject("Bad size " + size + " for checksum option");
+                }
+                out.checksum = buf.getInt(offset + OPTION_HEADER_SIZE);
+                final int computed = checksum(buf, offset);
+                if (computed != out.checksum) {
+                    return reject("Bad checksum : " + out.checksum
+                            + " expected " + computed);
+                }
+                return true;
+            }
+            if (!decodeOption(buf, tag, offset + OPTION_HEADER_SIZE,
+                              size - OPTION_HEADER_SIZE, out)) {
+                return reject("Option " + tag + " too short : " + size);
+            }
+            if (tag < 64) {
+                out.options |= 1L << tag;
+            }
+            offset += size;
+        }
+        // No checksum option (bootstrap packets only contain the header), but
+        // the options must cover the whole packet
+        if (offset != length) {
+            return reject("Trailing bytes after the last option");
+        }
+        return true;
+    }
+
+    /**
+     * Sum of the bytes of the packet before the given offset
+     */
+    static int checksum(ByteBuffer buf, int end) {
+        int sum = 0;
+        for (int i = 0; i < end; ++i) {
+            sum += buf.get(i) & 0xFF;
+        }
+        return sum;
+    }
+
+    /**
+     * Decode the data of an option. Unknown tags and options we don't care
+     * about are skipped.
+     * @return false if the option is shorter than expected
+     */
+    private static boolean decodeOption(ByteBuffer buf, int tag, int o,
+                                        int size, NavData out) {
+        switch (tag) {
+            case NAVDATA_DEMO_TAG:
+                if (size < 40) {
+                    return false;
+                }
+                out.ctrlState = buf.getInt(o);
+                out.battery = buf.getInt(o + 4);
+                // Angles are sent in milli-degrees
+                out.pitch = buf.getFloat(o + 8) / 1000;
+                out.roll = buf.getFloat(o + 12) / 1000;
+                out.yaw = buf.getFloat(o + 16) / 1000;
+                out.altitude = buf.getInt(o + 20);
+                out.vx = buf.getFloat(o + 24);
+                out.vy = buf.getFloat(o + 28);
+                out.vz = buf.getFloat(o + 32);
+                out.numFrames = buf.getInt(o + 36);
+                return true;
+            case NAVDATA_TIME_TAG:
+                if (size < 4) {
+                    return false;
+                }
+                out.time = buf.getInt(o);
+                return true;
+            case NAVDATA_RAW_MEASURES_TAG:
+                // 3 accs, 3 gyros and 2 gyros_110 (uint16), then vbat_raw
+                if (size < 20) {
+                    return false;
+                }
+                for (int i = 0; i < 3; ++i) {
+                    out.rawAccs[i] = buf.getShort(o + 2 * i) & 0xFFFF;
+                    out.rawGyros[i] = buf.getShort(o + 6 + 2 * i);
+                }
+                out.vbatRaw = buf.getInt(o + 16);
+                return true;
+            case NAVDATA_PHYS_MEASURES_TAG:
+                if (size < 30) {
+                    return false;
+                }
+                out.accsTemp = buf.getFloat(o);
+                out.gyroTemp = buf.getShort(o + 4) & 0xFFFF;
+                for (int i = 0; i < 3; ++i) {
+                    out.physAccs[i] = buf.getFloat(o + 6 + 4 * i);
+                    out.physGyros[i] = buf.getFloat(o + 18 + 4 * i);
+                }
+                return true;
+            case NAVDATA_GYROS_OFFSETS_TAG:
+                if (size < 12) {
+                    return false;
+                }
+                for (int i = 0; i < 3; ++i) {
+                    out.gyroOffsets[i] = buf.getFloat(o + 4 * i);
+                }
+                return true;
+            case NAVDATA_EULER_ANGLES_TAG:
+                if (size < 8) {
+                    return false;
+                }
+                out.eulerTheta = buf.getFloat(o);
+                out.eulerPhi = buf.getFloat(o + 4);
+                return true;
+            case NAVDATA_TRIMS_TAG:
+                if (size < 12) {
+                    return false;
+                }
+                out.trimAngularRates = buf.getFloat(o);
+                out.trimTheta = buf.getFloat(o + 4);
+                out.trimPhi = buf.getFloat(o + 8);
+                return true;
+            case NAVDATA_PWM_TAG:
+                if (size < 4) {
+                    return false;
+                }
+                for (int i = 0; i < 4; ++i) {
+                    out.motors[i] = buf.get(o + i) & 0xFF;
+                }
+                return true;
+            case NAVDATA_ALTITUDE_TAG:
+                if (size < 16) {
+                    return false;
+                }
+                out.altitudeVision = buf.getInt(o);
+                out.altitudeVz = buf.getFloat(o + 4);
+                out.altitudeRef = buf.getInt(o + 8);
+                out.altitudeRaw = buf.getInt(o + 12);
+                return true;
+            case NAVDATA_VISION_DETECT_TAG:
+                if (size < 4) {
+                    return false;
+                }
+                out.numDetected = buf.getInt(o);
+                return true;
+            case NAVDATA_WATCHDOG_TAG:
+                if (size < 4) {
+                    return false;
+                }
+                out.watchdog = buf.getInt(o);
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private boolean reject(String reason) {
+        errors++;
+        lastError = reason;
+        return false;
+    }
+
+    /**
+     * @return the number of packets rejected so far
+     */
+    public int getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * @return the reason why the last packet was rejected
+     */
+    public String getLastError() {
+        return lastError;
+    }
+}
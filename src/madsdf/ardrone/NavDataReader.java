@@ -7,6 +7,7 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 /**
  * Receive all the navigation data from the drone, interprete them and display
@@ -55,9 +56,25 @@ import java.net.SocketTimeoutException;
  * @version 1.0
  */
 public class NavDataReader extends Thread {
+    /**
+     * Immutable snapshot of the drone state, built for every navdata packet
+     * received and published through DroneClient.getNavData(). It is also
+     * posted on the event bus, but only every RESTRICT_PRINT packets.
+     */
     public static class NavDataEvent {
+        // State before the first navdata packet is received
+        static final NavDataEvent INITIAL = new NavDataEvent(
+                0, 0, 0, false, false, false, FlyingState.LANDED,
+                0, 0, 0, 0, 0, 0, 0, 0);
+
+        // System.nanoTime() at reception
+        public final long timestamp;
         public final int seqOnDrone;
+        // ARDrone state bit mask
+        public final int state;
         public final boolean watchdog;
+        public final boolean emergency;
+        public final boolean bootstrap;
         public final FlyingState status;
         public final int altitude;
         public final int battery;
@@ -69,11 +86,16 @@ public class NavDataReader extends Thread {
         public final float yaw;
 
         public NavDataEvent(
-                int seqOnDrone, boolean watchdog, FlyingState status,
+                long timestamp, int seqOnDrone, int state, boolean watchdog,
+                boolean emergency, boolean bootstrap, FlyingState status,
                 int altitude, int battery, float vx, float vy, float vz,
                 float pitch, float roll, float yaw) {
+            this.timestamp = timestamp;
             this.seqOnDrone = seqOnDrone;
+            this.state = state;
             this.watchdog = watchdog;
+            this.emergency = emergency;
+            this.bootstrap = bootstrap;
             this.status = status;
             this.altitude = altitude;
             this.battery = battery;
@@ -84,6 +106,15 @@ public class NavDataReader extends Thread {
             this.roll = roll;
             this.yaw = yaw;
         }
+
+        /**
+         * @return a copy of this snapshot with the given bootstrap flag
+         */
+        public NavDataEvent withBootstrap(boolean bootstrap) {
+            return new NavDataEvent(timestamp, seqOnDrone, state, watchdog,
+                    emergency, bootstrap, status, altitude, battery,
+                    velocity_x, velocity_y, velocity_z, pitch, roll, yaw);
+        }
     }
     
    // Mask for the ARDrone state
@@ -92,9 +123,6 @@ public class NavDataReader extends Thread {
    static final int COM_WATCHDOG_MASK = 1 << 30;
    static final int COM_EMERGENCY_MASK  = 1 << 31;
    
-   // Value of the tag for the navdata demo
-   static final int NAVDATA_DEMO_TAG = 0;
-   
    // Default print every 20 receptions
    static final int RESTRICT_PRINT = 20;
 
@@ -106,14 +134,21 @@ public class NavDataReader extends Thread {
    
    private final EventBus ebus;
 
+   // Value of the general:navdata_demo config, "FALSE" to receive all the
+   // options at 200Hz
+   private final String navDataDemo;
+
    /**
     * Constructor
     * @param arDrone the drone sending the navigation data
+    * @param navDataDemo "TRUE" to receive only the demo option
     */
    public NavDataReader(DroneClient arDrone,
-                        EventBus ebus){
+                        EventBus ebus,
+                        String navDataDemo){
       this.drone = arDrone;
       this.ebus = ebus;
+      this.navDataDemo = navDataDemo;
       
       // Connect and configure the socket
       try {
@@ -129,35 +164,6 @@ public class NavDataReader extends Thread {
     void disconnect() {
         navDataSocket.close();
     }
-
-   /**
-     * Convert the byte array to an int starting from the given offset.
-     * @param b The byte array
-     * @param offset The array offset
-     * @return The integer
-     */
-   public static int byteArrayToInt(byte[] b, int offset)
-   {
-      int value = 0, tmp = 0;
-      for(int i = 3; i >= 0; i--)
-      {
-         value <<= 8;
-         tmp += b[i + offset] & 0x000000FF;
-         value |= tmp;
-      }
-      return value;
-   }
-
-   /**
-    * Convert the byte array to an int starting from the given offset.
-    * @param b The byte array
-    * @param offset The array offset
-    * @return The short
-    */
-   public static int byteArrayToShort(byte[] b, int offset)
-   {
-      return ((b[offset + 1] & 0x000000FF) << 8) | (b[offset] & 0x000000FF);
-   }
    
    @Override
    public void run() {
@@ -168,164 +174,108 @@ public class NavDataReader extends Thread {
          byte[] buffer = {0x01, 0x00, 0x00, 0x00};
          DatagramPacket packet = new DatagramPacket(buffer, buffer.length, drone.getDroneAddress(), DroneClient.NAVDATA_PORT);
          navDataSocket.send(packet);
-         drone.sendATCmd("AT*CONFIG=" + drone.incrSeq() + ",\"general:navdata_demo\",\"TRUE\"");
+         drone.sendATCmd("AT*CONFIG=" + drone.incrSeq() + ",\"general:navdata_demo\",\"" + navDataDemo + "\"");
          //myARDrone.sendATCmd("AT*CTRL=0");
          
-         // Stock the received data
+         // Stock the received data. The packet, the decoder, the navdata and
+         // the print buffer are reused for every reception
          byte[] navDataBuf = new byte[4096];
          DatagramPacket navDataPacket = new DatagramPacket(navDataBuf, navDataBuf.length);
+         ByteBuffer navDataView = NavDataDecoder.wrap(navDataBuf);
+         NavDataDecoder decoder = new NavDataDecoder();
+         NavData navData = new NavData();
+         StringBuilder line = new StringBuilder(256);
 
-         int bitStateMask,
-             seqOnDrone,
-             battery,
-             altitude,
-             option_tag,
-             option_len;
-         float pitch,
-               roll,
-               yaw,
-               vx, vy, vz;
-         int offset, print = 0;
+         int bitStateMask;
+         int print = 0;
 
          while(!navDataSocket.isClosed()) {
             try{
 
+               navDataPacket.setLength(navDataBuf.length);
                navDataSocket.receive(navDataPacket);
+               FlightRecorder.get().navData(navDataBuf, navDataPacket.getLength());
                print++;
-               offset = 0;
-
-               // Retrieve the header
-               offset += 4;
-
-               // Retrieve the drone state bit mask
-               bitStateMask = byteArrayToInt(navDataBuf, offset);
-               offset += 4;
 
-               // Retrieve the sequence number
-               seqOnDrone = byteArrayToInt(navDataBuf, offset);
-               offset += 4;
-
-               // Retrieve the vision flag
-               offset += 4;
+               if(!decoder.decode(navDataView, navDataPacket.getLength(), navData)){
+                  if(print >= RESTRICT_PRINT){
+                     print = 0;
+                     System.err.println("NavDataReader: dropped packet ("
+                             + decoder.getErrorCount() + " so far) : "
+                             + decoder.getLastError());
+                  }
+                  continue;
+               }
+               bitStateMask = navData.state;
+               final NavDataEvent previous = drone.getNavData();
+               FlyingState state = previous.status;
 
                // Verify if an option packet is present
-               if(offset < navDataBuf.length){
-
-                  // Retrieve the demo option header
-                  option_tag = byteArrayToShort(navDataBuf, offset);
-                  offset += 2;
-                  option_len = byteArrayToShort(navDataBuf, offset);
-                  offset += 2;
+               if(navData.hasOption(NavDataDecoder.NAVDATA_DEMO_TAG)){
 
-                  // Verify that it is a demo option
-                  if(option_tag == NAVDATA_DEMO_TAG && option_len > 0){
-
-                     drone.setNavDataBootStrap(false);
-
-                     // Retrieve the flying state
-                     FlyingState state = FlyingState.fromInt(byteArrayToInt(navDataBuf, offset) >> 16);
-                     // This a fix for a bug where the drone mistakenly land without the user
-                     // requesting to do so.
-                     // The bug is due to us interpreting the drone state as "LANDING" and we
-                     // therefore set the flying state to LANDING. As soon as the flying state
-                     // is set to LANDING, we start sending landing commands (to ensure the
-                     // drone actually lands).
-                     // So, we ignore landing state if this was not initiated by a user commmand
-                     if (state == FlyingState.LANDING && drone.getFlyingState() != FlyingState.LANDING) {
-                         state = FlyingState.FLYING;
-                     } 
-                     drone.setFlyingState(state);
-                     offset += 4;
+                  // Retrieve the flying state
+                  state = FlyingState.fromInt(navData.flyingState());
+                  // This a fix for a bug where the drone mistakenly land without the user
+                  // requesting to do so.
+                  // The bug is due to us interpreting the drone state as "LANDING" and we
+                  // therefore set the flying state to LANDING. As soon as the flying state
+                  // is set to LANDING, we start sending landing commands (to ensure the
+                  // drone actually lands).
+                  // So, we ignore landing state if this was not initiated by a user commmand
+                  if (state == FlyingState.LANDING && previous.status != FlyingState.LANDING) {
+                      state = FlyingState.FLYING;
+                  } 
+               }
 
-                     // Retrieve the battery %
-                     battery = byteArrayToInt(navDataBuf, offset);
-                     offset += 4;
-   
-                     // Retrieve the pitch in milli-degrees
-                     pitch = Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset)) / 1000;
-                     offset += 4;
-   
-                     // Retrieve the roll in milli-degrees
-                     roll =  Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset)) / 1000;
-                     offset += 4;
-   
-                     // Retrieve the yaw in milli-degrees
-                     yaw =  Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset)) / 1000;
-                     offset += 4;
-   
-                     // Retrieve the altitude in centimeters
-                     altitude = byteArrayToInt(navDataBuf, offset);
-                     offset += 4;
-   
-                     // Retrieve the estimated linear velocity
-                     vx = Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset));
-                     offset += 4;
-                     vy = Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset));
-                     offset += 4;
-                     vz = Float.intBitsToFloat(byteArrayToInt(navDataBuf, offset));
-                     offset += 4;
+               // Publish the new state for the controllers and the command
+               // scheduler
+               final boolean bootstrap = (bitStateMask & COM_BOOTSTRAP_MASK) != 0;
+               final boolean emergency = (bitStateMask & COM_EMERGENCY_MASK) != 0;
+               final NavDataEvent current = new NavDataEvent(
+                       System.nanoTime(), navData.sequence, bitStateMask,
+                       (bitStateMask & COM_WATCHDOG_MASK) != 0,
+                       emergency, bootstrap, state,
+                       navData.altitude, navData.battery,
+                       navData.vx, navData.vy, navData.vz,
+                       navData.pitch, navData.roll, navData.yaw);
+               drone.publishNavData(current);
 
-                     // Print the result
-                     if(print == RESTRICT_PRINT){
-                        print = 0;
-                        System.out.println("bit mask : " + Integer.toBinaryString(bitStateMask)
-                                        + " | sequence : " + seqOnDrone
-                                        + " | watchdog : " + (bitStateMask & COM_WATCHDOG_MASK)
-                                        + " | status : " + drone.getFlyingState()
-                                        + " | altitude : " + altitude + " mm"
-                                        + " | battery : " + battery + " %"
-                                        + " | speed : [" + vx + ", " + vy + ", " + vz + "]"
-                                        + " | pitch,roll,yaw : [" + pitch + ", " + roll + ", " + yaw + "]");
-                        
-                        // Set the battery level
-                        ebus.post(new NavDataEvent(seqOnDrone,
-                                (bitStateMask & COM_WATCHDOG_MASK) != 0,
-                                drone.getFlyingState(), altitude, battery,
-                                vx, vy, vz,
-                                pitch, roll, yaw));
-                        
-                        //printBitMask(bitStateMask);
-                     }
+               // Print the result
+               if(print >= RESTRICT_PRINT){
+                  print = 0;
+                  line.setLength(0);
+                  System.out.println(navData.appendTo(line, state));
 
-                  }
-                  else{
-                     // Print the result
-                     if(print == RESTRICT_PRINT){
-                        print = 0;
-                        System.out.println("bit mask : " + Integer.toBinaryString(bitStateMask)
-                                        + " | sequence : " + seqOnDrone
-                                        + " | watchdog : " + (bitStateMask & COM_WATCHDOG_MASK)
-                                        + " | no demo option packet");
+                  // Set the battery level
+                  if(navData.hasOption(NavDataDecoder.NAVDATA_DEMO_TAG))
+                     ebus.post(current);
 
-                        //printBitMask(bitStateMask);
-                     }
-                     drone.setNavDataBootStrap(true);
-                  }
+                  //printBitMask(bitStateMask);
+               }
 
-                  // Verify the bootstrap mode
-                  if(drone.setNavDataBootStrap((bitStateMask & COM_BOOTSTRAP_MASK) != 0))
-                     // Try to exit the bootstrap mode
-                     drone.sendATCmd("AT*CONFIG=" + drone.incrSeq() + ",\"GENERAL:navdata_demo\",\"TRUE\"");
-                  
-                  
-                  // Verify the emergency mode
-                  if(drone.setEmergency((bitStateMask & COM_EMERGENCY_MASK) != 0) && print == 0)
-                     System.out.println("Emergency state!");
+               // Verify the bootstrap mode
+               if(bootstrap)
+                  // Try to exit the bootstrap mode
+                  drone.sendATCmd("AT*CONFIG=" + drone.incrSeq() + ",\"GENERAL:navdata_demo\",\"" + navDataDemo + "\"");
+               
+               
+               // Verify the emergency mode
+               if(emergency && print == 0)
+                  System.out.println("Emergency state!");
 
-                  // Verify if the communication is lost
-                  if((bitStateMask & COM_LOST_MASK) != 0)
-                     // In this case signal the user
-                     System.out.println("Communication lost, reinitialize the network communication!");
+               // Verify if the communication is lost
+               if((bitStateMask & COM_LOST_MASK) != 0)
+                  // In this case signal the user
+                  System.out.println("Communication lost, reinitialize the network communication!");
 
-                  // Verify the command watchdog in the bit field state
-                  else if((bitStateMask & COM_WATCHDOG_MASK) != 0)
-                     // Need to exit the watchdog mode
-                     drone.sendATCmd("AT*COMWDG=" + drone.incrSeq());
-               }
+               // Verify the command watchdog in the bit field state
+               else if((bitStateMask & COM_WATCHDOG_MASK) != 0)
+                  // Need to exit the watchdog mode
+                  drone.sendATCmd("AT*COMWDG=" + drone.incrSeq());
             }
             catch(SocketTimeoutException ex) {
                System.err.println("NavData : Timeout");
-               drone.setNavDataBootStrap(true);
+               drone.publishNavData(drone.getNavData().withBootstrap(true));
             }
             catch(IOException ex){
                System.err.println("NavDataReader.run: " + ex);
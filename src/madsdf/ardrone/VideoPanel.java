@@ -5,6 +5,9 @@ import java.awt.image.BufferedImage;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import madsdf.ardrone.video.FrameSlot;
+import madsdf.ardrone.video.VideoFrame;
 
 /**
  * This class extend a JPanel and is meant to show the video sent by the drone.
@@ -23,6 +26,24 @@ public class VideoPanel extends JPanel {
    private AtomicReference<BufferedImage> image = new AtomicReference<BufferedImage>();
    private AtomicBoolean preserveAspect = new AtomicBoolean(true);
    
+   // The pooled frame of image, released when replaced. Only used on the EDT
+   private VideoFrame currentFrame = null;
+   
+   // The latest frame received, waiting for the EDT
+   private final FrameSlot frameSlot = new FrameSlot();
+   
+   // Show the latest frame, scheduled once for all the frames received
+   // until it runs
+   private final Runnable showLatestFrame = new Runnable() {
+      @Override
+      public void run() {
+         VideoFrame frame = frameSlot.take();
+         if (frame != null) {
+            frameReceived(frame);
+         }
+      }
+   };
+   
    // The showed image when there is no drone connected
    private BufferedImage noConnection = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
 
@@ -58,9 +79,49 @@ public class VideoPanel extends JPanel {
       BufferedImage im = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
       im.setRGB(startX, startY, w, h, rgbArray, offset, scansize);
       image.set(im);
+      releaseCurrentFrame();
       repaint();
    }
 
+   /**
+    * Fired when a new pooled frame is received from the drone. The frame is
+    * shown without copy and released when the next one arrives. Must be
+    * called on the EDT.
+    * @param frame the picture
+    */
+   public void frameReceived(VideoFrame frame) {
+      image.set(frame.image);
+      releaseCurrentFrame();
+      currentFrame = frame;
+      repaint();
+   }
+
+   /**
+    * Fired when a new pooled frame is received from the drone, on any
+    * thread. Only the latest frame is shown when the EDT is busy, the
+    * others are dropped.
+    * @param frame the picture
+    */
+   public void offerFrame(VideoFrame frame) {
+      if (frameSlot.offer(frame)) {
+         SwingUtilities.invokeLater(showLatestFrame);
+      }
+   }
+
+   /**
+    * @return the slot counting the frames decoded, displayed and dropped
+    */
+   public FrameSlot getFrameSlot() {
+      return frameSlot;
+   }
+
+   private void releaseCurrentFrame() {
+      if (currentFrame != null) {
+         currentFrame.release();
+         currentFrame = null;
+      }
+   }
+
    /**
     * Draw the picture on the panel
     * @param g the graphic object of the panel
@@ -1,6 +1,7 @@
 package madsdf.ardrone;
 
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import madsdf.ardrone.ARDrone;
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -8,7 +9,13 @@ import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import madsdf.ardrone.video.BufferedVideoImage;
+import madsdf.ardrone.video.FrameAssembler;
+import madsdf.ardrone.video.FramePool;
+import madsdf.ardrone.video.VideoFrame;
+import madsdf.ardrone.video.VideoRecorder;
 
 /**
  * Receive the video stream from the drone and display it on the VideoPanel.
@@ -28,6 +35,9 @@ public class VideoReader extends Thread {
         public final int[] rgbArray;
         public final int offset;
         public final int scansize;
+        // The pooled frame holding rgbArray, null if rgbArray is not pooled.
+        // The subscriber displaying it releases it when it's replaced.
+        public final VideoFrame frame;
         
         public VideoFrameEvent(int startX, int startY, int w, int h,
                 int[] rgbArray, int offset, int scansize) {
@@ -38,8 +48,26 @@ public class VideoReader extends Thread {
             this.rgbArray = rgbArray;
             this.offset = offset;
             this.scansize = scansize;
+            this.frame = null;
+        }
+        
+        public VideoFrameEvent(VideoFrame frame) {
+            this.startX = 0;
+            this.startY = 0;
+            this.w = frame.width;
+            this.h = frame.height;
+            this.rgbArray = frame.pixels;
+            this.offset = 0;
+            this.scansize = frame.width;
+            this.frame = frame;
         }
     }
+    
+   // Frames kept for reuse : one displayed, one being decoded, and some
+   // slack for the frames waiting for the display
+   private static final int POOL_SIZE = 4;
+   // Threads decoding slices along with this one
+   private static final int MAX_DECODE_THREADS = 3;
 
    // The drone sending the video
    private DroneClient drone;
@@ -49,6 +77,15 @@ public class VideoReader extends Thread {
    
    // Bus on which events are sent
    private final EventBus ebus;
+   
+   // Pictures received in several datagrams are put together here
+   private final FrameAssembler assembler = new FrameAssembler(2);
+   
+   // Decoder reused for all the pictures, so its buffers are allocated once
+   private final BufferedVideoImage decoder = new BufferedVideoImage();
+   private final FramePool framePool = new FramePool(POOL_SIZE);
+   // Decodes the slices of the pictures in parallel, null on a single core
+   private final ExecutorService sliceExecutor;
 
    /**
     * Constructor
@@ -57,6 +94,18 @@ public class VideoReader extends Thread {
    public VideoReader(DroneClient myARDrone, EventBus ebus) {
       this.drone = myARDrone;
       this.ebus = ebus;
+      decoder.setFramePool(framePool);
+      int threads = Math.min(Runtime.getRuntime().availableProcessors() - 1,
+                             MAX_DECODE_THREADS);
+      if (threads > 0) {
+         sliceExecutor = Executors.newFixedThreadPool(threads,
+                 new ThreadFactoryBuilder().setDaemon(true)
+                         .setNameFormat("VideoDecoder-%d").build());
+         decoder.setExecutor(sliceExecutor);
+      }
+      else {
+         sliceExecutor = null;
+      }
       
       // Connect and configure the socket
       try {
@@ -88,18 +137,32 @@ public class VideoReader extends Thread {
 
          while (!videoSocket.isClosed()) {
             try {
-               // Receive the video packet
+               // Receive the video packet, receive() shrinks the length
+               videoPacket.setLength(videoBuf.length);
                videoSocket.receive(videoPacket);
-               ByteBuffer videoByteBuf = ByteBuffer.wrap(videoPacket.getData());
+               
+               ByteBuffer picture = assembler.add(videoBuf, videoPacket.getOffset(),
+                                                  videoPacket.getLength());
+               if (picture == null) {
+                  continue;
+               }
                
                // Convert the packet in a picture
-               BufferedVideoImage video = new BufferedVideoImage();
-               video.addImageStream(videoByteBuf);
+               try {
+                  decoder.addImageStream(picture);
+                  VideoRecorder.get().picture(decoder.getFrameIndex(), picture);
+               }
+               finally {
+                  assembler.release(picture);
+               }
                
-               ebus.post(new VideoFrameEvent(0, 0, video.getWidth(),
-                                            video.getHeight(),
-                                            video.getJavaPixelData(), 0,
-                                            video.getWidth()));
+               // The picture was decoded in a pooled frame
+               if (decoder.isPictureComplete()) {
+                  VideoFrame frame = decoder.takeFrame();
+                  if (frame != null) {
+                     ebus.post(new VideoFrameEvent(frame));
+                  }
+               }
                //System.out.println("Video Received: " + videoPacket.getLength() + " bytes");
             }
             catch (SocketTimeoutException ex) {
@@ -114,6 +177,9 @@ public class VideoReader extends Thread {
       catch (IOException ex) {
          System.err.println("VideoReader.run: " + ex);
       }
+      if (sliceExecutor != null) {
+         sliceExecutor.shutdown();
+      }
       System.out.println("videoSocket closed, terminating VideoReader thread");
    }
 }
@@ -5,6 +5,7 @@
 package madsdf.ardrone.controller.templates;
 
 import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.utils.Clock;
 
 public interface GestureDetector {
     public void addVotation(KNN knn, float stddev);
@@ -16,5 +17,9 @@ public interface GestureDetector {
     // IF this is false, the actions will last for as long as they are detected
     // by the gesture detector
     public boolean hasActionDuration();
+    
+    // Replace the clock used for the delays between actions (Clock.SYSTEM by
+    // default). Used to replay recorded sessions with a virtual clock
+    public void setClock(Clock clock);
 }
    
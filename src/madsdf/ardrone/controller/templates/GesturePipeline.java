@@ -0,0 +1,223 @@
+package madsdf.ardrone.controller.templates;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.Multimap;
+import java.util.ArrayList;
+import java.util.List;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.WindowAccumulator;
+import madsdf.shimmer.gui.AccelGyro;
+
+/**
+ * The headless part of KNNGestureController : accumulates the samples in
+ * sliding windows, classifies each window with KNN against the templates and
+ * lets the detector decide. Used by the live controller and the offline
+ * tools, so both get exactly the same decisions.
+ */
+public class GesturePipeline {
+    // Step between two consecutive windows
+    public static final int WINDOW_STEP = 15;
+
+    // Result of the processing of one window
+    public static class Decision {
+        public final KNN knn;
+        // Mean of the per-axis standard deviations of the window
+        public final float stddev;
+        public final ActionCommand detected;
+        // Duration of the detected action, 1 if the detector has no
+        // action duration
+        public final float duration;
+
+        public Decision(KNN knn, float stddev, ActionCommand detected,
+                        float duration) {
+            this.knn = knn;
+            this.stddev = stddev;
+            this.detected = detected;
+            this.duration = duration;
+        }
+    }
+
+    // Replaced as a whole when the templates are reloaded, read once per
+    // window
+    private volatile TemplateIndex index;
+    // Class prototypes compared first, null to always use all the templates
+    private volatile TemplateIndex prototypes = null;
+    private volatile float prototypeMargin = 0;
+    private volatile float prototypeMaxDist = 0;
+    // If set, the pruned search also finds the nearest template of each class
+    private volatile boolean classMinDist = false;
+    // Number of windows classified, and classified by the prototypes only
+    private long windows = 0;
+    private long prototypeWindows = 0;
+    private final WindowAccumulator<AccelGyro.Sample> accumulator;
+    // Filtered window and DTW lower bounds, updated at each step
+    private final SlidingWindow liveWindow = new SlidingWindow();
+    private final int step;
+    private final GestureDetector detector;
+    private final int k;
+
+    public GesturePipeline(List<GestureTemplate> templates, int windowsize,
+                           GestureDetector detector, int k) {
+        this(new TemplateIndex(templates), windowsize, detector, k);
+    }
+
+    public GesturePipeline(TemplateIndex index, int windowsize,
+                           GestureDetector detector, int k) {
+        this(index, windowsize, WINDOW_STEP, detector, k);
+    }
+
+    public GesturePipeline(TemplateIndex index, int windowsize, int step,
+                           GestureDetector detector, int k) {
+        this.index = index;
+        this.detector = detector;
+        this.k = k;
+        this.step = step;
+        accumulator = new WindowAccumulator<>(windowsize, step);
+    }
+
+    public Multimap<ActionCommand, GestureTemplate> getTemplates() {
+        return index.getTemplatesByCommand();
+    }
+
+    public TemplateIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Use another index from the next window on. May be called from any
+     * thread.
+     */
+    public void setIndex(TemplateIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Compare the windows with the given prototypes (see PrototypeTool)
+     * first. The templates are only used when the relative margin between
+     * the two nearest classes of the prototypes is below minMargin, or the
+     * nearest prototype is farther than maxDist.
+     *
+     * All the votes of the prototypes go to the nearest class, and their
+     * distances are to barycenters : the agreement and distance thresholds
+     * of the detector, tuned on the templates, don't apply to them. The
+     * margin and maxDist replace them.
+     * @param prototypes the prototypes, null to disable
+     */
+    public void setPrototypes(TemplateIndex prototypes, float minMargin,
+                              float maxDist) {
+        checkArgument(prototypes == null
+                || prototypes.medianWidth == index.medianWidth);
+        this.prototypeMargin = minMargin;
+        this.prototypeMaxDist = maxDist;
+        this.prototypes = prototypes;
+    }
+
+    public TemplateIndex getPrototypes() {
+        return prototypes;
+    }
+
+    /**
+     * Make KNN.getClassMinDist() of the decisions exact when the templates
+     * are searched with pruning (see KNN.classifyPruned). Costs more than
+     * twice the DTW comparisons of the pruned search.
+     */
+    public void setClassMinDist(boolean classMinDist) {
+        this.classMinDist = classMinDist;
+    }
+
+    public long getWindowCount() {
+        return windows;
+    }
+
+    // Number of windows classified by the prototypes only
+    public long getPrototypeWindowCount() {
+        return prototypeWindows;
+    }
+
+    public GestureDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Add a sample.
+     * @return the decision if this sample completed a window, null otherwise
+     */
+    public Decision add(AccelGyro.Sample sample) {
+        ArrayList<AccelGyro.Sample> window = accumulator.add(sample);
+        if (window == null) {
+            return null;
+        }
+        return matchWindow(windowAccelToFloat(window), step);
+    }
+
+    /**
+     * Classify a window and let the detector decide
+     */
+    public Decision matchWindow(float[][] windowAccel) {
+        return matchWindow(windowAccel, 0);
+    }
+
+    // shift : number of samples since the previous window, 0 if unknown
+    private Decision matchWindow(float[][] windowAccel, int shift) {
+        final TemplateIndex idx = index;
+        final TemplateIndex protos = prototypes;
+        liveWindow.update(windowAccel, shift, idx);
+        final float[][] filtered = liveWindow.getFiltered();
+        KNN knn = null;
+        windows++;
+        if (protos != null) {
+            final KNN p = KNN.classifyPrototypes(k, filtered, protos);
+            if (p.getClassMargin() >= prototypeMargin
+                    && p.numNeighbors() > 0
+                    && p.getNeighborDist(0) <= prototypeMaxDist) {
+                knn = p;
+                prototypeWindows++;
+            }
+        }
+        if (knn == null) {
+            knn = KNN.classifyPruned(k, liveWindow, classMinDist);
+        }
+
+        float meanStddev = (stddev(windowAccel[0]) + stddev(windowAccel[1])
+                + stddev(windowAccel[2])) / 3.0f;
+
+        detector.addVotation(knn, meanStddev);
+        final ActionCommand detected = detector.decide();
+
+        float duration;
+        if (detector.hasActionDuration()) {
+            duration = detector.getDurationMS();
+        } else {
+            duration = 1.0f;
+        }
+        return new Decision(knn, meanStddev, detected, duration);
+    }
+
+    public static float[][] windowAccelToFloat(
+            List<? extends AccelGyro.Sample> window) {
+        float[][] data = new float[3][window.size()];
+        for (int i = 0; i < window.size(); ++i) {
+            final AccelGyro.Sample sample = window.get(i);
+            data[0][i] = sample.accel[0];
+            data[1][i] = sample.accel[1];
+            data[2][i] = sample.accel[2];
+        }
+        return data;
+    }
+
+    public static float stddev(float[] arr) {
+        float avg = 0;
+        for (int i = 0; i < arr.length; ++i) {
+            avg += arr[i];
+        }
+        avg /= arr.length;
+
+        float stddev = 0;
+        for (int i = 0; i < arr.length; ++i) {
+            final float v = arr[i] - avg;
+            stddev += v*v;
+        }
+        return (float) Math.sqrt(stddev);
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.utils.Clock;
     
 
 public class HistoricalGestureDetector implements GestureDetector {
@@ -27,20 +28,57 @@ public class HistoricalGestureDetector implements GestureDetector {
         }
     }
     public static final long COMMAND_DURATION = 800;
-    private final static float STDDEV_THRESHOLD = 2000;
-    private final static float NEAREST_DIST_THRESHOLD = 100000;
-    // Minimum number of NN that should agree
-    private final static int NN_MIN_AGREE = (int) (KNNGestureController.KNN_K * 2. / 3.);
+    public final static float DEFAULT_STDDEV_THRESHOLD = 2000;
+    public final static float DEFAULT_NEAREST_DIST_THRESHOLD = 100000;
+    public final static long DEFAULT_INTER_ACTION_DELAY = 2000;
     private final static int HISTORY_SIZE = 2;
+    
+    private final float stddevThreshold;
+    private final float nearestDistThreshold;
+    // Minimum number of NN that should agree
+    private final int nnMinAgree;
+    private final long interActionDelay;
     private Deque<Entry> history = new ArrayDeque<>();
     // For each action, store the last time we decided it. This is to
     // avoid having noisy consecutive actions
     private final Map<ActionCommand, Long> prevTimestampMS = Maps.newHashMap();
-    private long INTER_ACTION_DELAY = 2000;
+    private Clock clock;
+    private boolean verbose = true;
 
     public HistoricalGestureDetector() {
+        this(DEFAULT_STDDEV_THRESHOLD, DEFAULT_NEAREST_DIST_THRESHOLD,
+             (int) (KNNGestureController.KNN_K * 2. / 3.),
+             DEFAULT_INTER_ACTION_DELAY);
+    }
+    
+    /**
+     * @param stddevThreshold minimum stddev of a window to detect a gesture
+     * @param nearestDistThreshold maximum distance to the nearest neighbor
+     * @param nnMinAgree minimum number of neighbors of the detected class
+     * @param interActionDelay minimum delay between two detections of the
+     * same action
+     */
+    public HistoricalGestureDetector(float stddevThreshold,
+                                     float nearestDistThreshold,
+                                     int nnMinAgree, long interActionDelay) {
+        this.stddevThreshold = stddevThreshold;
+        this.nearestDistThreshold = nearestDistThreshold;
+        this.nnMinAgree = nnMinAgree;
+        this.interActionDelay = interActionDelay;
+        setClock(Clock.SYSTEM);
+    }
+    
+    // Set to false to stop printing the actions prevented by
+    // interActionDelay
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = clock;
         for (ActionCommand a : ActionCommand.values()) {
-            prevTimestampMS.put(a, System.currentTimeMillis());
+            prevTimestampMS.put(a, clock.currentTimeMillis());
         }
     }
 
@@ -70,7 +108,7 @@ public class HistoricalGestureDetector implements GestureDetector {
             final KNN knn = e.knn;
             final float stddev = e.stddev;
             // Check stddev above threshold
-            if (stddev < STDDEV_THRESHOLD) {
+            if (stddev < stddevThreshold) {
                 return ActionCommand.NOTHING;
             }
 
@@ -84,15 +122,15 @@ public class HistoricalGestureDetector implements GestureDetector {
             }
             //System.out.println("1");
             // Check dist of nearest neighbour below threshold
-            if (knn.getNeighborDist(0) > NEAREST_DIST_THRESHOLD) {
+            if (knn.getNeighborDist(0) > nearestDistThreshold) {
                 return ActionCommand.NOTHING;
             }
             //System.out.println("2");
 
             // Check number of agreeing NN
             //System.out.println("votes for best : " + knn.votesPerClass.get(bestClass));
-            //System.out.println("min agree : " + NN_MIN_AGREE);
-            if (knn.votesPerClass.get(bestClass) < NN_MIN_AGREE) {
+            //System.out.println("min agree : " + nnMinAgree);
+            if (knn.votesPerClass.get(bestClass) < nnMinAgree) {
                 return ActionCommand.NOTHING;
             }
             //System.out.println("3");
@@ -114,14 +152,16 @@ public class HistoricalGestureDetector implements GestureDetector {
             return ActionCommand.NOTHING;
         }
 
-        // Check against INTER_ACTION_DELAY
-        final long now = System.currentTimeMillis();
+        // Check against interActionDelay
+        final long now = clock.currentTimeMillis();
         if (prevBest != ActionCommand.NOTHING
-                && (now - prevTimestampMS.get(prevBest)) > INTER_ACTION_DELAY) {
+                && (now - prevTimestampMS.get(prevBest)) > interActionDelay) {
             prevTimestampMS.put(prevBest, now);
             return prevBest;
         } else {
-            System.out.println("Prevented by INTER_ACTION_DELAY");
+            if (verbose) {
+                System.out.println("Prevented by interActionDelay");
+            }
             return ActionCommand.NOTHING;
         }
     }
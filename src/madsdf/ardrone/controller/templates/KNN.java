@@ -5,14 +5,17 @@
 package madsdf.ardrone.controller.templates;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.TreeMultimap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
@@ -33,23 +36,216 @@ public class KNN {
     
     public static KNN classify(int k, float[][] windowAccel,
         Multimap<ActionCommand, GestureTemplate> gestureTemplates) {
-        // Contains (distance, gesture)
+        return classify(k, windowAccel, new TemplateIndex(
+                ImmutableList.copyOf(gestureTemplates.values())));
+    }
+    
+    public static KNN classify(int k, float[][] windowAccel, TemplateIndex index) {
+        return classifyFiltered(k, index.filter(windowAccel), index, -1);
+    }
+    
+    /**
+     * Classify a window against the templates of an index
+     * @param filteredWindow the window, already filtered with index.filter()
+     * @param excluded index of a template to ignore (for leave-one-out
+     * evaluation), -1 to use all the templates
+     */
+    public static KNN classifyFiltered(int k, float[][] filteredWindow,
+                                       TemplateIndex index, int excluded) {
+        return classifyFiltered(k, filteredWindow, index, excluded, excluded + 1);
+    }
+    
+    /**
+     * Same as classifyFiltered, but ignores the templates in
+     * [excludedFrom, excludedTo)
+     */
+    public static KNN classifyFiltered(int k, float[][] filteredWindow,
+                                       TemplateIndex index,
+                                       int excludedFrom, int excludedTo) {
+        final TreeMultimap<Float, GestureTemplate> gestureDistances =
+                distances(filteredWindow, index, excludedFrom, excludedTo);
+        FluentIterable<Entry<Float, GestureTemplate>> closest = FluentIterable
+                .from(gestureDistances.entries())
+                .limit(k);
+        
+        return new KNN(index.getCommands(), closest,
+                       distsPerClass(gestureDistances));
+    }
+    
+    // Relative slack on the lower bounds, so the rounding errors of the
+    // bounds and of the DTW never prune a neighbor
+    private static final float BOUND_SLACK = 1e-4f;
+    
+    /**
+     * Classify the live window of a GesturePipeline against the templates
+     * of its index. The templates are compared in increasing order of
+     * their lower bound, and those whose lower bound exceeds the distance
+     * of the current k-th neighbor are skipped : the neighbors and votes
+     * are the same as classifyFiltered, but distsPerClass only contains the
+     * templates actually compared.
+     */
+    public static KNN classifyPruned(int k, SlidingWindow window) {
+        return classifyPruned(k, window, false);
+    }
+    
+    /**
+     * Same as classifyPruned, but if classMinDist is set, the templates are
+     * only skipped if their lower bound also exceeds the distance to the
+     * nearest template of their class : getClassMinDist() is then the same
+     * as classifyFiltered, at the cost of more comparisons.
+     */
+    public static KNN classifyPruned(int k, SlidingWindow window,
+                                     boolean classMinDist) {
+        final TemplateIndex index = window.getIndex();
+        final float[][] filteredWindow = window.getFiltered();
+        if (index.isCoarse()) {
+            return classifyFiltered(k, filteredWindow, index, -1);
+        }
+        // Sort by bound : the bounds are positive, so their bits sort as
+        // the floats
+        final long[] order = new long[index.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = ((long)Float.floatToIntBits(window.windowBound(i)) << 32) | i;
+        }
+        Arrays.sort(order);
+        
         TreeMultimap<Float, GestureTemplate> gestureDistances = TreeMultimap.create();
-        for (GestureTemplate g : gestureTemplates.values()) {
-            //final float dist = DTW.allAxisEuclidean(windowAccel, g.accel);
-            /*final float dist = DTW.allAxisEuclidean(
-                    MathUtils.medianFilter(windowAccel, 10), 
-                    MathUtils.medianFilter(g.gesture.accel, 10));*/
-            /*final float dist = DTW.multiDTWDistance(
-                    MathUtils.medianFilter(windowAccel, 10), 
-                    MathUtils.medianFilter(g.gesture.accel, 10));*/
-            //final float dist = DTW.allAxisDTW(windowAccel, g.accel);
-            final float dist = DTW.allAxisDTW(
-                    Utils.medianFilter(windowAccel, 10), 
-                    Utils.medianFilter(g.gesture.accel, 10));
+        // Distance to the nearest template of each class compared so far
+        final Map<ActionCommand, Float> classMin = Maps.newEnumMap(ActionCommand.class);
+        final int numClasses = index.getCommands().size();
+        for (long o : order) {
+            final int i = (int)o;
+            final float kth = kthKey(gestureDistances, k);
+            // Largest distance still needed
+            float needed = kth;
+            if (classMinDist && classMin.size() < numClasses) {
+                needed = Float.POSITIVE_INFINITY;
+            } else if (classMinDist) {
+                for (float d : classMin.values()) {
+                    needed = Math.max(needed, d);
+                }
+            }
+            if (window.windowBound(i) > needed * (1 + BOUND_SLACK)) {
+                // All the next templates have a larger bound
+                break;
+            }
+            final GestureTemplate g = index.get(i);
+            final Float min = classMin.get(g.command);
+            final float limit = (classMinDist
+                    ? Math.max(kth, min == null ? Float.POSITIVE_INFINITY : min)
+                    : kth) * (1 + BOUND_SLACK);
+            if (window.windowBound(i) > limit || window.templateBound(i) > limit) {
+                continue;
+            }
+            final float dist = DTW.allAxisDTW(filteredWindow,
+                    index.getFilteredAccel(i), index.dtwBand);
             gestureDistances.put(dist, g);
+            if (min == null || dist < min) {
+                classMin.put(g.command, dist);
+            }
         }
-        
+        FluentIterable<Entry<Float, GestureTemplate>> closest = FluentIterable
+                .from(gestureDistances.entries())
+                .limit(k);
+        return new KNN(index.getCommands(), closest,
+                       distsPerClass(gestureDistances));
+    }
+    
+    // Key of the k-th entry, infinity if there are less than k entries
+    private static float kthKey(TreeMultimap<Float, GestureTemplate> m, int k) {
+        if (m.size() < k || k <= 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Iterables.get(m.keys(), k - 1);
+    }
+    
+    /**
+     * Classify a window against class prototypes (see PrototypeTool). Each
+     * prototype stands for the templates of its cluster, so the neighbors
+     * are the k nearest prototypes of the nearest class : all the votes go
+     * to the nearest class.
+     * @param filteredWindow the window, filtered with prototypes.filter()
+     */
+    public static KNN classifyPrototypes(int k, float[][] filteredWindow,
+                                         TemplateIndex prototypes) {
+        final TreeMultimap<Float, GestureTemplate> gestureDistances =
+                distances(filteredWindow, prototypes, -1, -1);
+        if (gestureDistances.isEmpty()) {
+            return new KNN(prototypes.getCommands(), gestureDistances.entries(),
+                           ImmutableMultimap.<ActionCommand, Float>of());
+        }
+        final ActionCommand nearest =
+                gestureDistances.entries().iterator().next().getValue().command;
+        FluentIterable<Entry<Float, GestureTemplate>> closest = FluentIterable
+                .from(gestureDistances.entries())
+                .filter(new Predicate<Entry<Float, GestureTemplate>>() {
+                    @Override
+                    public boolean apply(Entry<Float, GestureTemplate> e) {
+                        return e.getValue().command == nearest;
+                    }
+                })
+                .limit(k);
+        return new KNN(prototypes.getCommands(), closest,
+                       distsPerClass(gestureDistances));
+    }
+    
+    // (distance, gesture) for the templates not in [excludedFrom, excludedTo).
+    // With a coarse index, only the candidates of the coarse search are
+    // compared, so the other templates are missing.
+    private static TreeMultimap<Float, GestureTemplate> distances(
+            float[][] filteredWindow, TemplateIndex index,
+            int excludedFrom, int excludedTo) {
+        TreeMultimap<Float, GestureTemplate> gestureDistances = TreeMultimap.create();
+        final float[] coarseDists = index.isCoarse()
+                ? coarseDistances(filteredWindow, index, excludedFrom, excludedTo)
+                : null;
+        final float maxCoarse = coarseDists != null
+                ? kthSmallest(coarseDists, index.coarseCandidates)
+                : Float.POSITIVE_INFINITY;
+        for (int i = 0; i < index.size(); ++i) {
+            if (i >= excludedFrom && i < excludedTo) {
+                continue;
+            }
+            if (coarseDists != null && coarseDists[i] > maxCoarse) {
+                continue;
+            }
+            final float dist = DTW.allAxisDTW(filteredWindow,
+                    index.getFilteredAccel(i), index.dtwBand);
+            gestureDistances.put(dist, index.get(i));
+        }
+        return gestureDistances;
+    }
+    
+    // DTW between the PAA of the window and of each template, infinity for
+    // the excluded templates
+    private static float[] coarseDistances(float[][] filteredWindow,
+            TemplateIndex index, int excludedFrom, int excludedTo) {
+        final float[][] coarseWindow = index.coarsen(filteredWindow);
+        final int band = index.coarseBand();
+        final float[] dists = new float[index.size()];
+        for (int i = 0; i < index.size(); ++i) {
+            if (i >= excludedFrom && i < excludedTo) {
+                dists[i] = Float.POSITIVE_INFINITY;
+            } else {
+                dists[i] = DTW.allAxisDTW(coarseWindow,
+                        index.getCoarseAccel(i), band);
+            }
+        }
+        return dists;
+    }
+    
+    // The k-th smallest value, infinity if there are less than k values
+    private static float kthSmallest(float[] values, int k) {
+        if (k >= values.length) {
+            return Float.POSITIVE_INFINITY;
+        }
+        final float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, k - 1)];
+    }
+    
+    private static ImmutableMultimap<ActionCommand, Float> distsPerClass(
+            TreeMultimap<Float, GestureTemplate> gestureDistances) {
         ImmutableMultimap.Builder<ActionCommand, Float> distsPerClassBuilder =
                 ImmutableMultimap.builder();
         for (Entry<Float, GestureTemplate> e: gestureDistances.entries()) {
@@ -57,12 +253,7 @@ public class KNN {
             final GestureTemplate g = e.getValue();
             distsPerClassBuilder.put(g.command, dist);
         }
-        
-        FluentIterable<Entry<Float, GestureTemplate>> closest = FluentIterable
-                .from(gestureDistances.entries())
-                .limit(k);
-        
-        return new KNN(gestureTemplates.keySet(), closest, distsPerClassBuilder.build());
+        return distsPerClassBuilder.build();
     }
     
     // Return a copy of 'source' where, when iterating using entrySet, the
@@ -102,7 +293,8 @@ public class KNN {
         this.distsPerClass = distsPerClass;
         
         // Compute votes per class and average distance to class
-        Map<ActionCommand, Float> _votesPerClass = Maps.newHashMap();
+        // EnumMap so ties are always broken the same way (command order)
+        Map<ActionCommand, Float> _votesPerClass = Maps.newEnumMap(ActionCommand.class);
         zeroInit(_votesPerClass, allClasses);
         
         for (Entry<Float, GestureTemplate> e : closest) {
@@ -114,6 +306,23 @@ public class KNN {
         this.votesPerClass = valueSortedMap(_votesPerClass);
     }
     
+    /**
+     * @return the distance to the nearest compared template of each class,
+     * in command order. The classes without any compared template are
+     * missing. Only the pruned search without classMinDist, the coarse search
+     * and the prototypes skip templates.
+     */
+    public ImmutableMap<ActionCommand, Float> getClassMinDist() {
+        Map<ActionCommand, Float> mins = Maps.newEnumMap(ActionCommand.class);
+        for (Entry<ActionCommand, Float> e : distsPerClass.entries()) {
+            final Float min = mins.get(e.getKey());
+            if (min == null || e.getValue() < min) {
+                mins.put(e.getKey(), e.getValue());
+            }
+        }
+        return ImmutableMap.copyOf(mins);
+    }
+    
     public float getNeighborDist(int neighbor) {
         return nearest.get(neighbor).getKey();
     }
@@ -125,4 +334,37 @@ public class KNN {
     public int numNeighbors() {
         return nearest.size();
     }
+    
+    /**
+     * @return the class with the most votes (the first of votesPerClass)
+     */
+    public ActionCommand getBestClass() {
+        return votesPerClass.keySet().iterator().next();
+    }
+    
+    /**
+     * @return (d2 - d1) / d2, where d1 and d2 are the distances to the
+     * nearest templates of the two nearest classes. 1 if there is only one
+     * class.
+     */
+    public float getClassMargin() {
+        float d1 = Float.POSITIVE_INFINITY;
+        float d2 = Float.POSITIVE_INFINITY;
+        for (ActionCommand c : distsPerClass.keySet()) {
+            float d = Float.POSITIVE_INFINITY;
+            for (float v : distsPerClass.get(c)) {
+                d = Math.min(d, v);
+            }
+            if (d < d1) {
+                d2 = d1;
+                d1 = d;
+            } else if (d < d2) {
+                d2 = d;
+            }
+        }
+        if (Float.isInfinite(d2)) {
+            return 1;
+        }
+        return d2 > 0 ? (d2 - d1) / d2 : 0;
+    }
 }
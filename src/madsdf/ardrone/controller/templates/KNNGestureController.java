@@ -6,44 +6,34 @@ import bibliothek.gui.Dockable;
 import bibliothek.gui.dock.DefaultDockable;
 import bibliothek.gui.dock.SplitDockStation;
 import bibliothek.gui.dock.station.split.SplitDockGrid;
-import static com.google.common.base.Preconditions.*;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.swing.JFrame;
-import madsdf.ardrone.utils.DataFileReader;
 import madsdf.ardrone.utils.DataFileReader.Gesture;
-import madsdf.ardrone.utils.PropertiesReader;
-import madsdf.ardrone.utils.WindowAccumulator;
 import madsdf.shimmer.gui.AccelGyro;
 import javax.swing.SwingUtilities;
 import madsdf.ardrone.ARDrone;
 import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.FlightRecorder;
 import madsdf.ardrone.controller.DroneController;
+import madsdf.ardrone.utils.PropertiesReader;
+import madsdf.ardrone.utils.SensorCalibration;
 
 /**
  * Controller based on matching incoming measurements with gesture templates
@@ -65,79 +55,53 @@ public class KNNGestureController extends DroneController {
         }
     }
     
-    private static final Pattern fnamePattern = Pattern.compile("(\\w+)_movement_\\d+_\\d+.txt");
-    
     public static KNNGestureController FromProperties(
             String name,
             ImmutableSet<ActionCommand> actionMask, ARDrone drone,
             EventBus ebus, String configSensor) throws Exception {
-        PropertiesReader reader = new PropertiesReader(configSensor);
-        checkState(reader.getString("class_name").equals(KNNGestureController.class.getName()));
-        
-        String sensorDataBasedir = reader.getString("sensor_basedir");
-        //String templates_file = sensorDataBasedir + "/" + reader.getString("templates_file");
+        TemplateSet templateSet = TemplateSet.FromProperties(configSensor);
+        System.out.println(templateSet.movementsMap);
         
-        PropertiesReader descReader = new PropertiesReader(sensorDataBasedir + "/" + reader.getString("desc_file"));
-        boolean calibrated = descReader.getBoolean("calibrated");
-        // MovementsMap : convert from <String, String> to <Integer, String>
-        Map<String, String> _movementsMap = descReader.getMap("movements_map");
-        Map<Integer, ActionCommand> movementsMap = Maps.newHashMap();
-        for (Entry<String, String> e : _movementsMap.entrySet()) {
-            final ActionCommand a = ActionCommand.valueOf(e.getValue());
-            movementsMap.put(Integer.parseInt(e.getKey()), a);
+        PropertiesReader reader = new PropertiesReader(configSensor);
+        TemplateIndex index = templateSet.getIndex();
+        // Coarse-to-fine search (see SweepTool --paa)
+        if (reader.hasKey("coarse_factor")) {
+            index = index.withCoarse(reader.getInteger("coarse_factor"),
+                    reader.hasKey("coarse_candidates")
+                    ? reader.getInteger("coarse_candidates") : COARSE_CANDIDATES);
         }
-        System.out.println(movementsMap);
         
-        
-        // Read all "SHIMID_movement_xx_xx.txt" files in directory
-        File[] templateFiles = new File(sensorDataBasedir).listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.contains("movement") && name.endsWith(".txt");
-            }
-        });
-        List<Gesture> gestures = Lists.newArrayList();
-        for (File tf : templateFiles) {
-            final Matcher m = fnamePattern.matcher(tf.getName());
-            checkState(m.matches());
-            final String shimmerID = m.group(1);
-            
-            final DataFileReader freader = new DataFileReader(new FileReader(tf));
-            
-            // Calibrated if needed
-            if (calibrated) {
-                List<Gesture> tmp = freader.readAll();
-                for (Gesture g : tmp) {
-                    gestures.add(g.calibrateGesture(shimmerID));
-                }
+        KNNGestureController ctrl = new KNNGestureController(name, actionMask,
+                drone, index, templateSet.calibrated,
+                templateSet.windowSize, templateSet.createDetector());
+        // Class prototypes built by PrototypeTool
+        if (reader.hasKey("prototype_store")) {
+            final File store = new File(reader.getString("prototype_store"));
+            final float margin = reader.hasKey("prototype_margin")
+                    ? (float)reader.getDouble("prototype_margin")
+                    : PROTOTYPE_MARGIN;
+            if (!reader.hasKey("prototype_max_dist")) {
+                // Tuned for the templates, not the prototypes
+                System.err.println("No prototype_max_dist (see PrototypeTool), "
+                        + "prototypes not used");
+            } else if (store.exists()) {
+                ctrl.pipeline.setPrototypes(TemplateStore.read(store).getIndex(),
+                        margin, (float)reader.getDouble("prototype_max_dist"));
             } else {
-                gestures.addAll(freader.readAll());
+                System.err.println("No prototype store " + store);
             }
         }
-        /*final DataFileReader freader = new DataFileReader(new FileReader(templates_file));
-        List<Gesture> gestures = freader.readAll();*/
-        List<GestureTemplate> templates = Lists.newArrayList(); 
-        for (Gesture g : gestures) {
-            final ActionCommand cmd = movementsMap.get(g.command);
-            templates.add(new GestureTemplate(cmd, g));
-        }
-        
-        
-        final int windowSize = descReader.getInteger("windowsize");
-        
-        final String detectorName = KNNGestureController.class.getPackage().getName()
-                + "." + descReader.getString("detector");
-        GestureDetector detector = (GestureDetector)Class.forName(
-                detectorName).newInstance();
-         
-        KNNGestureController ctrl = new KNNGestureController(name, actionMask,
-                drone, templates, calibrated, windowSize, detector);
         ebus.register(ctrl);
+        // Not the templates of a store : they would replace them
+        if (templateSet.directory.isDirectory()
+                && templateSet.getFileStamps() != null) {
+            ctrl.watchTemplates(templateSet);
+        }
         return ctrl;
     }
     
-    private final Multimap<ActionCommand, GestureTemplate> gestureTemplates = ArrayListMultimap.create();
-    private final WindowAccumulator accumulator;
+    private final GesturePipeline pipeline;
+    private final Multimap<ActionCommand, GestureTemplate> gestureTemplates;
     
     private TimeseriesChartPanel distChartPanel;
     private TimeseriesChartPanel stdChartPanel;
@@ -147,11 +111,20 @@ public class KNNGestureController extends DroneController {
     private JFrame chartFrame;
     private DockController dockController;
     
-    private GestureDetector gestureDetector;
-    
     public static final int KNN_K = 3;
+    // Default minimum margin between the two nearest classes of the
+    // prototypes to skip the comparison with all the templates
+    public static final float PROTOTYPE_MARGIN = 0.2f;
+    // Number of templates compared with the full DTW by the coarse search
+    public static final int COARSE_CANDIDATES = 10;
     
     private final boolean calibrated;
+    // If set, the uncalibrated samples are calibrated here, the same way
+    // as the templates, instead of using the calibrated samples
+    private volatile SensorCalibration calibration = null;
+    
+    // Name of this controller in the flight log
+    private final byte[] recorderSource;
     
     public KNNGestureController(final String name,
                                 ImmutableSet<ActionCommand> actionMask,
@@ -160,15 +133,25 @@ public class KNNGestureController extends DroneController {
                                 boolean calibrated,
                                 int windowsize,
                                 GestureDetector detector) {
+        this(name, actionMask, drone, new TemplateIndex(templates),
+             calibrated, windowsize, detector);
+    }
+    
+    public KNNGestureController(final String name,
+                                ImmutableSet<ActionCommand> actionMask,
+                                ARDrone drone,
+                                TemplateIndex templates,
+                                boolean calibrated,
+                                int windowsize,
+                                GestureDetector detector) {
         super(actionMask, drone);
         this.calibrated = calibrated;
-        this.gestureDetector = detector;
-        
-        accumulator = new WindowAccumulator<>(windowsize, 15);
+        this.recorderSource = FlightRecorder.source(name);
         
-        for (GestureTemplate g: templates) {
-            gestureTemplates.put(g.command, g);
-        }
+        pipeline = new GesturePipeline(templates, windowsize, detector, KNN_K);
+        // For the distance chart
+        pipeline.setClassMinDist(true);
+        gestureTemplates = pipeline.getTemplates();
         
         System.out.println("-- DTW Gesture Controller, number of templates per command");
         for (ActionCommand command : gestureTemplates.keySet()) {
@@ -209,7 +192,7 @@ public class KNNGestureController extends DroneController {
                 ImmutableSortedMap<Integer, String> commandIDToName = b.build();
                 
                 distChartPanel = new TimeseriesChartPanel(
-                        "Distance to gesture templates",
+                        "Distance to the nearest gesture template",
                         "Windows", "DTW distance", commandIDToName);
                 Dockable d = createDockable(distChartPanel);
                 grid.addDockable(0, 0, GRID_SIZE, GRID_SIZE, d);
@@ -246,18 +229,6 @@ public class KNNGestureController extends DroneController {
         return dockable;
     }
     
-    private static float[][] windowAccelToFloat(
-            ArrayList<AccelGyro.Sample> window) {
-        float[][] data = new float[3][window.size()];
-        for (int i = 0; i < window.size(); ++i) {
-            final AccelGyro.Sample sample = window.get(i);
-            data[0][i] = sample.accel[0];
-            data[1][i] = sample.accel[1];
-            data[2][i] = sample.accel[2];
-        }
-        return data;
-    }
-    
     public float average(Collection<Float> col) {
         float sum = 0;
         for (Float f: col) {
@@ -267,18 +238,7 @@ public class KNNGestureController extends DroneController {
     }
     
     public float stddev(float[] arr) {
-        float avg = 0;
-        for (int i = 0; i < arr.length; ++i) {
-            avg += arr[i];
-        }
-        avg /= arr.length;
-        
-        float stddev = 0;
-        for (int i = 0; i < arr.length; ++i) {
-            final float v = arr[i] - avg;
-            stddev += v*v;
-        }
-        return (float) Math.sqrt(stddev);
+        return GesturePipeline.stddev(arr);
     }
     
     public ImmutableMap<Integer, Float> toIntegerMap(ImmutableMap<ActionCommand, Float> m) {
@@ -289,28 +249,19 @@ public class KNNGestureController extends DroneController {
         return outM.build();
     }
     
-    private void matchWindow(float[][] windowAccel) {
-        KNN knn = KNN.classify(KNN_K, windowAccel, gestureTemplates);
+    private void onDecision(GesturePipeline.Decision decision) {
+        final KNN knn = decision.knn;
         
-        ImmutableMap.Builder<Integer, Float> cmdDists = ImmutableMap.builder();
-        for (ActionCommand command: knn.distsPerClass.keySet()) {
-            Collection<Float> dists = knn.distsPerClass.get(command);
-            //final float dist = Collections.min(dists);
-            final float dist = average(dists);
-            cmdDists.put(command.ordinal(), dist);
-        }
-        updateChart(distChartPanel, cmdDists.build());
+        updateChart(distChartPanel, toIntegerMap(knn.getClassMinDist()));
         
         //System.out.println(_tmp);
         updateChart(knnChartPanel, toIntegerMap(knn.votesPerClass));
         
-        float meanStddev = (stddev(windowAccel[0]) + stddev(windowAccel[1])
-                + stddev(windowAccel[2])) / 3.0f;
-        ImmutableMap<Integer, Float> chartData = ImmutableMap.of(0, meanStddev);
+        ImmutableMap<Integer, Float> chartData = ImmutableMap.of(0, decision.stddev);
         updateChart(stdChartPanel, chartData);
         
-        // Finally, decide if we detected something
-        decideGesture(knn, meanStddev);
+        // Finally, act on what we detected
+        decideGesture(decision);
     }
     
     private static void updateChart(final TimeseriesChartPanel panel,
@@ -323,17 +274,11 @@ public class KNNGestureController extends DroneController {
     }
     
     
-    private void decideGesture(final KNN knn,
-                               float stddev) {
-        gestureDetector.addVotation(knn, stddev);
-        final ActionCommand detected = gestureDetector.decide();
+    private void decideGesture(GesturePipeline.Decision decision) {
+        final KNN knn = decision.knn;
+        final ActionCommand detected = decision.detected;
+        final float duration = decision.duration;
         
-        float duration;
-        if (gestureDetector.hasActionDuration()) {
-            duration = gestureDetector.getDurationMS();
-        } else {
-            duration = 1.0f;
-        }
         ImmutableMap.Builder<ActionCommand, Float> _detections = ImmutableMap.builder();
         for (ActionCommand command: gestureTemplates.keySet()) {
             if (detected.equals(command)) {
@@ -343,8 +288,12 @@ public class KNNGestureController extends DroneController {
             }
         }
         ImmutableMap<ActionCommand, Float> detections = _detections.build();
+        FlightRecorder.get().decision(recorderSource, decision.stddev,
+                knn.numNeighbors() > 0 ? knn.getNeighborClass(0) : null,
+                knn.numNeighbors() > 0 ? knn.getNeighborDist(0) : 0,
+                detected, duration);
         updateChart(detectedChartPanel, toIntegerMap(detections));
-        if (gestureDetector.hasActionDuration()) {
+        if (pipeline.getDetector().hasActionDuration()) {
             sendToDrone(detections);
         } else {
             for (Entry<ActionCommand, Float> e : detections.entrySet()) {
@@ -364,22 +313,65 @@ public class KNNGestureController extends DroneController {
     }
     
     private void onSample(AccelGyro.Sample sample) {
-        ArrayList<AccelGyro.Sample> window = accumulator.add(sample);
-        if (window != null) {
-            matchWindow(windowAccelToFloat(window));
+        FlightRecorder.get().sample(recorderSource, calibrated, sample);
+        GesturePipeline.Decision decision = pipeline.add(sample);
+        if (decision != null) {
+            onDecision(decision);
         }
     }
     
+    /**
+     * Reload the templates when the files of the set change. The commands
+     * shown in the charts and sent to the drone are the ones of the
+     * initial templates. The class prototypes, built from the previous
+     * templates, are no longer used after a reload.
+     */
+    public void watchTemplates(TemplateSet templateSet) throws IOException {
+        TemplateWatcher watcher = new TemplateWatcher(templateSet,
+                pipeline.getIndex().medianWidth, new TemplateWatcher.Listener() {
+            @Override
+            public void templatesReloaded(TemplateIndex index) {
+                // Else they would still classify most of the windows
+                if (pipeline.getPrototypes() != null) {
+                    pipeline.setPrototypes(null, 0, 0);
+                    System.err.println("Templates reloaded : class prototypes "
+                            + "disabled, run PrototypeTool again");
+                }
+                // Keep the search settings of the current index
+                final TemplateIndex current = pipeline.getIndex();
+                pipeline.setIndex(index.withBand(current.dtwBand).withCoarse(
+                        current.coarseFactor, current.coarseCandidates));
+            }
+        });
+        watcher.start();
+    }
+    
+    /**
+     * Calibrate the incoming samples with the given calibration, which
+     * should be the one of the templates
+     */
+    public void setCalibration(SensorCalibration calibration) {
+        this.calibration = calibration;
+    }
+    
     @Subscribe
     public void sampleReceived(AccelGyro.UncalibratedSample sample) {
+        final SensorCalibration calib = calibration;
         if (!calibrated) {
             onSample(sample);
+        } else if (calib != null) {
+            final float[] accel = new float[3];
+            final float[] gyro = new float[3];
+            calib.calibrateAccel(sample.accel, accel);
+            calib.calibrateGyro(sample.gyro, gyro);
+            onSample(new AccelGyro.CalibratedSample(sample.receivedTimestampMillis,
+                                                    accel, gyro));
         }
     }
     
     @Subscribe
     public void sampledReceived(AccelGyro.CalibratedSample sample) {
-        if (calibrated) {
+        if (calibrated && calibration == null) {
             onSample(sample);
         }
     }
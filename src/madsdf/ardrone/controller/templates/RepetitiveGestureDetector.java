@@ -10,6 +10,7 @@ import com.google.common.collect.Ordering;
 import java.util.List;
 import java.util.Map;
 import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.utils.Clock;
 
 /**
  *
@@ -17,27 +18,56 @@ import madsdf.ardrone.ActionCommand;
  */
 public class RepetitiveGestureDetector implements GestureDetector {
 
-    private final static float STDDEV_THRESHOLD = /*2000*/20;
-    private final static float NEAREST_DIST_THRESHOLD = /*100000*/1000;
-    private final static int NN_MIN_AGREE = (int) (KNNGestureController.KNN_K * 2. / 3.);
+    public final static float DEFAULT_STDDEV_THRESHOLD = /*2000*/20;
+    public final static float DEFAULT_NEAREST_DIST_THRESHOLD = /*100000*/1000;
+    public final static long DEFAULT_INTER_ACTION_DELAY = 1000;
+    
+    private final float stddevThreshold;
+    private final float nearestDistThreshold;
+    private final int nnMinAgree;
     
     // Minimum delay between two DIFFERENT actions
-    private final static long INTER_ACTION_DELAY = 1000;
+    private final long interActionDelay;
     
     private KNN knn;
     private float stddev;
     
     // Record last time given action was decided
     //private final Map<ActionCommand, Long> prevTimestampMS = Maps.newHashMap();
-    private long prevDecidedMS = System.currentTimeMillis();;
+    private Clock clock = Clock.SYSTEM;
+    private long prevDecidedMS = clock.currentTimeMillis();
     private ActionCommand prevDecided = ActionCommand.NOTHING;
 
     public RepetitiveGestureDetector() {
+        this(DEFAULT_STDDEV_THRESHOLD, DEFAULT_NEAREST_DIST_THRESHOLD,
+             (int) (KNNGestureController.KNN_K * 2. / 3.),
+             DEFAULT_INTER_ACTION_DELAY);
+    }
+    
+    /**
+     * @param stddevThreshold minimum stddev of a window to detect a gesture
+     * @param nearestDistThreshold maximum distance to the nearest neighbor
+     * @param nnMinAgree minimum number of neighbors of the detected class
+     * @param interActionDelay minimum delay between two different actions
+     */
+    public RepetitiveGestureDetector(float stddevThreshold,
+                                     float nearestDistThreshold,
+                                     int nnMinAgree, long interActionDelay) {
+        this.stddevThreshold = stddevThreshold;
+        this.nearestDistThreshold = nearestDistThreshold;
+        this.nnMinAgree = nnMinAgree;
+        this.interActionDelay = interActionDelay;
         /*for (ActionCommand a: ActionCommand.values()) {
             prevTimestampMS.put(a, System.currentTimeMillis());
         }*/
     }
     
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = clock;
+        prevDecidedMS = clock.currentTimeMillis();
+    }
+    
     @Override
     public void addVotation(KNN knn, float stddev) {
         this.knn = knn;
@@ -66,15 +96,15 @@ public class RepetitiveGestureDetector implements GestureDetector {
         }
         //System.out.println("1");
         // Check dist of nearest neighbour below threshold
-        if (knn.getNeighborDist(0) > NEAREST_DIST_THRESHOLD) {
+        if (knn.getNeighborDist(0) > nearestDistThreshold) {
             return ActionCommand.NOTHING;
         }
         //System.out.println("2");
 
         // Check number of agreeing NN
         //System.out.println("votes for best : " + knn.votesPerClass.get(bestClass));
-        //System.out.println("min agree : " + NN_MIN_AGREE);
-        if (knn.votesPerClass.get(bestClass) < NN_MIN_AGREE) {
+        //System.out.println("min agree : " + nnMinAgree);
+        if (knn.votesPerClass.get(bestClass) < nnMinAgree) {
             return ActionCommand.NOTHING;
         }
         
@@ -82,7 +112,7 @@ public class RepetitiveGestureDetector implements GestureDetector {
         // TODO: Ugly hard-coded hack
         // Don't check of GOUP and GODOWN because they are static positions
         if (bestClass != ActionCommand.GOTOP && bestClass != ActionCommand.GODOWN) {
-            if (stddev < STDDEV_THRESHOLD) {
+            if (stddev < stddevThreshold) {
                 return ActionCommand.NOTHING;
             }
         }
@@ -92,10 +122,10 @@ public class RepetitiveGestureDetector implements GestureDetector {
             return ActionCommand.NOTHING;
         }
         
-        final long now = System.currentTimeMillis();
+        final long now = clock.currentTimeMillis();
         if (prevDecided == ActionCommand.NOTHING || 
             prevDecided == bestClass ||
-            (now - prevDecidedMS) > INTER_ACTION_DELAY) {
+            (now - prevDecidedMS) > interActionDelay) {
             prevDecidedMS = now;
             prevDecided = bestClass;
             return bestClass;
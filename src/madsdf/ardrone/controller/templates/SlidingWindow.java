@@ -0,0 +1,224 @@
+package madsdf.ardrone.controller.templates;
+
+import java.util.Arrays;
+import madsdf.ardrone.utils.Utils;
+
+/**
+ * The live window of a GesturePipeline, kept from one step to the next.
+ * Consecutive windows share all but 'step' samples, so only the end of the
+ * median-filtered window and the lower bound contributions of the new
+ * filtered values are computed again when the window slides. The rest is
+ * shifted.
+ *
+ * The lower bound of the DTW between the window and a template is, on each
+ * axis, the sum of the distances of the filtered window values to the
+ * [min, max] envelope of the template (each window value is matched to at
+ * least one template value). It is valid with or without DTW band.
+ *
+ * Not thread-safe, used by the thread of the pipeline.
+ */
+public class SlidingWindow {
+    private TemplateIndex index = null;
+    private float[][] raw = null;
+    private float[][] filtered = null;
+    // Lower bound contribution of each filtered window value, for each
+    // template and axis, in a ring : window position i is at (head + i) % n
+    private float[][][] contrib = null;
+    // Sum of the contributions of each template (all the axes)
+    private double[] bounds = null;
+    private int head = 0;
+    // Samples shifted since the sums were last computed from scratch
+    private int shifted = 0;
+    // Min and max of each axis of the filtered window
+    private final float[] windowMin = new float[3];
+    private final float[] windowMax = new float[3];
+
+    /**
+     * Set the next window
+     * @param windowAccel [axis][sample] accel of the window, not modified
+     * @param shift number of samples since the previous window, used to
+     * reuse its results if the windows do overlap. Any value is correct.
+     */
+    public void update(float[][] windowAccel, int shift, TemplateIndex index) {
+        final int n = windowAccel[0].length;
+        if (index != this.index || raw == null || raw[0].length != n
+                || shift <= 0 || shift >= n || !overlaps(windowAccel, shift)) {
+            reset(windowAccel, index);
+            return;
+        }
+
+        // Filtered values which see the whole median width are the same as
+        // in the previous window, shifted. The others, at the end, depend
+        // on the new samples.
+        final int width = index.medianWidth;
+        final int recompute = Math.max(0, n - width - shift + 1);
+        for (int a = 0; a < 3; ++a) {
+            System.arraycopy(filtered[a], shift, filtered[a], 0, n - shift);
+            for (int i = recompute; i < n; ++i) {
+                filtered[a][i] = median(windowAccel[a], i, width);
+            }
+        }
+
+        if (shifted + shift >= n) {
+            // Sum from scratch now and then, so rounding errors don't add up
+            head = (head + shift) % n;
+            for (int t = 0; t < index.size(); ++t) {
+                for (int a = 0; a < 3; ++a) {
+                    for (int i = recompute; i < n; ++i) {
+                        contrib[t][a][(head + i) % n] =
+                                contribution(filtered[a][i], index, t, a);
+                    }
+                }
+            }
+            sumBounds();
+        } else {
+            for (int t = 0; t < index.size(); ++t) {
+                double bound = bounds[t];
+                for (int a = 0; a < 3; ++a) {
+                    final float[] c = contrib[t][a];
+                    // Values leaving the window, and values recomputed
+                    for (int i = 0; i < shift; ++i) {
+                        bound -= c[(head + i) % n];
+                    }
+                    for (int i = recompute + shift; i < n; ++i) {
+                        bound -= c[(head + i) % n];
+                    }
+                    final int newHead = (head + shift) % n;
+                    for (int i = recompute; i < n; ++i) {
+                        final float v = contribution(filtered[a][i], index, t, a);
+                        c[(newHead + i) % n] = v;
+                        bound += v;
+                    }
+                }
+                bounds[t] = bound;
+            }
+            head = (head + shift) % n;
+            shifted += shift;
+        }
+        for (int a = 0; a < 3; ++a) {
+            System.arraycopy(windowAccel[a], 0, raw[a], 0, n);
+        }
+        computeWindowRange();
+    }
+
+    private void reset(float[][] windowAccel, TemplateIndex index) {
+        final int n = windowAccel[0].length;
+        this.index = index;
+        raw = new float[3][];
+        for (int a = 0; a < 3; ++a) {
+            raw[a] = windowAccel[a].clone();
+        }
+        filtered = index.filter(windowAccel);
+        contrib = new float[index.size()][3][n];
+        bounds = new double[index.size()];
+        head = 0;
+        for (int t = 0; t < index.size(); ++t) {
+            for (int a = 0; a < 3; ++a) {
+                for (int i = 0; i < n; ++i) {
+                    contrib[t][a][i] = contribution(filtered[a][i], index, t, a);
+                }
+            }
+        }
+        sumBounds();
+        computeWindowRange();
+    }
+
+    private void sumBounds() {
+        for (int t = 0; t < contrib.length; ++t) {
+            double bound = 0;
+            for (float[] c : contrib[t]) {
+                for (float v : c) {
+                    bound += v;
+                }
+            }
+            bounds[t] = bound;
+        }
+        shifted = 0;
+    }
+
+    private void computeWindowRange() {
+        for (int a = 0; a < 3; ++a) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (float v : filtered[a]) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            windowMin[a] = min;
+            windowMax[a] = max;
+        }
+    }
+
+    // Whether the first samples of the window are the last of the previous
+    private boolean overlaps(float[][] windowAccel, int shift) {
+        final int n = windowAccel[0].length;
+        for (int a = 0; a < 3; ++a) {
+            final float[] w = windowAccel[a];
+            final float[] r = raw[a];
+            for (int i = 0; i < n - shift; ++i) {
+                if (Float.floatToIntBits(w[i]) != Float.floatToIntBits(r[i + shift])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Same value as Utils.medianFilter at position i
+    private static float median(float[] serie, int i, int width) {
+        final int to = Math.min(i + width, serie.length);
+        return Utils.median(Arrays.copyOfRange(serie, i, to), true);
+    }
+
+    private static float contribution(float v, TemplateIndex index, int t, int a) {
+        final float min = index.getEnvelopeMin(t)[a];
+        final float max = index.getEnvelopeMax(t)[a];
+        if (v > max) {
+            return v - max;
+        } else if (v < min) {
+            return min - v;
+        }
+        return 0;
+    }
+
+    public TemplateIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the median-filtered window, as index.filter() would give.
+     * Must not be modified.
+     */
+    public float[][] getFiltered() {
+        return filtered;
+    }
+
+    /**
+     * @return the lower bound of the DTW between the window and the t-th
+     * template, from the envelope of the template
+     */
+    public float windowBound(int t) {
+        return (float)bounds[t];
+    }
+
+    /**
+     * @return the lower bound of the DTW between the window and the t-th
+     * template, from the range of the window. Computed on each call.
+     */
+    public float templateBound(int t) {
+        float bound = 0;
+        final float[][] f = index.getFilteredAccel(t);
+        for (int a = 0; a < 3; ++a) {
+            final float min = windowMin[a];
+            final float max = windowMax[a];
+            for (float v : f[a]) {
+                if (v > max) {
+                    bound += v - max;
+                } else if (v < min) {
+                    bound += min - v;
+                }
+            }
+        }
+        return bound;
+    }
+}
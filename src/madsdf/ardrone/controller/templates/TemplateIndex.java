@@ -0,0 +1,239 @@
+package madsdf.ardrone.controller.templates;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import java.util.List;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DTW;
+import madsdf.ardrone.utils.Utils;
+
+/**
+ * Gesture templates ready to be compared with incoming windows. The median
+ * filtering of the templates is done once here instead of for every window.
+ * Immutable, so it can be shared by several threads.
+ */
+public class TemplateIndex {
+    // Width of the median filter applied to the windows and the templates
+    public static final int DEFAULT_MEDIAN_WIDTH = 10;
+
+    public final int medianWidth;
+    // Half-width of the Sakoe-Chiba band of the DTW, negative for no band
+    public final int dtwBand;
+    // Coarse-to-fine search : when coarseFactor > 1, the templates are
+    // ranked by the DTW of their PAA (see DTW.paa) with the window, and the
+    // full DTW is only computed for the coarseCandidates best ones
+    public final int coarseFactor;
+    public final int coarseCandidates;
+    private final ImmutableList<GestureTemplate> templates;
+    // Median-filtered accel of each template, same order as templates
+    private final float[][][] filteredAccel;
+    // Min and max of each axis of filteredAccel, for the DTW lower bounds
+    // (see SlidingWindow)
+    private final float[][] envelopeMin;
+    private final float[][] envelopeMax;
+    // PAA of filteredAccel, null when coarseFactor <= 1
+    private final float[][][] coarseAccel;
+    private final ImmutableListMultimap<ActionCommand, GestureTemplate> byCommand;
+
+    public TemplateIndex(List<GestureTemplate> templates) {
+        this(templates, DEFAULT_MEDIAN_WIDTH);
+    }
+
+    public TemplateIndex(List<GestureTemplate> templates, int medianWidth) {
+        this.medianWidth = medianWidth;
+        this.dtwBand = -1;
+        this.coarseFactor = 1;
+        this.coarseCandidates = 0;
+        this.coarseAccel = null;
+        this.templates = ImmutableList.copyOf(templates);
+        this.filteredAccel = new float[templates.size()][][];
+        ImmutableListMultimap.Builder<ActionCommand, GestureTemplate> b =
+                ImmutableListMultimap.builder();
+        for (int i = 0; i < templates.size(); ++i) {
+            final GestureTemplate g = templates.get(i);
+            filteredAccel[i] = Utils.medianFilter(g.gesture.accel, medianWidth);
+            b.put(g.command, g);
+        }
+        this.byCommand = b.build();
+        this.envelopeMin = new float[templates.size()][3];
+        this.envelopeMax = new float[templates.size()][3];
+        computeEnvelopes();
+    }
+
+    /**
+     * Index using already filtered templates (read from a TemplateStore)
+     * @param filteredAccel the accel of each template filtered with the
+     * given median width
+     */
+    public TemplateIndex(List<GestureTemplate> templates, int medianWidth,
+                         float[][][] filteredAccel) {
+        checkArgument(templates.size() == filteredAccel.length);
+        this.medianWidth = medianWidth;
+        this.dtwBand = -1;
+        this.coarseFactor = 1;
+        this.coarseCandidates = 0;
+        this.coarseAccel = null;
+        this.templates = ImmutableList.copyOf(templates);
+        this.filteredAccel = filteredAccel;
+        ImmutableListMultimap.Builder<ActionCommand, GestureTemplate> b =
+                ImmutableListMultimap.builder();
+        for (GestureTemplate g : templates) {
+            b.put(g.command, g);
+        }
+        this.byCommand = b.build();
+        this.envelopeMin = new float[templates.size()][3];
+        this.envelopeMax = new float[templates.size()][3];
+        computeEnvelopes();
+    }
+
+    // Share the filtered templates of another index
+    private TemplateIndex(TemplateIndex other, int dtwBand, int coarseFactor,
+                          int coarseCandidates, float[][][] coarseAccel) {
+        this.medianWidth = other.medianWidth;
+        this.dtwBand = dtwBand;
+        this.coarseFactor = coarseFactor;
+        this.coarseCandidates = coarseCandidates;
+        this.coarseAccel = coarseAccel;
+        this.templates = other.templates;
+        this.filteredAccel = other.filteredAccel;
+        this.byCommand = other.byCommand;
+        this.envelopeMin = other.envelopeMin;
+        this.envelopeMax = other.envelopeMax;
+    }
+
+    private void computeEnvelopes() {
+        for (int i = 0; i < filteredAccel.length; ++i) {
+            for (int a = 0; a < 3; ++a) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (float v : filteredAccel[i][a]) {
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+                envelopeMin[i][a] = min;
+                envelopeMax[i][a] = max;
+            }
+        }
+    }
+
+    /**
+     * @return an index with the same filtered templates, compared using the
+     * given DTW band
+     */
+    public TemplateIndex withBand(int dtwBand) {
+        return new TemplateIndex(this, dtwBand, coarseFactor, coarseCandidates,
+                                 coarseAccel);
+    }
+
+    /**
+     * @return an index with the same filtered templates, searched
+     * coarse-to-fine : the templates are ranked with the DTW of their PAA
+     * of the given factor, and only the best candidates are compared with
+     * the full DTW. A factor of 1 disables the coarse search.
+     */
+    public TemplateIndex withCoarse(int factor, int candidates) {
+        checkArgument(factor >= 1);
+        checkArgument(factor == 1 || candidates >= 1);
+        if (factor == 1) {
+            return new TemplateIndex(this, dtwBand, 1, 0, null);
+        }
+        float[][][] coarse = coarseAccel;
+        if (factor != coarseFactor) {
+            coarse = new float[filteredAccel.length][][];
+            for (int i = 0; i < filteredAccel.length; ++i) {
+                coarse[i] = DTW.paa(filteredAccel[i], factor);
+            }
+        }
+        return new TemplateIndex(this, dtwBand, factor, candidates, coarse);
+    }
+
+    /**
+     * @return an index of the given templates of this index, in the given
+     * order, sharing their filtered accel
+     */
+    public TemplateIndex select(int[] indices) {
+        List<GestureTemplate> selected = Lists.newArrayListWithCapacity(indices.length);
+        float[][][] filtered = new float[indices.length][][];
+        for (int i = 0; i < indices.length; ++i) {
+            selected.add(templates.get(indices[i]));
+            filtered[i] = filteredAccel[indices[i]];
+        }
+        return new TemplateIndex(selected, medianWidth, filtered)
+                .withBand(dtwBand).withCoarse(coarseFactor, coarseCandidates);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    public GestureTemplate get(int i) {
+        return templates.get(i);
+    }
+
+    public ImmutableList<GestureTemplate> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return the median-filtered accel of the i-th template. Must not be
+     * modified.
+     */
+    public float[][] getFilteredAccel(int i) {
+        return filteredAccel[i];
+    }
+
+    /**
+     * @return the minimum of each axis of the filtered accel of the i-th
+     * template. Must not be modified.
+     */
+    public float[] getEnvelopeMin(int i) {
+        return envelopeMin[i];
+    }
+
+    public float[] getEnvelopeMax(int i) {
+        return envelopeMax[i];
+    }
+
+    /**
+     * @return the PAA of the filtered accel of the i-th template, null if
+     * the coarse search is disabled. Must not be modified.
+     */
+    public float[][] getCoarseAccel(int i) {
+        return coarseAccel == null ? null : coarseAccel[i];
+    }
+
+    public boolean isCoarse() {
+        return coarseAccel != null;
+    }
+
+    /**
+     * @return the PAA of a filtered window, for the coarse search
+     */
+    public float[][] coarsen(float[][] filteredWindow) {
+        return DTW.paa(filteredWindow, coarseFactor);
+    }
+
+    // Band of the coarse DTW : the band of the full DTW, scaled
+    public int coarseBand() {
+        return dtwBand < 0 ? -1 : (dtwBand + coarseFactor - 1) / coarseFactor;
+    }
+
+    public ImmutableListMultimap<ActionCommand, GestureTemplate> getTemplatesByCommand() {
+        return byCommand;
+    }
+
+    public ImmutableSet<ActionCommand> getCommands() {
+        return byCommand.keySet();
+    }
+
+    /**
+     * Median filter a window the same way as the templates
+     */
+    public float[][] filter(float[][] windowAccel) {
+        return Utils.medianFilter(windowAccel, medianWidth);
+    }
+}
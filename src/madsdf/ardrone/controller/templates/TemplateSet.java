@@ -0,0 +1,293 @@
+package madsdf.ardrone.controller.templates;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DataFileReader;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import madsdf.ardrone.utils.PropertiesReader;
+import madsdf.ardrone.utils.SensorCalibration;
+
+/**
+ * A set of gesture templates as stored in a data/<hand>/<set> directory :
+ * the "SHIMID_movement_xx_xx.txt" files and the description file giving the
+ * movements map, the window size and the detector to use.
+ */
+public class TemplateSet {
+    public static final Pattern FNAME_PATTERN = Pattern.compile("(\\w+)_movement_\\d+_\\d+.txt");
+
+    /**
+     * Load the template set described by a gestures properties file (the
+     * dtw_gestures_*.properties files)
+     */
+    public static TemplateSet FromProperties(String configSensor) throws Exception {
+        PropertiesReader reader = new PropertiesReader(configSensor);
+        checkState(reader.getString("class_name").equals(KNNGestureController.class.getName()));
+        final String basedir = reader.getString("sensor_basedir");
+        final String descFile = reader.getString("desc_file");
+        // Use the compiled templates (see TemplateCompiler) if available and
+        // not older than the files they were compiled from
+        if (reader.hasKey("template_store")) {
+            final File store = new File(reader.getString("template_store"));
+            if (store.exists() && isOlder(store, new File(basedir), descFile)) {
+                System.err.println("Ignoring template store " + store
+                        + " : older than the files in " + basedir
+                        + ", run TemplateCompiler again");
+            } else if (store.exists()) {
+                try {
+                    return TemplateStore.read(store);
+                } catch (IOException ex) {
+                    System.err.println("Ignoring template store : "
+                            + ex.getMessage());
+                }
+            }
+        }
+        return FromDirectory(basedir, descFile);
+    }
+
+    /**
+     * @return true if the given file is older than the description file or
+     * one of the movement files of the directory
+     */
+    static boolean isOlder(File file, File directory, String descFile) {
+        final long modified = file.lastModified();
+        if (new File(directory, descFile).lastModified() > modified) {
+            return true;
+        }
+        final File[] files = listMovementFiles(directory);
+        if (files != null) {
+            for (File f : files) {
+                if (f.lastModified() > modified) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the template set in the given directory
+     * @param sensorDataBasedir the directory containing the movement files
+     * @param descFile the name of the description file in this directory
+     */
+    public static TemplateSet FromDirectory(String sensorDataBasedir,
+                                            String descFile) throws Exception {
+        PropertiesReader descReader = new PropertiesReader(sensorDataBasedir + "/" + descFile);
+        boolean calibrated = descReader.getBoolean("calibrated");
+        // MovementsMap : convert from <String, String> to <Integer, String>
+        Map<String, String> _movementsMap = descReader.getMap("movements_map");
+        ImmutableMap.Builder<Integer, ActionCommand> movementsMap = ImmutableMap.builder();
+        for (Entry<String, String> e : _movementsMap.entrySet()) {
+            final ActionCommand a = ActionCommand.valueOf(e.getValue());
+            movementsMap.put(Integer.parseInt(e.getKey()), a);
+        }
+
+        final int windowSize = descReader.getInteger("windowsize");
+        final String detectorName = KNNGestureController.class.getPackage().getName()
+                + "." + descReader.getString("detector");
+        return new TemplateSet(new File(sensorDataBasedir), calibrated,
+                movementsMap.build(), windowSize, detectorName);
+    }
+
+    /**
+     * @return the "SHIMID_movement_xx_xx.txt" files in the given directory
+     */
+    public static File[] listMovementFiles(File dir) {
+        return dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.contains("movement") && name.endsWith(".txt");
+            }
+        });
+    }
+
+    /**
+     * Read the gestures of a movement file, calibrating them if needed
+     */
+    public static List<Gesture> readMovementFile(File tf, boolean calibrated)
+            throws Exception {
+        final Matcher m = FNAME_PATTERN.matcher(tf.getName());
+        checkState(m.matches());
+        final String shimmerID = m.group(1);
+
+        final List<Gesture> gestures;
+        try (FileReader reader = new FileReader(tf)) {
+            gestures = new DataFileReader(reader).readAll();
+        }
+        // Calibrated if needed
+        if (calibrated) {
+            final SensorCalibration calib = SensorCalibration.get(shimmerID);
+            for (int i = 0; i < gestures.size(); ++i) {
+                gestures.set(i, gestures.get(i).calibrateGesture(calib));
+            }
+        }
+        return gestures;
+    }
+
+    /**
+     * Read the gestures of the movement files in parallel, one task per
+     * file.
+     * @return the gestures of each file, in the order of files
+     */
+    public static List<List<Gesture>> readMovementFiles(List<File> files,
+            final boolean calibrated, ExecutorService executor) throws Exception {
+        List<List<Gesture>> gestures = Lists.newArrayList();
+        List<Future<List<Gesture>>> futures = Lists.newArrayList();
+        for (final File f : files) {
+            futures.add(executor.submit(new Callable<List<Gesture>>() {
+                @Override
+                public List<Gesture> call() throws Exception {
+                    return readMovementFile(f, calibrated);
+                }
+            }));
+        }
+        for (Future<List<Gesture>> future : futures) {
+            try {
+                gestures.add(future.get());
+            } catch (ExecutionException ex) {
+                Throwables.propagateIfInstanceOf(ex.getCause(), Exception.class);
+                throw Throwables.propagate(ex.getCause());
+            }
+        }
+        return gestures;
+    }
+
+    // A movement file as it was before its templates were read
+    static class FileStamp {
+        final File file;
+        final long lastModified;
+        final long length;
+        // Number of templates of the file
+        final int count;
+
+        FileStamp(File file, long lastModified, long length, int count) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.count = count;
+        }
+    }
+
+    public final File directory;
+    public final boolean calibrated;
+    public final ImmutableMap<Integer, ActionCommand> movementsMap;
+    public final int windowSize;
+    public final String detectorName;
+
+    private ImmutableList<GestureTemplate> templates = null;
+    private TemplateIndex index = null;
+    private ImmutableList<FileStamp> fileStamps = null;
+
+    public TemplateSet(File directory, boolean calibrated,
+                       ImmutableMap<Integer, ActionCommand> movementsMap,
+                       int windowSize, String detectorName) {
+        this.directory = directory;
+        this.calibrated = calibrated;
+        this.movementsMap = movementsMap;
+        this.windowSize = windowSize;
+        this.detectorName = detectorName;
+    }
+
+    // Set with its templates already loaded
+    TemplateSet(File directory, boolean calibrated,
+                ImmutableMap<Integer, ActionCommand> movementsMap,
+                int windowSize, String detectorName, TemplateIndex index) {
+        this(directory, calibrated, movementsMap, windowSize, detectorName);
+        this.index = index;
+        this.templates = index.getTemplates();
+    }
+
+    /**
+     * @return the templates, read from the movement files on first call.
+     * The files are read in parallel and the templates sorted by file name.
+     */
+    public synchronized ImmutableList<GestureTemplate> getTemplates() throws Exception {
+        if (templates == null) {
+            List<File> files = Lists.newArrayList(listMovementFiles(directory));
+            Collections.sort(files);
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors());
+            // Stamped before reading, a file changed meanwhile is newer
+            final long[] lastModified = new long[files.size()];
+            final long[] lengths = new long[files.size()];
+            for (int i = 0; i < files.size(); ++i) {
+                lastModified[i] = files.get(i).lastModified();
+                lengths[i] = files.get(i).length();
+            }
+            ImmutableList.Builder<GestureTemplate> b = ImmutableList.builder();
+            ImmutableList.Builder<FileStamp> stamps = ImmutableList.builder();
+            try {
+                final List<List<Gesture>> fileGestures =
+                        readMovementFiles(files, calibrated, executor);
+                for (int i = 0; i < files.size(); ++i) {
+                    for (Gesture g : fileGestures.get(i)) {
+                        final ActionCommand cmd = movementsMap.get(g.command);
+                        b.add(new GestureTemplate(cmd, g));
+                    }
+                    stamps.add(new FileStamp(files.get(i), lastModified[i],
+                            lengths[i], fileGestures.get(i).size()));
+                }
+            } finally {
+                executor.shutdown();
+            }
+            templates = b.build();
+            fileStamps = stamps.build();
+        }
+        return templates;
+    }
+
+    /**
+     * @return the movement files read by getTemplates(), in the order of the
+     * templates, or null if the templates were not read from the files
+     * (TemplateStore, withIndex)
+     */
+    synchronized ImmutableList<FileStamp> getFileStamps() {
+        return fileStamps;
+    }
+
+    /**
+     * @return a set with the same description and the templates of the
+     * given index
+     */
+    public TemplateSet withIndex(TemplateIndex index) {
+        return new TemplateSet(directory, calibrated, movementsMap, windowSize,
+                               detectorName, index);
+    }
+
+    /**
+     * @return the index of the templates, with the default median width
+     * unless the set was read from a TemplateStore
+     */
+    public synchronized TemplateIndex getIndex() throws Exception {
+        if (index == null) {
+            index = new TemplateIndex(getTemplates());
+        }
+        return index;
+    }
+
+    /**
+     * @return a new instance of the detector named in the description file
+     */
+    public GestureDetector createDetector() throws Exception {
+        return (GestureDetector)Class.forName(detectorName).newInstance();
+    }
+}
@@ -0,0 +1,258 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+
+/**
+ * Binary file containing a whole template set : the description, the
+ * (calibrated) templates and their median-filtered accel. Loading it is a
+ * memory map and a copy of the series, without text parsing, calibration
+ * nor filtering.
+ *
+ * Little-endian layout :
+ * int MAGIC, int VERSION, int payload length, int CRC32 of the payload
+ * payload :
+ *   byte calibrated, int windowsize, int median width,
+ *   string detector, string directory,
+ *   int n, n * (int movement id, string command),
+ *   int n, n * template
+ * template : int movement id, int sample, int length,
+ *   9 series (accel x/y/z, gyro x/y/z, filtered accel x/y/z)
+ * series : byte ENCODING_*, length floats or shorts
+ * string : short length, UTF-8 bytes
+ */
+public class TemplateStore {
+    public static final int MAGIC = 0x53504C54;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    // Series stored as float32, or as int16 when all the values are
+    // integers fitting in a short (the uncalibrated sensor values)
+    public static final byte ENCODING_FLOAT = 0;
+    public static final byte ENCODING_SHORT = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Write the templates of a set, filtered with the given median width
+     */
+    public static void write(TemplateSet set, int medianWidth, File out)
+            throws Exception {
+        final List<GestureTemplate> templates = set.getTemplates();
+        final TemplateIndex index = set.getIndex().medianWidth == medianWidth
+                ? set.getIndex() : new TemplateIndex(templates, medianWidth);
+
+        final byte[] detector = set.detectorName.getBytes(UTF8);
+        final byte[] directory = set.directory.getPath().getBytes(UTF8);
+        final byte[][] commands = new byte[set.movementsMap.size()][];
+        int size = 1 + 4 + 4 + 2 + detector.length + 2 + directory.length + 4;
+        int c = 0;
+        for (Entry<Integer, ActionCommand> e : set.movementsMap.entrySet()) {
+            commands[c] = e.getValue().name().getBytes(UTF8);
+            size += 4 + 2 + commands[c].length;
+            c++;
+        }
+        size += 4;
+        for (int i = 0; i < index.size(); ++i) {
+            size += 3 * 4;
+            for (float[] s : series(index, i)) {
+                size += 1 + s.length * (isShort(s) ? 2 : 4);
+            }
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        b.position(HEADER_SIZE);
+        b.put((byte)(set.calibrated ? 1 : 0));
+        b.putInt(set.windowSize);
+        b.putInt(medianWidth);
+        putString(b, detector);
+        putString(b, directory);
+        b.putInt(set.movementsMap.size());
+        c = 0;
+        for (Entry<Integer, ActionCommand> e : set.movementsMap.entrySet()) {
+            b.putInt(e.getKey());
+            putString(b, commands[c++]);
+        }
+        b.putInt(index.size());
+        for (int i = 0; i < index.size(); ++i) {
+            final Gesture g = index.get(i).gesture;
+            b.putInt(g.command);
+            b.putInt(g.sample);
+            b.putInt(g.accel[0].length);
+            for (float[] s : series(index, i)) {
+                putSeries(b, s);
+            }
+        }
+
+        b.putInt(0, MAGIC);
+        b.putInt(4, VERSION);
+        b.putInt(8, size);
+        b.putInt(12, (int)crc32(b.array(), HEADER_SIZE, size));
+
+        try (FileOutputStream fos = new FileOutputStream(out)) {
+            fos.write(b.array());
+        }
+    }
+
+    /**
+     * Load a template set written by write()
+     * @throws IOException if the file is not a valid template store
+     */
+    public static TemplateSet read(File file) throws IOException {
+        final ByteBuffer b;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                       .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (b.remaining() < HEADER_SIZE || b.getInt() != MAGIC) {
+            throw new IOException("Not a template store : " + file);
+        }
+        final int version = b.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported template store version : " + version);
+        }
+        final int size = b.getInt();
+        final int crc = b.getInt();
+        if (size != b.remaining()) {
+            throw new IOException("Truncated template store : " + file);
+        }
+        if ((int)crc32(b, HEADER_SIZE, size) != crc) {
+            throw new IOException("Bad checksum in template store : " + file);
+        }
+
+        try {
+            final boolean calibrated = b.get() != 0;
+            final int windowSize = b.getInt();
+            final int medianWidth = b.getInt();
+            final String detector = getString(b);
+            final String directory = getString(b);
+            ImmutableMap.Builder<Integer, ActionCommand> movementsMap =
+                    ImmutableMap.builder();
+            final int numCommands = b.getInt();
+            for (int i = 0; i < numCommands; ++i) {
+                final int id = b.getInt();
+                movementsMap.put(id, ActionCommand.valueOf(getString(b)));
+            }
+            final ImmutableMap<Integer, ActionCommand> map = movementsMap.build();
+
+            final int numTemplates = b.getInt();
+            ImmutableList.Builder<GestureTemplate> templates = ImmutableList.builder();
+            final float[][][] filtered = new float[numTemplates][][];
+            for (int i = 0; i < numTemplates; ++i) {
+                final int command = b.getInt();
+                final int sample = b.getInt();
+                final int length = b.getInt();
+                final float[][] accel = getSeries(b, length);
+                final float[][] gyro = getSeries(b, length);
+                filtered[i] = getSeries(b, length);
+                templates.add(new GestureTemplate(map.get(command),
+                        new Gesture(command, sample, accel, gyro)));
+            }
+            final TemplateIndex index = new TemplateIndex(templates.build(),
+                                                          medianWidth, filtered);
+            return new TemplateSet(new File(directory), calibrated, map,
+                                   windowSize, detector, index);
+        } catch (RuntimeException ex) {
+            // BufferUnderflowException, unknown command...
+            throw new IOException("Corrupted template store : " + file, ex);
+        }
+    }
+
+    // The 9 series of a template, in file order
+    private static float[][] series(TemplateIndex index, int i) {
+        final Gesture g = index.get(i).gesture;
+        final float[][] f = index.getFilteredAccel(i);
+        return new float[][] {g.accel[0], g.accel[1], g.accel[2],
+                              g.gyro[0], g.gyro[1], g.gyro[2],
+                              f[0], f[1], f[2]};
+    }
+
+    static boolean isShort(float[] s) {
+        for (float v : s) {
+            if (v != (short)v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putSeries(ByteBuffer b, float[] s) {
+        if (isShort(s)) {
+            b.put(ENCODING_SHORT);
+            for (float v : s) {
+                b.putShort((short)v);
+            }
+        } else {
+            b.put(ENCODING_FLOAT);
+            for (float v : s) {
+                b.putFloat(v);
+            }
+        }
+    }
+
+    // Read 3 series of the given length
+    private static float[][] getSeries(ByteBuffer b, int length) throws IOException {
+        float[][] out = new float[3][length];
+        for (int a = 0; a < 3; ++a) {
+            final byte encoding = b.get();
+            if (encoding == ENCODING_SHORT) {
+                for (int i = 0; i < length; ++i) {
+                    out[a][i] = b.getShort();
+                }
+            } else if (encoding == ENCODING_FLOAT) {
+                b.asFloatBuffer().get(out[a]);
+                b.position(b.position() + length * 4);
+            } else {
+                throw new IOException("Unknown series encoding : " + encoding);
+            }
+        }
+        return out;
+    }
+
+    private static void putString(ByteBuffer b, byte[] s) {
+        b.putShort((short)s.length);
+        b.put(s);
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] s = new byte[b.getShort() & 0xFFFF];
+        b.get(s);
+        return new String(s, UTF8);
+    }
+
+    private static long crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    private static long crc32(ByteBuffer b, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = b.duplicate();
+        view.position(offset);
+        byte[] chunk = new byte[64 * 1024];
+        while (length > 0) {
+            final int n = Math.min(length, chunk.length);
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            length -= n;
+        }
+        return crc.getValue();
+    }
+}
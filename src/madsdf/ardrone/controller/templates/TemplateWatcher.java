@@ -0,0 +1,235 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import madsdf.ardrone.utils.Utils;
+
+/**
+ * Watch the directory of a template set and rebuild its TemplateIndex when
+ * movement files are added, modified or removed. Only the changed files are
+ * read and filtered again. The rebuild runs on the watcher thread and the
+ * new index is handed to the listener once complete.
+ *
+ * The watcher starts from the templates already loaded by the set, the
+ * files changed since they were read are reloaded right away. A set read
+ * from a TemplateStore (TemplateCompiler, CondenseTool) is not watched :
+ * its templates are not those of the movement files.
+ */
+public class TemplateWatcher {
+    public interface Listener {
+        // Called on the watcher thread with the new index
+        public void templatesReloaded(TemplateIndex index);
+    }
+
+    // Wait for this delay without events before rebuilding, so a file
+    // being written is read once complete
+    public static final long SETTLE_MS = 500;
+
+    // The templates of a movement file
+    private static class FileEntry {
+        final long lastModified;
+        final long length;
+        final List<GestureTemplate> templates;
+        final List<float[][]> filteredAccel;
+
+        FileEntry(long lastModified, long length,
+                  List<GestureTemplate> templates, List<float[][]> filteredAccel) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.templates = templates;
+            this.filteredAccel = filteredAccel;
+        }
+    }
+
+    private final TemplateSet set;
+    private final int medianWidth;
+    private final Listener listener;
+    // Only used by the thread calling rebuild()
+    private final Map<File, FileEntry> entries = Maps.newHashMap();
+    private WatchService watchService = null;
+    private Thread thread = null;
+
+    public TemplateWatcher(TemplateSet set, int medianWidth, Listener listener) {
+        this.set = set;
+        this.medianWidth = medianWidth;
+        this.listener = listener;
+    }
+
+    /**
+     * Start watching. The listener is called in the background if files
+     * changed since the set read them, and on each later change.
+     * @return false if the set was not read from its movement files, it is
+     * then not watched
+     */
+    public synchronized boolean start() throws IOException {
+        if (set.getFileStamps() == null) {
+            System.err.println("TemplateWatcher : " + set.directory
+                    + " not watched, the templates come from a template store");
+            return false;
+        }
+        final Path dir = set.directory.toPath();
+        watchService = FileSystems.getDefault().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                     StandardWatchEventKinds.ENTRY_MODIFY,
+                     StandardWatchEventKinds.ENTRY_DELETE);
+        final WatchService ws = watchService;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(ws);
+            }
+        }, "TemplateWatcher " + dir);
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                System.err.println("TemplateWatcher : " + ex);
+            }
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService ws) {
+        try {
+            TemplateIndex initial = null;
+            try {
+                initial = set.getIndex();
+            } catch (Exception ex) {
+                System.err.println("TemplateWatcher : " + ex);
+            }
+            final boolean seeded = initial != null && seed(initial);
+            // Unseeded, all the files are read : only the later changes are
+            // handed over
+            final TemplateIndex first = rebuild();
+            if (first != null && seeded) {
+                reloaded(first);
+            }
+            while (true) {
+                WatchKey key = ws.take();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = ws.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null);
+
+                final TemplateIndex index = rebuild();
+                if (index != null) {
+                    reloaded(index);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            // stop() called
+        }
+    }
+
+    private void reloaded(TemplateIndex index) {
+        System.out.println("Templates reloaded from " + set.directory
+                + " : " + index.size() + " templates");
+        listener.templatesReloaded(index);
+    }
+
+    /**
+     * Start from the templates of the set, as read from its files, so only
+     * the files changed since are read again by the next rebuild().
+     * @param index the index of the set
+     * @return false if the set was not read from its files or the index
+     * has another median width, the next rebuild() then reads all the files
+     */
+    boolean seed(TemplateIndex index) {
+        final List<TemplateSet.FileStamp> stamps = set.getFileStamps();
+        if (stamps == null || index.medianWidth != medianWidth) {
+            return false;
+        }
+        int i = 0;
+        for (TemplateSet.FileStamp stamp : stamps) {
+            List<GestureTemplate> templates = Lists.newArrayList();
+            List<float[][]> filtered = Lists.newArrayList();
+            for (int t = 0; t < stamp.count; ++t, ++i) {
+                templates.add(index.get(i));
+                filtered.add(index.getFilteredAccel(i));
+            }
+            entries.put(stamp.file, new FileEntry(stamp.lastModified,
+                    stamp.length, templates, filtered));
+        }
+        return true;
+    }
+
+    /**
+     * Read the new and modified movement files and build the index of all
+     * the templates, in file name order.
+     * @return the new index, null if no file changed or a file could not be
+     * read (it is read again on its next change)
+     */
+    public TemplateIndex rebuild() {
+        File[] files = TemplateSet.listMovementFiles(set.directory);
+        if (files == null) {
+            System.err.println("TemplateWatcher : cannot list " + set.directory);
+            return null;
+        }
+        Arrays.sort(files);
+
+        boolean changed = entries.keySet().retainAll(Arrays.asList(files));
+        boolean failed = false;
+        for (File f : files) {
+            final FileEntry e = entries.get(f);
+            if (e != null && e.lastModified == f.lastModified()
+                    && e.length == f.length()) {
+                continue;
+            }
+            try {
+                entries.put(f, readFile(f));
+                changed = true;
+            } catch (Exception ex) {
+                System.err.println("TemplateWatcher : error reading " + f
+                        + " : " + ex);
+                failed = true;
+            }
+        }
+        if (!changed || failed) {
+            return null;
+        }
+
+        List<GestureTemplate> templates = Lists.newArrayList();
+        List<float[][]> filtered = Lists.newArrayList();
+        for (File f : files) {
+            final FileEntry e = entries.get(f);
+            templates.addAll(e.templates);
+            filtered.addAll(e.filteredAccel);
+        }
+        return new TemplateIndex(templates, medianWidth,
+                                 filtered.toArray(new float[filtered.size()][][]));
+    }
+
+    private FileEntry readFile(File f) throws Exception {
+        final long lastModified = f.lastModified();
+        final long length = f.length();
+        List<GestureTemplate> templates = Lists.newArrayList();
+        List<float[][]> filtered = Lists.newArrayList();
+        for (Gesture g : TemplateSet.readMovementFile(f, set.calibrated)) {
+            final ActionCommand cmd = set.movementsMap.get(g.command);
+            templates.add(new GestureTemplate(cmd, g));
+            filtered.add(Utils.medianFilter(g.accel, medianWidth));
+        }
+        return new FileEntry(lastModified, length, templates, filtered);
+    }
+}
@@ -0,0 +1,319 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNN;
+import madsdf.ardrone.controller.templates.KNNGestureController;
+import madsdf.ardrone.controller.templates.TemplateIndex;
+import madsdf.ardrone.controller.templates.TemplateSet;
+import madsdf.ardrone.controller.templates.TemplateStore;
+import madsdf.ardrone.utils.DTW;
+
+/**
+ * Condense a template set : the templates of each command are clustered
+ * with k-medoids on their DTW distances, and only the medoids are kept.
+ *
+ * Usage :
+ * CondenseTool [-k K] [--threads N] (--per-class N | --ratio R)
+ *              [--out store.bin] data/<hand>/<set> [desc file]
+ *
+ * Reports the leave-one-out accuracy of all the templates against the full
+ * and the condensed sets, and how often both give the same class. The
+ * condensed set can be written as a TemplateStore.
+ */
+public class CondenseTool {
+    // Maximum number of medoid update iterations
+    private static final int MAX_ITERATIONS = 20;
+
+    /**
+     * DTW distances between the given templates of the index, computed in
+     * parallel
+     * @return the symmetric [i][j] distances between members i and j
+     */
+    public static float[][] distances(final TemplateIndex index,
+                                      final int[] members,
+                                      ExecutorService executor) throws Exception {
+        final int n = members.length;
+        final float[][] dist = new float[n][n];
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < n; ++i) {
+            final int row = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final float[][] s = index.getFilteredAccel(members[row]);
+                    for (int j = row + 1; j < n; ++j) {
+                        dist[row][j] = DTW.allAxisDTW(s,
+                                index.getFilteredAccel(members[j]), index.dtwBand);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < i; ++j) {
+                dist[i][j] = dist[j][i];
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * k-medoids of the points with the given distances : greedy
+     * initialization, then alternate assignment and medoid update.
+     * @return the indices of the medoids, sorted
+     */
+    public static int[] medoids(float[][] dist, int k) {
+        final int n = dist.length;
+        if (k >= n) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; ++i) {
+                all[i] = i;
+            }
+            return all;
+        }
+        // Distance of each point to its nearest medoid
+        final float[] nearest = new float[n];
+        Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+        List<Integer> medoids = Lists.newArrayList();
+        while (medoids.size() < k) {
+            // Add the point which reduces the total distance the most
+            int best = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < n; ++c) {
+                if (medoids.contains(c)) {
+                    continue;
+                }
+                double cost = 0;
+                for (int j = 0; j < n; ++j) {
+                    cost += Math.min(nearest[j], dist[c][j]);
+                }
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = c;
+                }
+            }
+            medoids.add(best);
+            for (int j = 0; j < n; ++j) {
+                nearest[j] = Math.min(nearest[j], dist[best][j]);
+            }
+        }
+
+        final int[] assignment = new int[n];
+        for (int it = 0; it < MAX_ITERATIONS; ++it) {
+            for (int j = 0; j < n; ++j) {
+                int a = 0;
+                for (int m = 1; m < k; ++m) {
+                    if (dist[medoids.get(m)][j] < dist[medoids.get(a)][j]) {
+                        a = m;
+                    }
+                }
+                assignment[j] = a;
+            }
+            boolean changed = false;
+            for (int m = 0; m < k; ++m) {
+                // The member of the cluster closest to the others
+                int best = medoids.get(m);
+                double bestCost = Double.POSITIVE_INFINITY;
+                for (int c = 0; c < n; ++c) {
+                    if (assignment[c] != m) {
+                        continue;
+                    }
+                    double cost = 0;
+                    for (int j = 0; j < n; ++j) {
+                        if (assignment[j] == m) {
+                            cost += dist[c][j];
+                        }
+                    }
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = c;
+                    }
+                }
+                if (best != medoids.get(m)) {
+                    medoids.set(m, best);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+        }
+        Collections.sort(medoids);
+        return Ints.toArray(medoids);
+    }
+
+    /**
+     * @param budget the number of templates to keep for each command
+     * @return the indices in the index of the kept templates, sorted
+     */
+    public static int[] condense(TemplateIndex index, int budget,
+                                 ExecutorService executor) throws Exception {
+        List<Integer> kept = Lists.newArrayList();
+        for (ActionCommand command : index.getCommands()) {
+            List<Integer> members = Lists.newArrayList();
+            for (int i = 0; i < index.size(); ++i) {
+                if (index.get(i).command == command) {
+                    members.add(i);
+                }
+            }
+            final int[] m = Ints.toArray(members);
+            for (int medoid : medoids(distances(index, m, executor), budget)) {
+                kept.add(m[medoid]);
+            }
+        }
+        Collections.sort(kept);
+        return Ints.toArray(kept);
+    }
+
+    /**
+     * Classify every template of the full index against the condensed
+     * index, leaving the template out if it was kept
+     * @param kept the indices in the full index of the condensed templates
+     */
+    public static EvaluationTool.Result evaluate(final TemplateIndex full,
+            final TemplateIndex condensed, int[] kept, final int k,
+            ExecutorService executor) throws Exception {
+        final int n = full.size();
+        final ActionCommand[] actual = new ActionCommand[n];
+        final ActionCommand[] predicted = new ActionCommand[n];
+        final long[] latencyNS = new long[n];
+        final int[] position = new int[n];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < kept.length; ++i) {
+            position[kept[i]] = i;
+        }
+
+        final Stopwatch wall = new Stopwatch().start();
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < n; ++i) {
+            final int test = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final long start = System.nanoTime();
+                    final KNN knn = KNN.classifyFiltered(k,
+                            full.getFilteredAccel(test), condensed, position[test]);
+                    latencyNS[test] = System.nanoTime() - start;
+                    actual[test] = full.get(test).command;
+                    predicted[test] = knn.getBestClass();
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        final long wallNS = wall.elapsed(TimeUnit.NANOSECONDS);
+
+        List<ActionCommand> commands = Lists.newArrayList(full.getCommands());
+        Collections.sort(commands);
+        return new EvaluationTool.Result(commands, actual, predicted,
+                                         latencyNS, wallNS);
+    }
+
+    private static void usage() {
+        System.err.println("Usage : CondenseTool [-k K] [--threads N] "
+                + "(--per-class N | --ratio R) [--out store.bin] "
+                + "data/<hand>/<set> [desc file]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = KNNGestureController.KNN_K;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int perClass = -1;
+        float ratio = -1;
+        File out = null;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            final String v = args[i + 1];
+            switch (args[i]) {
+                case "-k": k = Integer.parseInt(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--per-class": perClass = Integer.parseInt(v); break;
+                case "--ratio": ratio = Float.parseFloat(v); break;
+                case "--out": out = new File(v); break;
+                default: usage();
+            }
+            i += 2;
+        }
+        if (i >= args.length || (perClass < 0) == (ratio < 0)) {
+            usage();
+        }
+        final String dir = args[i];
+        final String desc = i + 1 < args.length ? args[i + 1] : "desc.txt";
+
+        final TemplateSet set = TemplateSet.FromDirectory(dir, desc);
+        final TemplateIndex full = set.getIndex();
+        if (perClass < 0) {
+            // Budget from the largest class
+            int largest = 0;
+            for (ActionCommand c : full.getCommands()) {
+                largest = Math.max(largest, full.getTemplatesByCommand().get(c).size());
+            }
+            perClass = Math.max(1, Math.round(ratio * largest));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Stopwatch sw = new Stopwatch().start();
+            final int[] kept = condense(full, perClass, executor);
+            final TemplateIndex condensed = full.select(kept);
+            System.out.println(String.format(
+                    "%d -> %d templates (at most %d per command) in %d ms",
+                    full.size(), condensed.size(), perClass,
+                    sw.elapsed(TimeUnit.MILLISECONDS)));
+            for (ActionCommand c : condensed.getCommands()) {
+                System.out.println(String.format("  %-12s %3d -> %3d", c,
+                        full.getTemplatesByCommand().get(c).size(),
+                        condensed.getTemplatesByCommand().get(c).size()));
+            }
+
+            System.out.println("-- Full set (leave-one-out)");
+            final EvaluationTool.Result before =
+                    EvaluationTool.leaveOneOut(full, k, executor);
+            before.print(System.out);
+            System.out.println("-- Condensed set");
+            final EvaluationTool.Result after =
+                    evaluate(full, condensed, kept, k, executor);
+            after.print(System.out);
+
+            int same = 0;
+            for (int t = 0; t < full.size(); ++t) {
+                if (before.predicted[t] == after.predicted[t]) {
+                    same++;
+                }
+            }
+            System.out.println(String.format(
+                    "accuracy %.3f -> %.3f, same class for %d/%d templates, "
+                    + "latency %.2f -> %.2f ms",
+                    before.accuracy(), after.accuracy(), same, full.size(),
+                    before.meanLatencyMS(), after.meanLatencyMS()));
+
+            if (out != null) {
+                TemplateStore.write(set.withIndex(condensed), full.medianWidth, out);
+                System.out.println("Condensed set written to " + out);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNN;
+import madsdf.ardrone.controller.templates.KNNGestureController;
+import madsdf.ardrone.controller.templates.TemplateIndex;
+import madsdf.ardrone.controller.templates.TemplateSet;
+
+/**
+ * Headless evaluation of a template set : leave-one-out KNN classification
+ * of every template against all the others, run in parallel on all the
+ * cores.
+ *
+ * Usage :
+ * EvaluationTool [-k K] [--threads N] data/<hand>/<set> [desc file]
+ *
+ * Reports the accuracy, the confusion matrix, the classification latency
+ * per window and the throughput.
+ */
+public class EvaluationTool {
+    // Result of a leave-one-out evaluation
+    public static class Result {
+        // Commands in the order used by the confusion matrix
+        public final List<ActionCommand> commands;
+        public final ActionCommand[] actual;
+        public final ActionCommand[] predicted;
+        // Classification time of each window
+        public final long[] latencyNS;
+        // Total time of the evaluation
+        public final long wallNS;
+
+        public Result(List<ActionCommand> commands, ActionCommand[] actual,
+                      ActionCommand[] predicted, long[] latencyNS,
+                      long wallNS) {
+            this.commands = commands;
+            this.actual = actual;
+            this.predicted = predicted;
+            this.latencyNS = latencyNS;
+            this.wallNS = wallNS;
+        }
+
+        public float accuracy() {
+            int correct = 0;
+            for (int i = 0; i < actual.length; ++i) {
+                if (actual[i] == predicted[i]) {
+                    correct++;
+                }
+            }
+            return correct / (float)actual.length;
+        }
+
+        /**
+         * @return [actual][predicted] counts, indexed as commands
+         */
+        public int[][] confusionMatrix() {
+            int[][] m = new int[commands.size()][commands.size()];
+            for (int i = 0; i < actual.length; ++i) {
+                m[commands.indexOf(actual[i])][commands.indexOf(predicted[i])]++;
+            }
+            return m;
+        }
+
+        public double meanLatencyMS() {
+            long sum = 0;
+            for (long l : latencyNS) {
+                sum += l;
+            }
+            return sum / 1e6 / latencyNS.length;
+        }
+
+        /**
+         * @param p the percentile, between 0 and 1
+         */
+        public double latencyPercentileMS(double p) {
+            long[] sorted = latencyNS.clone();
+            Arrays.sort(sorted);
+            final int i = (int)Math.min(sorted.length - 1,
+                                        Math.floor(p * sorted.length));
+            return sorted[i] / 1e6;
+        }
+
+        public double windowsPerSecond() {
+            return actual.length / (wallNS / 1e9);
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format("accuracy : %.3f (%d windows)",
+                    accuracy(), actual.length));
+            out.println("-- Confusion matrix (rows : actual, columns : predicted)");
+            final int w = 12;
+            StringBuilder sb = new StringBuilder(Strings.padEnd("", w, ' '));
+            for (ActionCommand c : commands) {
+                sb.append(Strings.padStart(c.name(), w, ' '));
+            }
+            out.println(sb);
+            final int[][] m = confusionMatrix();
+            for (int i = 0; i < commands.size(); ++i) {
+                sb.setLength(0);
+                sb.append(Strings.padEnd(commands.get(i).name(), w, ' '));
+                for (int j = 0; j < commands.size(); ++j) {
+                    sb.append(Strings.padStart(Integer.toString(m[i][j]), w, ' '));
+                }
+                out.println(sb);
+            }
+            out.println(String.format(
+                    "latency per window : mean %.2f ms, p50 %.2f ms, p95 %.2f ms, max %.2f ms",
+                    meanLatencyMS(), latencyPercentileMS(0.5),
+                    latencyPercentileMS(0.95), latencyPercentileMS(1)));
+            out.println(String.format("throughput : %.1f windows/s (%d ms total)",
+                    windowsPerSecond(), wallNS / 1000000));
+        }
+    }
+
+    /**
+     * Classify each template of the index against all the others
+     * @param executor the executor running the classifications
+     */
+    public static Result leaveOneOut(final TemplateIndex index, final int k,
+                                     ExecutorService executor) throws Exception {
+        final int n = index.size();
+        final ActionCommand[] actual = new ActionCommand[n];
+        final ActionCommand[] predicted = new ActionCommand[n];
+        final long[] latencyNS = new long[n];
+
+        final Stopwatch wall = new Stopwatch().start();
+        List<Future<?>> futures = Lists.newArrayListWithCapacity(n);
+        for (int i = 0; i < n; ++i) {
+            final int test = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final long start = System.nanoTime();
+                    // The filtered template is the filtered window
+                    final KNN knn = KNN.classifyFiltered(k,
+                            index.getFilteredAccel(test), index, test);
+                    latencyNS[test] = System.nanoTime() - start;
+                    actual[test] = index.get(test).command;
+                    predicted[test] = knn.getBestClass();
+                    return null;
+                }
+            }));
+        }
+        // Future.get() makes the results of the tasks visible here
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        final long wallNS = wall.elapsed(TimeUnit.NANOSECONDS);
+
+        List<ActionCommand> commands = Lists.newArrayList(index.getCommands());
+        Collections.sort(commands);
+        return new Result(commands, actual, predicted, latencyNS, wallNS);
+    }
+
+    private static void usage() {
+        System.err.println("Usage : EvaluationTool [-k K] [--threads N] "
+                + "data/<hand>/<set> [desc file]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = KNNGestureController.KNN_K;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (args[i].equals("-k") && i + 1 < args.length) {
+                k = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else {
+                usage();
+            }
+            i += 2;
+        }
+        if (i >= args.length) {
+            usage();
+        }
+        final String dir = args[i];
+        final String desc = i + 1 < args.length ? args[i + 1] : "desc.txt";
+
+        Stopwatch load = new Stopwatch().start();
+        final TemplateSet set = TemplateSet.FromDirectory(dir, desc);
+        final TemplateIndex index = set.getIndex();
+        System.out.println(index.size() + " templates loaded in "
+                + load.elapsed(TimeUnit.MILLISECONDS) + " ms, k = " + k
+                + ", " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            leaveOneOut(index, k, executor).print(System.out);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
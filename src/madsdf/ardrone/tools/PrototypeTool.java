@@ -0,0 +1,251 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNN;
+import madsdf.ardrone.controller.templates.KNNGestureController;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.controller.templates.TemplateIndex;
+import madsdf.ardrone.controller.templates.TemplateSet;
+import madsdf.ardrone.controller.templates.TemplateStore;
+import madsdf.ardrone.utils.DBA;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+
+/**
+ * Build class prototypes for the two-tier classification of GesturePipeline :
+ * the templates of each command are clustered with k-medoids and each
+ * cluster is replaced by its DTW barycenter (DBA), starting from the medoid.
+ *
+ * Usage :
+ * PrototypeTool [-p N] [--iterations N] [-k K] [--margin M,..]
+ *               [--max-dist D] [--threads N] [--out prototypes.bin]
+ *               data/<hand>/<set> [desc file]
+ *
+ * The fast path is also limited to the windows whose nearest prototype is
+ * within the max distance. Unless given, it is the distance to the nearest
+ * prototype of MAX_DIST_QUANTILE of the templates classified correctly by
+ * the prototypes.
+ *
+ * For each margin, reports how many templates are classified by the
+ * prototypes only, and the accuracy of the two-tier classification. The
+ * prototypes are built from all the templates, so the fast path accuracy is
+ * optimistic. Set prototype_store=prototypes.bin, prototype_max_dist (and
+ * prototype_margin) in the dtw_gestures_*.properties file to use them in
+ * KNNGestureController.
+ */
+public class PrototypeTool {
+    public static final int DEFAULT_PER_CLASS = 3;
+    public static final int DEFAULT_ITERATIONS = 10;
+    public static final float DEFAULT_MARGIN = 0.2f;
+    public static final float MAX_DIST_QUANTILE = 0.95f;
+
+    /**
+     * @param perClass number of prototypes per command
+     * @return the index of the prototypes, filtered as the given index
+     */
+    public static TemplateIndex buildPrototypes(TemplateIndex index, int perClass,
+            int iterations, ExecutorService executor) throws Exception {
+        List<GestureTemplate> prototypes = Lists.newArrayList();
+        List<float[][]> filtered = Lists.newArrayList();
+        for (ActionCommand command : index.getCommands()) {
+            List<Integer> members = Lists.newArrayList();
+            for (int i = 0; i < index.size(); ++i) {
+                if (index.get(i).command == command) {
+                    members.add(i);
+                }
+            }
+            final int[] m = Ints.toArray(members);
+            final float[][] dist = CondenseTool.distances(index, m, executor);
+            final int[] medoids = CondenseTool.medoids(dist, perClass);
+
+            // Assign each member to its nearest medoid
+            List<List<float[][]>> clusters = Lists.newArrayList();
+            for (int c = 0; c < medoids.length; ++c) {
+                clusters.add(Lists.<float[][]>newArrayList());
+            }
+            for (int j = 0; j < m.length; ++j) {
+                int best = 0;
+                for (int c = 1; c < medoids.length; ++c) {
+                    if (dist[medoids[c]][j] < dist[medoids[best]][j]) {
+                        best = c;
+                    }
+                }
+                clusters.get(best).add(index.getFilteredAccel(m[j]));
+            }
+
+            for (int c = 0; c < medoids.length; ++c) {
+                final Gesture medoid = index.get(m[medoids[c]]).gesture;
+                final float[][] avg = DBA.averageAxes(
+                        index.getFilteredAccel(m[medoids[c]]), clusters.get(c),
+                        iterations);
+                // The barycenter is already filtered, it is also stored as
+                // the accel of the prototype
+                prototypes.add(new GestureTemplate(command,
+                        new Gesture(medoid.command, c, avg, medoid.gyro)));
+                filtered.add(avg);
+            }
+        }
+        return new TemplateIndex(prototypes, index.medianWidth,
+                                 filtered.toArray(new float[filtered.size()][][]));
+    }
+
+    private static void usage() {
+        System.err.println("Usage : PrototypeTool [-p N] [--iterations N] [-k K] "
+                + "[--margin M,..] [--max-dist D] [--threads N] [--out prototypes.bin] "
+                + "data/<hand>/<set> [desc file]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int perClass = DEFAULT_PER_CLASS;
+        int iterations = DEFAULT_ITERATIONS;
+        int k = KNNGestureController.KNN_K;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Float> margins = Lists.newArrayList(DEFAULT_MARGIN);
+        float maxDist = Float.NaN;
+        File out = null;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            final String v = args[i + 1];
+            switch (args[i]) {
+                case "-p": perClass = Integer.parseInt(v); break;
+                case "--iterations": iterations = Integer.parseInt(v); break;
+                case "-k": k = Integer.parseInt(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--out": out = new File(v); break;
+                case "--max-dist": maxDist = Float.parseFloat(v); break;
+                case "--margin":
+                    margins.clear();
+                    for (String m : Splitter.on(',').trimResults().split(v)) {
+                        margins.add(Float.parseFloat(m));
+                    }
+                    break;
+                default: usage();
+            }
+            i += 2;
+        }
+        if (i >= args.length) {
+            usage();
+        }
+        final String dir = args[i];
+        final String desc = i + 1 < args.length ? args[i + 1] : "desc.txt";
+
+        final TemplateSet set = TemplateSet.FromDirectory(dir, desc);
+        final TemplateIndex index = set.getIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Stopwatch sw = new Stopwatch().start();
+            final TemplateIndex prototypes = buildPrototypes(index, perClass,
+                                                             iterations, executor);
+            System.out.println(String.format(
+                    "%d prototypes for %d templates built in %d ms",
+                    prototypes.size(), index.size(),
+                    sw.elapsed(TimeUnit.MILLISECONDS)));
+
+            // Classify each template against the prototypes and (leaving it
+            // out) against all the templates
+            final int n = index.size();
+            final KNN[] fast = new KNN[n];
+            final KNN[] full = new KNN[n];
+            final long[] fastNS = new long[n];
+            final long[] fullNS = new long[n];
+            final int kk = k;
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int t = 0; t < n; ++t) {
+                final int test = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        final float[][] f = index.getFilteredAccel(test);
+                        long start = System.nanoTime();
+                        fast[test] = KNN.classifyPrototypes(kk, f, prototypes);
+                        fastNS[test] = System.nanoTime() - start;
+                        start = System.nanoTime();
+                        full[test] = KNN.classifyFiltered(kk, f, index, test);
+                        fullNS[test] = System.nanoTime() - start;
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+
+            int fullCorrect = 0;
+            long fullTotalNS = 0;
+            for (int t = 0; t < n; ++t) {
+                if (full[t].getBestClass() == index.get(t).command) {
+                    fullCorrect++;
+                }
+                fullTotalNS += fullNS[t];
+            }
+            System.out.println(String.format(
+                    "templates only : accuracy %.3f, %.2f ms per window",
+                    fullCorrect / (float)n, fullTotalNS / 1e6 / n));
+            if (Float.isNaN(maxDist)) {
+                List<Float> dists = Lists.newArrayList();
+                for (int t = 0; t < n; ++t) {
+                    if (fast[t].numNeighbors() > 0
+                            && fast[t].getBestClass() == index.get(t).command) {
+                        dists.add(fast[t].getNeighborDist(0));
+                    }
+                }
+                Collections.sort(dists);
+                maxDist = dists.isEmpty() ? 0 : dists.get(Math.min(dists.size() - 1,
+                        (int)(MAX_DIST_QUANTILE * dists.size())));
+            }
+            System.out.println(String.format("prototype_max_dist=%.1f", maxDist));
+            System.out.println(String.format("%8s %10s %10s %10s %12s",
+                    "margin", "fast path", "accuracy", "same", "ms/window"));
+            for (float margin : margins) {
+                int fastCount = 0;
+                int correct = 0;
+                int same = 0;
+                long totalNS = 0;
+                for (int t = 0; t < n; ++t) {
+                    KNN knn;
+                    totalNS += fastNS[t];
+                    if (fast[t].getClassMargin() >= margin
+                            && fast[t].numNeighbors() > 0
+                            && fast[t].getNeighborDist(0) <= maxDist) {
+                        knn = fast[t];
+                        fastCount++;
+                    } else {
+                        knn = full[t];
+                        totalNS += fullNS[t];
+                    }
+                    if (knn.getBestClass() == index.get(t).command) {
+                        correct++;
+                    }
+                    if (knn.getBestClass() == full[t].getBestClass()) {
+                        same++;
+                    }
+                }
+                System.out.println(String.format("%8.2f %10.3f %10.3f %10.3f %12.2f",
+                        margin, fastCount / (float)n, correct / (float)n,
+                        same / (float)n, totalNS / 1e6 / n));
+            }
+
+            if (out != null) {
+                TemplateStore.write(set.withIndex(prototypes), index.medianWidth, out);
+                System.out.println("Prototypes written to " + out);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.TreeMultiset;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.FlightLogReader;
+import madsdf.ardrone.FlightRecorder;
+import madsdf.ardrone.controller.templates.GestureDetector;
+import madsdf.ardrone.controller.templates.GesturePipeline;
+import madsdf.ardrone.controller.templates.KNNGestureController;
+import madsdf.ardrone.controller.templates.TemplateSet;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import madsdf.ardrone.utils.VirtualClock;
+import madsdf.shimmer.gui.AccelGyro;
+
+/**
+ * Replay a recorded sensor session through the gesture pipeline used by
+ * KNNGestureController, with a virtual clock.
+ *
+ * The session is either the samples of one source of a flight log, or
+ * movement files (DataFileReader format) concatenated into a single stream
+ * sampled at SAMPLE_RATE. The replay runs as fast as possible, or at the
+ * recorded speed with --realtime. The decisions are the same in both modes.
+ *
+ * Usage :
+ * ReplayTool [--realtime] [--log flight.log source] gestures.properties
+ *            [movement files or directories...]
+ * Without a log nor movement files, the template files themselves are
+ * replayed.
+ */
+public class ReplayTool {
+    // Sampling rate of the shimmer sensors (Hz)
+    public static final float SAMPLE_RATE = 30;
+
+    // A sample and the time at which it was received
+    public static class TimedSample {
+        public final long timeMS;
+        public final AccelGyro.Sample sample;
+
+        public TimedSample(long timeMS, AccelGyro.Sample sample) {
+            this.timeMS = timeMS;
+            this.sample = sample;
+        }
+    }
+
+    // Statistics of a replay
+    public static class Report {
+        public int samples = 0;
+        public int windows = 0;
+        public long elapsedNS = 0;
+        public final Multiset<ActionCommand> commands = TreeMultiset.create();
+
+        public double samplesPerSecond() {
+            return samples / (elapsedNS / 1e9);
+        }
+
+        public double windowsPerSecond() {
+            return windows / (elapsedNS / 1e9);
+        }
+    }
+
+    /**
+     * Read the samples of the given source in a flight log. Only the samples
+     * with the given calibration flag are kept, as KNNGestureController does.
+     */
+    public static List<TimedSample> readFlightLog(File log, String source,
+                                                  boolean calibrated) throws Exception {
+        List<TimedSample> samples = Lists.newArrayList();
+        FlightLogReader reader = new FlightLogReader(log);
+        long startNS = -1;
+        while (reader.next()) {
+            if (reader.getType() != FlightRecorder.TYPE_SAMPLE) {
+                continue;
+            }
+            if (startNS < 0) {
+                startNS = reader.getNanoTime();
+            }
+            if (!FlightLogReader.readSource(reader.getPayload()).equals(source)) {
+                continue;
+            }
+            final long timeMS = TimeUnit.NANOSECONDS.toMillis(
+                    reader.getNanoTime() - startNS);
+            AccelGyro.Sample s = FlightLogReader.readSample(reader.getPayload(), timeMS);
+            if ((s instanceof AccelGyro.CalibratedSample) == calibrated) {
+                samples.add(new TimedSample(timeMS, s));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Concatenate the gestures of the given movement files into a stream
+     * sampled at SAMPLE_RATE
+     */
+    public static List<TimedSample> readMovementFiles(List<File> files,
+                                                      boolean calibrated) throws Exception {
+        List<TimedSample> samples = Lists.newArrayList();
+        int n = 0;
+        for (File f : files) {
+            for (Gesture g : TemplateSet.readMovementFile(f, calibrated)) {
+                for (int i = 0; i < g.accel[0].length; ++i) {
+                    final float[] accel = {g.accel[0][i], g.accel[1][i], g.accel[2][i]};
+                    final float[] gyro = {g.gyro[0][i], g.gyro[1][i], g.gyro[2][i]};
+                    final long timeMS = (long)(n * 1000 / SAMPLE_RATE);
+                    final AccelGyro.Sample s = calibrated
+                            ? new AccelGyro.CalibratedSample(timeMS, accel, gyro)
+                            : new AccelGyro.UncalibratedSample(timeMS, accel, gyro);
+                    samples.add(new TimedSample(timeMS, s));
+                    n++;
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Push the samples through the pipeline.
+     * @param clock the clock of the pipeline detector, set to the time of
+     * each sample before it is processed
+     * @param realtime if true, wait between samples to replay at the
+     * recorded speed
+     * @param out where to print the command stream, can be null
+     */
+    public static Report replay(GesturePipeline pipeline, VirtualClock clock,
+                                List<TimedSample> samples, boolean realtime,
+                                PrintStream out) throws InterruptedException {
+        Report report = new Report();
+        final Stopwatch stopwatch = new Stopwatch().start();
+        final long startMS = samples.isEmpty() ? 0 : samples.get(0).timeMS;
+        for (TimedSample ts : samples) {
+            if (realtime) {
+                final long wait = (ts.timeMS - startMS)
+                        - stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+            clock.set(ts.timeMS);
+            GesturePipeline.Decision d = pipeline.add(ts.sample);
+            report.samples++;
+            if (d == null) {
+                continue;
+            }
+            report.windows++;
+            if (d.detected != ActionCommand.NOTHING) {
+                report.commands.add(d.detected);
+                if (out != null) {
+                    out.println(ts.timeMS + "\t" + d.detected + "\t" + d.duration);
+                }
+            }
+        }
+        report.elapsedNS = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+        return report;
+    }
+
+    private static void usage() {
+        System.err.println("Usage : ReplayTool [--realtime] [--log flight.log source] "
+                + "gestures.properties [movement files or directories...]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean realtime = false;
+        File log = null;
+        String source = null;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (args[i].equals("--realtime")) {
+                realtime = true;
+                i++;
+            } else if (args[i].equals("--log") && i + 2 < args.length) {
+                log = new File(args[i + 1]);
+                source = args[i + 2];
+                i += 3;
+            } else {
+                usage();
+            }
+        }
+        if (i >= args.length) {
+            usage();
+        }
+        final TemplateSet set = TemplateSet.FromProperties(args[i++]);
+
+        List<TimedSample> samples;
+        if (log != null) {
+            samples = readFlightLog(log, source, set.calibrated);
+        } else {
+            List<File> files = Lists.newArrayList();
+            for (; i < args.length; ++i) {
+                final File f = new File(args[i]);
+                if (f.isDirectory()) {
+                    File[] inDir = TemplateSet.listMovementFiles(f);
+                    Arrays.sort(inDir);
+                    files.addAll(Arrays.asList(inDir));
+                } else {
+                    files.add(f);
+                }
+            }
+            if (files.isEmpty()) {
+                File[] inDir = TemplateSet.listMovementFiles(set.directory);
+                Arrays.sort(inDir);
+                files.addAll(Arrays.asList(inDir));
+            }
+            samples = readMovementFiles(files, set.calibrated);
+        }
+
+        final VirtualClock clock = new VirtualClock(
+                samples.isEmpty() ? 0 : samples.get(0).timeMS);
+        final GestureDetector detector = set.createDetector();
+        detector.setClock(clock);
+        final GesturePipeline pipeline = new GesturePipeline(set.getIndex(),
+                set.windowSize, detector, KNNGestureController.KNN_K);
+
+        System.out.println("-- Command stream (time ms, command, duration)");
+        Report r = replay(pipeline, clock, samples, realtime, System.out);
+
+        System.out.println("-- Replay summary");
+        System.out.println("samples : " + r.samples + ", windows : " + r.windows
+                + ", time : " + (r.elapsedNS / 1000000) + " ms");
+        System.out.println(String.format("throughput : %.1f samples/s, %.1f windows/s",
+                r.samplesPerSecond(), r.windowsPerSecond()));
+        Map<ActionCommand, Integer> counts = Maps.newEnumMap(ActionCommand.class);
+        for (Multiset.Entry<ActionCommand> e : r.commands.entrySet()) {
+            counts.put(e.getElement(), e.getCount());
+        }
+        System.out.println("commands : " + counts);
+    }
+}
@@ -0,0 +1,485 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.GestureDetector;
+import madsdf.ardrone.controller.templates.GesturePipeline;
+import madsdf.ardrone.controller.templates.HistoricalGestureDetector;
+import madsdf.ardrone.controller.templates.KNN;
+import madsdf.ardrone.controller.templates.RepetitiveGestureDetector;
+import madsdf.ardrone.controller.templates.TemplateIndex;
+import madsdf.ardrone.controller.templates.TemplateSet;
+import madsdf.ardrone.utils.DTW;
+import madsdf.ardrone.utils.VirtualClock;
+
+/**
+ * Hyperparameter sweep of the KNN gesture pipeline on a template set.
+ *
+ * The templates are concatenated into a continuous stream, which is cut in
+ * sliding windows as the live controller does. Each window is classified
+ * against the templates that do not overlap it, and the decisions of a
+ * fresh detector are compared with the gestures of the stream.
+ *
+ * Usage :
+ * SweepTool [options] data/<hand>/<set> [desc file]
+ *   -k, --windowsize, --step, --median, --band, --paa, --candidates,
+ *   --stddev, --dist : comma separated values of each parameter (grid search)
+ *       --paa 1 is the exact search, --paa F --candidates C the
+ *       coarse-to-fine search (see TemplateIndex.withCoarse)
+ *   --random N : evaluate N random candidates of the grid instead of all
+ *   --threads N : number of candidates evaluated in parallel
+ *   --top N : number of candidates printed
+ *   --min-accuracy A : report the cheapest candidate with this accuracy
+ *
+ * The candidates are ranked by window accuracy, then by DTW cells per
+ * window (the compute cost, independent of the machine).
+ */
+public class SweepTool {
+    // A point of the parameter space
+    public static class Candidate {
+        public final int k;
+        public final int windowSize;
+        public final int step;
+        public final int medianWidth;
+        public final int band;
+        // PAA factor of the coarse search, 1 for the exact search
+        public final int coarseFactor;
+        public final int coarseCandidates;
+        public final float stddevThreshold;
+        public final float distThreshold;
+
+        public Candidate(int k, int windowSize, int step, int medianWidth,
+                         int band, int coarseFactor, int coarseCandidates,
+                         float stddevThreshold, float distThreshold) {
+            this.k = k;
+            this.windowSize = windowSize;
+            this.step = step;
+            this.medianWidth = medianWidth;
+            this.band = band;
+            this.coarseFactor = coarseFactor;
+            this.coarseCandidates = coarseFactor > 1 ? coarseCandidates : 0;
+            this.stddevThreshold = stddevThreshold;
+            this.distThreshold = distThreshold;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("k=%d ws=%d step=%d median=%d band=%d paa=%d/%d stddev=%.0f dist=%.0f",
+                    k, windowSize, step, medianWidth, band, coarseFactor,
+                    coarseCandidates, stddevThreshold, distThreshold);
+        }
+    }
+
+    // Metrics of a candidate
+    public static class Result {
+        public final Candidate candidate;
+        public final int windows;
+        // Fraction of the windows whose KNN class is the majority gesture
+        public final float accuracy;
+        // F1 score of the detector decisions against the gestures
+        public final float detectionF1;
+        public final double msPerWindow;
+        public final long cellsPerWindow;
+
+        public Result(Candidate candidate, int windows, float accuracy,
+                      float detectionF1, double msPerWindow,
+                      long cellsPerWindow) {
+            this.candidate = candidate;
+            this.windows = windows;
+            this.accuracy = accuracy;
+            this.detectionF1 = detectionF1;
+            this.msPerWindow = msPerWindow;
+            this.cellsPerWindow = cellsPerWindow;
+        }
+    }
+
+    // Accuracy descending, then cost ascending
+    public static final Comparator<Result> RANKING = new Comparator<Result>() {
+        @Override
+        public int compare(Result a, Result b) {
+            if (a.accuracy != b.accuracy) {
+                return Float.compare(b.accuracy, a.accuracy);
+            }
+            return Long.compare(a.cellsPerWindow, b.cellsPerWindow);
+        }
+    };
+
+    private final TemplateSet set;
+    // One index per median width, shared by all the candidates using it
+    private final Map<Integer, TemplateIndex> indexes = Maps.newHashMap();
+    // The stream : concatenated raw accel of the templates and the index of
+    // the template of each sample
+    private final float[][] stream;
+    private final int[] templateOf;
+    // Mean template length, to estimate the cost of the refined templates
+    private final int meanLength;
+
+    public SweepTool(TemplateSet set) throws Exception {
+        this.set = set;
+        final TemplateIndex index = getIndex(TemplateIndex.DEFAULT_MEDIAN_WIDTH);
+        int n = 0;
+        for (int i = 0; i < index.size(); ++i) {
+            n += index.get(i).gesture.accel[0].length;
+        }
+        stream = new float[3][n];
+        templateOf = new int[n];
+        int pos = 0;
+        for (int i = 0; i < index.size(); ++i) {
+            final float[][] accel = index.get(i).gesture.accel;
+            final int len = accel[0].length;
+            for (int a = 0; a < 3; ++a) {
+                System.arraycopy(accel[a], 0, stream[a], pos, len);
+            }
+            for (int j = 0; j < len; ++j) {
+                templateOf[pos + j] = i;
+            }
+            pos += len;
+        }
+        meanLength = index.size() == 0 ? 0 : n / index.size();
+    }
+
+    /**
+     * @return the index of the templates filtered with the given median
+     * width, built on first use
+     */
+    public synchronized TemplateIndex getIndex(int medianWidth) throws Exception {
+        TemplateIndex index = indexes.get(medianWidth);
+        if (index == null) {
+            index = new TemplateIndex(set.getTemplates(), medianWidth);
+            indexes.put(medianWidth, index);
+        }
+        return index;
+    }
+
+    private GestureDetector createDetector(Candidate c) {
+        final int nnMinAgree = (int) (c.k * 2. / 3.);
+        if (set.detectorName.equals(RepetitiveGestureDetector.class.getName())) {
+            return new RepetitiveGestureDetector(c.stddevThreshold,
+                    c.distThreshold, nnMinAgree,
+                    RepetitiveGestureDetector.DEFAULT_INTER_ACTION_DELAY);
+        } else {
+            HistoricalGestureDetector d = new HistoricalGestureDetector(
+                    c.stddevThreshold, c.distThreshold, nnMinAgree,
+                    HistoricalGestureDetector.DEFAULT_INTER_ACTION_DELAY);
+            d.setVerbose(false);
+            return d;
+        }
+    }
+
+    /**
+     * Evaluate a candidate on the stream. Runs on the calling thread.
+     */
+    public Result evaluate(Candidate c) throws Exception {
+        final TemplateIndex index = getIndex(c.medianWidth).withBand(c.band)
+                .withCoarse(c.coarseFactor, c.coarseCandidates);
+        final GestureDetector detector = createDetector(c);
+        final VirtualClock clock = new VirtualClock(0);
+        detector.setClock(clock);
+
+        final int n = stream[0].length;
+        final float[][] window = new float[3][c.windowSize];
+        // Gestures (not NOTHING) already matched by a detection
+        final boolean[] detected = new boolean[index.size()];
+        int windows = 0;
+        int correct = 0;
+        int detections = 0;
+        int correctDetections = 0;
+        long cells = 0;
+        long elapsedNS = 0;
+        for (int start = 0; start + c.windowSize <= n; start += c.step) {
+            final int end = start + c.windowSize;
+            for (int a = 0; a < 3; ++a) {
+                System.arraycopy(stream[a], start, window[a], 0, c.windowSize);
+            }
+            // The templates overlapping the window are excluded, so the
+            // window is never matched against its own samples
+            final int from = templateOf[start];
+            final int to = templateOf[end - 1] + 1;
+            clock.set((long)(end * 1000 / ReplayTool.SAMPLE_RATE));
+
+            final long t0 = System.nanoTime();
+            final KNN knn = KNN.classifyFiltered(c.k, index.filter(window),
+                                                 index, from, to);
+            final float stddev = (GesturePipeline.stddev(window[0])
+                    + GesturePipeline.stddev(window[1])
+                    + GesturePipeline.stddev(window[2])) / 3.0f;
+            detector.addVotation(knn, stddev);
+            final ActionCommand decision = detector.decide();
+            elapsedNS += System.nanoTime() - t0;
+
+            if (index.isCoarse()) {
+                // The PAA of all the templates, then the full DTW of the
+                // refined ones (those with a distance)
+                final int coarseWindow = index.coarsen(window)[0].length;
+                for (int i = 0; i < index.size(); ++i) {
+                    if (i < from || i >= to) {
+                        cells += 3 * DTW.dtwCells(coarseWindow,
+                                index.getCoarseAccel(i)[0].length,
+                                index.coarseBand());
+                    }
+                }
+                cells += 3L * knn.distsPerClass.size()
+                        * DTW.dtwCells(c.windowSize, meanLength, c.band);
+            } else {
+                for (int i = 0; i < index.size(); ++i) {
+                    if (i < from || i >= to) {
+                        cells += 3 * DTW.dtwCells(c.windowSize,
+                                index.getFilteredAccel(i)[0].length, c.band);
+                    }
+                }
+            }
+            windows++;
+            if (knn.getBestClass() == majorityCommand(index, start, end)) {
+                correct++;
+            }
+            if (decision != ActionCommand.NOTHING) {
+                detections++;
+                for (int i = from; i < to; ++i) {
+                    if (index.get(i).command == decision) {
+                        correctDetections++;
+                        detected[i] = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        int gestures = 0;
+        int recalled = 0;
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.get(i).command != ActionCommand.NOTHING) {
+                gestures++;
+                if (detected[i]) {
+                    recalled++;
+                }
+            }
+        }
+        final float precision = detections == 0 ? 0 : correctDetections / (float)detections;
+        final float recall = gestures == 0 ? 0 : recalled / (float)gestures;
+        final float f1 = precision + recall == 0 ? 0
+                : 2 * precision * recall / (precision + recall);
+        return new Result(c, windows, windows == 0 ? 0 : correct / (float)windows,
+                          f1, windows == 0 ? 0 : elapsedNS / 1e6 / windows,
+                          windows == 0 ? 0 : cells / windows);
+    }
+
+    // Command of the template covering most of the samples of the window
+    private ActionCommand majorityCommand(TemplateIndex index, int start, int end) {
+        int best = templateOf[start];
+        int bestCount = 0;
+        int count = 0;
+        for (int j = start; j < end; ++j) {
+            if (j > start && templateOf[j] != templateOf[j - 1]) {
+                count = 0;
+            }
+            count++;
+            if (count > bestCount) {
+                bestCount = count;
+                best = templateOf[j];
+            }
+        }
+        return index.get(best).command;
+    }
+
+    /**
+     * Evaluate all the candidates in parallel
+     * @return the results, ranked by RANKING
+     */
+    public List<Result> sweep(List<Candidate> candidates,
+                              ExecutorService executor) throws Exception {
+        List<Future<Result>> futures = Lists.newArrayList();
+        for (final Candidate c : candidates) {
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    return evaluate(c);
+                }
+            }));
+        }
+        List<Result> results = Lists.newArrayList();
+        for (Future<Result> f : futures) {
+            results.add(f.get());
+        }
+        Collections.sort(results, RANKING);
+        return results;
+    }
+
+    /**
+     * @return the candidate with the fewest DTW cells per window among those
+     * reaching the given accuracy, null if there is none
+     */
+    public static Result cheapest(List<Result> results, float minAccuracy) {
+        Result best = null;
+        for (Result r : results) {
+            if (r.accuracy >= minAccuracy
+                    && (best == null || r.cellsPerWindow < best.cellsPerWindow)) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    public static void print(List<Result> results, int top, PrintStream out) {
+        out.println(String.format("%4s %8s %8s %10s %12s  %s", "rank",
+                "accuracy", "F1", "ms/window", "cells/window", "parameters"));
+        for (int i = 0; i < Math.min(top, results.size()); ++i) {
+            final Result r = results.get(i);
+            out.println(String.format("%4d %8.3f %8.3f %10.3f %12d  %s", i + 1,
+                    r.accuracy, r.detectionF1, r.msPerWindow, r.cellsPerWindow,
+                    r.candidate));
+        }
+    }
+
+    private static List<Integer> parseInts(String s) {
+        List<Integer> l = Lists.newArrayList();
+        for (String v : Splitter.on(',').trimResults().split(s)) {
+            l.add(Integer.parseInt(v));
+        }
+        return l;
+    }
+
+    private static List<Float> parseFloats(String s) {
+        List<Float> l = Lists.newArrayList();
+        for (String v : Splitter.on(',').trimResults().split(s)) {
+            l.add(Float.parseFloat(v));
+        }
+        return l;
+    }
+
+    private static void usage() {
+        System.err.println("Usage : SweepTool [-k K,..] [--windowsize W,..] "
+                + "[--step S,..] [--median M,..] [--band B,..] [--paa F,..] "
+                + "[--candidates C,..] [--stddev T,..] "
+                + "[--dist D,..] [--random N] [--threads N] [--top N] "
+                + "[--min-accuracy A] data/<hand>/<set> [desc file]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> ks = null;
+        List<Integer> windowSizes = null;
+        List<Integer> steps = Lists.newArrayList(GesturePipeline.WINDOW_STEP);
+        List<Integer> medians = Lists.newArrayList(TemplateIndex.DEFAULT_MEDIAN_WIDTH);
+        List<Integer> bands = Lists.newArrayList(-1);
+        List<Integer> paas = Lists.newArrayList(1);
+        List<Integer> coarseCandidates = Lists.newArrayList(20);
+        List<Float> stddevs = null;
+        List<Float> dists = null;
+        int random = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 20;
+        float minAccuracy = -1;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            final String v = args[i + 1];
+            switch (args[i]) {
+                case "-k": ks = parseInts(v); break;
+                case "--windowsize": windowSizes = parseInts(v); break;
+                case "--step": steps = parseInts(v); break;
+                case "--median": medians = parseInts(v); break;
+                case "--band": bands = parseInts(v); break;
+                case "--paa": paas = parseInts(v); break;
+                case "--candidates": coarseCandidates = parseInts(v); break;
+                case "--stddev": stddevs = parseFloats(v); break;
+                case "--dist": dists = parseFloats(v); break;
+                case "--random": random = Integer.parseInt(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--top": top = Integer.parseInt(v); break;
+                case "--min-accuracy": minAccuracy = Float.parseFloat(v); break;
+                default: usage();
+            }
+            i += 2;
+        }
+        if (i >= args.length) {
+            usage();
+        }
+        final String dir = args[i];
+        final String desc = i + 1 < args.length ? args[i + 1] : "desc.txt";
+
+        Stopwatch load = new Stopwatch().start();
+        final TemplateSet set = TemplateSet.FromDirectory(dir, desc);
+        final SweepTool tool = new SweepTool(set);
+        System.out.println(set.getTemplates().size() + " templates loaded in "
+                + load.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+        // Defaults : the values used by KNNGestureController
+        final boolean repetitive = set.detectorName.equals(
+                RepetitiveGestureDetector.class.getName());
+        if (ks == null) {
+            ks = Lists.newArrayList(3);
+        }
+        if (windowSizes == null) {
+            windowSizes = Lists.newArrayList(set.windowSize);
+        }
+        if (stddevs == null) {
+            stddevs = Lists.newArrayList(repetitive
+                    ? RepetitiveGestureDetector.DEFAULT_STDDEV_THRESHOLD
+                    : HistoricalGestureDetector.DEFAULT_STDDEV_THRESHOLD);
+        }
+        if (dists == null) {
+            dists = Lists.newArrayList(repetitive
+                    ? RepetitiveGestureDetector.DEFAULT_NEAREST_DIST_THRESHOLD
+                    : HistoricalGestureDetector.DEFAULT_NEAREST_DIST_THRESHOLD);
+        }
+
+        List<Candidate> candidates = Lists.newArrayList();
+        for (int k : ks)
+        for (int ws : windowSizes)
+        for (int step : steps)
+        for (int median : medians)
+        for (int band : bands)
+        for (int paa : paas)
+        for (int cand : paa > 1 ? coarseCandidates : Lists.newArrayList(0))
+        for (float stddev : stddevs)
+        for (float dist : dists) {
+            candidates.add(new Candidate(k, ws, step, median, band, paa, cand,
+                                         stddev, dist));
+        }
+        if (random > 0 && random < candidates.size()) {
+            Collections.shuffle(candidates, new Random(42));
+            candidates = candidates.subList(0, random);
+        }
+        System.out.println("Evaluating " + candidates.size() + " candidates on "
+                + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Stopwatch sw = new Stopwatch().start();
+            List<Result> results = tool.sweep(candidates, executor);
+            System.out.println("Sweep done in " + sw.elapsed(TimeUnit.MILLISECONDS)
+                    + " ms");
+            print(results, top, System.out);
+            if (minAccuracy >= 0) {
+                Result r = cheapest(results, minAccuracy);
+                System.out.println(Strings.repeat("-", 40));
+                if (r == null) {
+                    System.out.println("No candidate reaches accuracy " + minAccuracy);
+                } else {
+                    System.out.println(String.format(
+                            "Cheapest with accuracy >= %.3f : %s (accuracy %.3f, %d cells/window)",
+                            minAccuracy, r.candidate, r.accuracy, r.cellsPerWindow));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
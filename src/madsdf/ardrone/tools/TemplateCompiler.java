@@ -0,0 +1,54 @@
+package madsdf.ardrone.tools;
+
+import com.google.common.base.Stopwatch;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import madsdf.ardrone.controller.templates.TemplateIndex;
+import madsdf.ardrone.controller.templates.TemplateSet;
+import madsdf.ardrone.controller.templates.TemplateStore;
+
+/**
+ * Compile a template directory into a TemplateStore file, with the
+ * calibration applied and the median filtering precomputed.
+ *
+ * Usage :
+ * TemplateCompiler [--median M] data/<hand>/<set> [desc file] out.bin
+ *
+ * Set template_store=out.bin in the dtw_gestures_*.properties file to have
+ * KNNGestureController load it at startup. The movement files are read
+ * instead while the store is older than them or the description file.
+ */
+public class TemplateCompiler {
+    private static void usage() {
+        System.err.println("Usage : TemplateCompiler [--median M] "
+                + "data/<hand>/<set> [desc file] out.bin");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int median = TemplateIndex.DEFAULT_MEDIAN_WIDTH;
+        int i = 0;
+        if (args.length > 1 && args[0].equals("--median")) {
+            median = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length - i < 2 || args.length - i > 3) {
+            usage();
+        }
+        final String dir = args[i];
+        final String desc = args.length - i == 3 ? args[i + 1] : "desc.txt";
+        final File out = new File(args[args.length - 1]);
+
+        Stopwatch sw = new Stopwatch().start();
+        final TemplateSet set = TemplateSet.FromDirectory(dir, desc);
+        TemplateStore.write(set, median, out);
+        System.out.println(set.getTemplates().size() + " templates compiled to "
+                + out + " (" + out.length() + " bytes) in "
+                + sw.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+        sw = new Stopwatch().start();
+        TemplateStore.read(out).getTemplates();
+        System.out.println("Loaded back in " + sw.elapsed(TimeUnit.MILLISECONDS)
+                + " ms");
+    }
+}
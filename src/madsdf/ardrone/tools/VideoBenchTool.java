@@ -0,0 +1,109 @@
+package madsdf.ardrone.tools;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import madsdf.ardrone.video.BufferedVideoImage;
+import madsdf.ardrone.video.VideoRecording;
+
+/**
+ * Decode a video recording (VideoRecorder) without display and report the
+ * decoding time per picture, sequentially and with the slices decoded in
+ * parallel, and in luma only mode. The CRC of the decoded pixels must be
+ * the same for the first two and across decoder changes.
+ *
+ * Usage :
+ * VideoBenchTool [--threads N] [--repeat R] video.log
+ * --threads is the number of decoding threads of the parallel run (3 by
+ * default, 0 to skip it), --repeat the number of timed passes over the
+ * recording (5 by default, after one untimed pass).
+ */
+public class VideoBenchTool {
+    private static void usage() {
+        System.err.println("Usage : VideoBenchTool [--threads N] [--repeat R] video.log");
+        System.exit(1);
+    }
+
+    // Decode all the pictures, return the CRC of the pixels
+    private static long decode(BufferedVideoImage decoder,
+                               ByteBuffer[] pictures) {
+        CRC32 crc = new CRC32();
+        for (ByteBuffer picture : pictures) {
+            decoder.addImageStream(picture);
+            if (decoder.getJavaPixelData() == null) {
+                crc.update(decoder.getLumaData());
+                continue;
+            }
+            for (int p : decoder.getJavaPixelData()) {
+                crc.update(p);
+                crc.update(p >> 8);
+                crc.update(p >> 16);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void bench(String name, BufferedVideoImage decoder,
+                              ByteBuffer[] pictures, int repeat) {
+        final long crc = decode(decoder, pictures);
+        // Without the CRC, which would dominate the time
+        final long start = System.nanoTime();
+        for (int r = 0; r < repeat; ++r) {
+            for (ByteBuffer picture : pictures) {
+                decoder.addImageStream(picture);
+            }
+        }
+        final double ms = (System.nanoTime() - start) / 1e6
+                / ((double)repeat * pictures.length);
+        System.out.println(String.format("%s : %.3f ms/picture, CRC %08X",
+                                         name, ms, crc));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 3;
+        int repeat = 5;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--repeat") && i + 1 < args.length) {
+                repeat = Integer.parseInt(args[i + 1]);
+            } else {
+                usage();
+            }
+            i += 2;
+        }
+        if (i + 1 != args.length || threads < 0 || repeat < 1) {
+            usage();
+        }
+        final VideoRecording recording = new VideoRecording(new File(args[i]));
+        if (recording.size() == 0) {
+            System.out.println("No picture in " + args[i]);
+            return;
+        }
+        final ByteBuffer[] pictures = new ByteBuffer[recording.size()];
+        for (int p = 0; p < pictures.length; ++p) {
+            pictures[p] = recording.getPicture(p, null);
+        }
+        System.out.println(pictures.length + " pictures");
+
+        bench("sequential", new BufferedVideoImage(), pictures, repeat);
+        if (threads > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                BufferedVideoImage decoder = new BufferedVideoImage();
+                decoder.setExecutor(executor);
+                bench(threads + " threads", decoder, pictures, repeat);
+                System.out.println(decoder.getSequentialFallbacks()
+                        + " pictures decoded sequentially");
+            } finally {
+                executor.shutdown();
+            }
+        }
+        BufferedVideoImage luma = new BufferedVideoImage();
+        luma.setLumaOnly(true);
+        bench("luma only", luma, pictures, repeat);
+    }
+}
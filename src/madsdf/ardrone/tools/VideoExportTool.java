@@ -0,0 +1,79 @@
+package madsdf.ardrone.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import madsdf.ardrone.video.BufferedVideoImage;
+import madsdf.ardrone.video.VideoRecording;
+
+/**
+ * Export the pictures of a video recording (VideoRecorder) as PNG files
+ * named after their frame index.
+ *
+ * Usage :
+ * VideoExportTool [--every N] [--from seconds] video.log output_dir
+ * --every exports one picture out of N, --from skips the given number of
+ * seconds after the first picture.
+ */
+public class VideoExportTool {
+    private static void usage() {
+        System.err.println("Usage : VideoExportTool [--every N] [--from seconds] "
+                + "video.log output_dir");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int every = 1;
+        float from = 0;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (args[i].equals("--every") && i + 1 < args.length) {
+                every = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--from") && i + 1 < args.length) {
+                from = Float.parseFloat(args[i + 1]);
+            } else {
+                usage();
+            }
+            i += 2;
+        }
+        if (i + 2 != args.length || every < 1) {
+            usage();
+        }
+        final VideoRecording recording = new VideoRecording(new File(args[i]));
+        final File dir = new File(args[i + 1]);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Can't create " + dir);
+            System.exit(1);
+        }
+        if (recording.size() == 0) {
+            System.out.println("No picture in " + args[i]);
+            return;
+        }
+
+        final long start = recording.getNanoTime(0)
+                + (long)(from * TimeUnit.SECONDS.toNanos(1));
+        final int first = recording.seek(start);
+        // A few pictures before, for the empty macro blocks
+        final int warmup = Math.max(0, first - 5);
+        BufferedVideoImage decoder = new BufferedVideoImage();
+        ByteBuffer picture = null;
+        int exported = 0;
+        for (int p = warmup; p < recording.size(); ++p) {
+            picture = recording.getPicture(p, picture);
+            decoder.addImageStream(picture);
+            if (p < first || (p - first) % every != 0 || !decoder.isPictureComplete()) {
+                continue;
+            }
+            final int w = decoder.getWidth();
+            final int h = decoder.getHeight();
+            BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, w, h, decoder.getJavaPixelData(), 0, w);
+            ImageIO.write(image, "png", new File(dir,
+                    String.format("frame_%08d.png", recording.getFrameIndex(p))));
+            exported++;
+        }
+        System.out.println(exported + " pictures exported to " + dir);
+    }
+}
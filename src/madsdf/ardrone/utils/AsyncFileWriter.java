@@ -0,0 +1,199 @@
+package madsdf.ardrone.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only file writer that never blocks the caller on IO.
+ *
+ * Records are copied into a fixed pool of direct buffers. A background thread
+ * writes the full buffers to a FileChannel and gives them back to the pool.
+ * When the disk can't keep up and all the buffers are full, new records are
+ * dropped (and counted) instead of blocking the caller or growing the memory.
+ *
+ * Usage, the caller writes exactly 'length' bytes in the claimed buffer :
+ * <pre>
+ * synchronized (writer) {
+ *     ByteBuffer b = writer.claim(length);
+ *     if (b != null) {
+ *         b.putInt(...);
+ *     }
+ * }
+ * </pre>
+ */
+public class AsyncFileWriter {
+    // Time after which a partially filled buffer is written anyway
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> fullBuffers;
+    private final Thread writerThread;
+    private final int bufferSize;
+
+    // Buffer currently being filled, guarded by this
+    private ByteBuffer current;
+    // Set by close()
+    private volatile boolean closed = false;
+    // Error of the writer thread, which then stops, thrown by close()
+    private volatile IOException failure = null;
+    private long dropped = 0;
+    private long written = 0;
+
+    /**
+     * @param file the file to create (existing files are overwritten)
+     * @param bufferSize the size of each buffer, the maximum record size
+     * @param numBuffers the number of buffers in the pool
+     */
+    public AsyncFileWriter(File file, int bufferSize, int numBuffers)
+            throws IOException {
+        this(new FileOutputStream(file).getChannel(), file.getName(),
+             bufferSize, numBuffers);
+    }
+
+    // Writer to the given channel, closed by close()
+    AsyncFileWriter(FileChannel channel, String name, int bufferSize,
+                    int numBuffers) {
+        if (numBuffers < 2) {
+            throw new IllegalArgumentException("Need at least 2 buffers");
+        }
+        this.bufferSize = bufferSize;
+        this.channel = channel;
+        this.freeBuffers = new ArrayBlockingQueue<>(numBuffers);
+        this.fullBuffers = new ArrayBlockingQueue<>(numBuffers);
+        for (int i = 1; i < numBuffers; ++i) {
+            freeBuffers.add(newBuffer());
+        }
+        current = newBuffer();
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "AsyncFileWriter " + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private ByteBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reserve room for a record. Must be called while holding the lock on
+     * this writer, and the caller must put exactly 'length' bytes in the
+     * returned buffer before releasing it.
+     * @return the buffer to write to, or null if the record must be dropped
+     */
+    public synchronized ByteBuffer claim(int length) {
+        if (closed || failure != null || length > bufferSize) {
+            dropped++;
+            return null;
+        }
+        if (current == null || current.remaining() < length) {
+            // Hand the current buffer to the writer thread and take a free one
+            if (current != null && current.position() > 0) {
+                fullBuffers.add(current);
+                current = null;
+            }
+            if (current == null) {
+                current = freeBuffers.poll();
+            }
+            if (current == null) {
+                dropped++;
+                return null;
+            }
+        }
+        written += length;
+        return current;
+    }
+
+    /**
+     * Hand the partially filled buffer to the writer thread if a free buffer
+     * is available
+     */
+    private synchronized void rotate() {
+        if (current != null && current.position() > 0) {
+            final ByteBuffer next = freeBuffers.poll();
+            if (next != null) {
+                fullBuffers.add(current);
+                current = next;
+            }
+        } else if (current == null) {
+            current = freeBuffers.poll();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed || !fullBuffers.isEmpty()) {
+                ByteBuffer buf = fullBuffers.poll(FLUSH_INTERVAL_MS,
+                                                  TimeUnit.MILLISECONDS);
+                if (buf == null) {
+                    rotate();
+                    continue;
+                }
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                buf.clear();
+                freeBuffers.add(buf);
+            }
+        } catch (IOException ex) {
+            System.err.println("AsyncFileWriter: " + ex);
+            failure = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the pending records and close the file
+     * @throws IOException if a write failed, the records from then on are
+     * lost
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (current != null && current.position() > 0) {
+                fullBuffers.add(current);
+                current = null;
+            }
+            closed = true;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw new IOException("AsyncFileWriter : write failed", failure);
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the buffers were full
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of bytes accepted so far
+     */
+    public synchronized long getWrittenBytes() {
+        return written;
+    }
+}
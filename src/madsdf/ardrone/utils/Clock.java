@@ -0,0 +1,17 @@
+package madsdf.ardrone.utils;
+
+/**
+ * Source of time for the time-dependent parts of the gesture pipeline. The
+ * live controllers use SYSTEM, the replay tools use a VirtualClock so a
+ * recorded session gives the same decisions whatever the replay speed.
+ */
+public interface Clock {
+    public long currentTimeMillis();
+
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+}
@@ -0,0 +1,65 @@
+package madsdf.ardrone.utils;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.Lists;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DTW Barycenter Averaging (Petitjean et al.) : the average of a set of
+ * series under DTW. Starting from an initial average, each point of the
+ * average is replaced by the mean of the points of the series aligned with
+ * it by DTW, until the average doesn't change.
+ */
+public class DBA {
+    /**
+     * @param init the initial average, which gives the length of the result
+     * @param series the series to average
+     * @param maxIterations maximum number of refinements
+     */
+    public static float[] average(float[] init, List<float[]> series,
+                                  int maxIterations) {
+        checkArgument(!series.isEmpty());
+        float[] avg = init.clone();
+        final double[] sums = new double[avg.length];
+        final int[] counts = new int[avg.length];
+        for (int it = 0; it < maxIterations; ++it) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (float[] s : series) {
+                final int[][] path = DTW.warpingPath(avg, s);
+                for (int k = 0; k < path[0].length; ++k) {
+                    sums[path[0][k]] += s[path[1][k]];
+                    counts[path[0][k]]++;
+                }
+            }
+            boolean changed = false;
+            for (int i = 0; i < avg.length; ++i) {
+                final float v = (float)(sums[i] / counts[i]);
+                changed |= v != avg[i];
+                avg[i] = v;
+            }
+            if (!changed) {
+                break;
+            }
+        }
+        return avg;
+    }
+
+    /**
+     * Average each axis of [axis][sample] series independently, as
+     * DTW.allAxisDTW compares them
+     */
+    public static float[][] averageAxes(float[][] init, List<float[][]> series,
+                                        int maxIterations) {
+        float[][] avg = new float[init.length][];
+        for (int a = 0; a < init.length; ++a) {
+            List<float[]> axis = Lists.newArrayListWithCapacity(series.size());
+            for (float[][] s : series) {
+                axis.add(s[a]);
+            }
+            avg[a] = average(init[a], axis, maxIterations);
+        }
+        return avg;
+    }
+}
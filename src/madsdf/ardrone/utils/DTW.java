@@ -45,6 +45,163 @@ public class DTW {
         return D[N-1][M-1];
     }
     
+    // DTW Distance between 2 series, with the warping path constrained to a
+    // Sakoe-Chiba band of the given half-width around the diagonal. The
+    // diagonal goes from (0,0) to (N-1,M-1), so series of different length
+    // are handled. A negative band means no constraint (same as
+    // dtwDistance). Cells outside the band are never computed, so the cost
+    // is O(N * band) instead of O(N * M).
+    public static float dtwDistance(float[] serie1, float[] serie2, int band) {
+        if (band < 0) {
+            return dtwDistance(serie1, serie2);
+        }
+        final int N = serie1.length;
+        final int M = serie2.length;
+        band = effectiveBand(N, M, band);
+        // Only two rows of the cost matrix are needed
+        float[] prev = new float[M];
+        float[] cur = new float[M];
+        int prevFrom = 0, prevTo = -1;
+        for (int i = 0; i < N; ++i) {
+            final int center = N > 1 ? (int)((long)i * (M - 1) / (N - 1)) : 0;
+            final int from = Math.max(0, center - band);
+            final int to = Math.min(M - 1, center + band);
+            for (int j = from; j <= to; ++j) {
+                final float cost = Math.abs(serie1[i] - serie2[j]);
+                if (i == 0 && j == 0) {
+                    cur[j] = cost;
+                    continue;
+                }
+                float best = Float.POSITIVE_INFINITY;
+                if (i > 0 && j >= prevFrom && j <= prevTo) {
+                    best = prev[j]; // insertion
+                }
+                if (j > from) {
+                    best = Math.min(best, cur[j-1]); // deletion
+                }
+                if (i > 0 && j > 0 && j - 1 >= prevFrom && j - 1 <= prevTo) {
+                    best = Math.min(best, prev[j-1]); // match
+                }
+                cur[j] = cost + best;
+            }
+            float[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+            prevFrom = from;
+            prevTo = to;
+        }
+        return prev[M-1];
+    }
+    
+    // Optimal warping path between 2 series, as computed by dtwDistance.
+    // Returns {indices in serie1, indices in serie2}, from (0,0) to
+    // (N-1,M-1)
+    public static int[][] warpingPath(float[] serie1, float[] serie2) {
+        final int N = serie1.length;
+        final int M = serie2.length;
+        final float D[][] = new float[N][M];
+        D[0][0] = Math.abs(serie1[0] - serie2[0]);
+        for (int i = 1 ; i < N; ++i) {
+            D[i][0] = D[i-1][0] + Math.abs(serie1[i] - serie2[0]);
+        }
+        for (int i = 1; i < M; ++i) {
+            D[0][i] = D[0][i-1] + Math.abs(serie1[0] - serie2[i]);
+        }
+        for (int i = 1; i < N; ++i) {
+            for (int j = 1; j < M; ++j) {
+                final float cost = Math.abs(serie1[i] - serie2[j]);
+                D[i][j] = cost + min3(D[i-1][j], D[i][j-1], D[i-1][j-1]);
+            }
+        }
+        
+        // Backtrack from the end
+        int[] pathI = new int[N + M];
+        int[] pathJ = new int[N + M];
+        int len = 0;
+        int i = N - 1;
+        int j = M - 1;
+        while (true) {
+            pathI[len] = i;
+            pathJ[len] = j;
+            len++;
+            if (i == 0 && j == 0) {
+                break;
+            }
+            if (i == 0) {
+                j--;
+            } else if (j == 0) {
+                i--;
+            } else {
+                final float match = D[i-1][j-1];
+                if (match <= D[i-1][j] && match <= D[i][j-1]) {
+                    i--;
+                    j--;
+                } else if (D[i-1][j] <= D[i][j-1]) {
+                    i--;
+                } else {
+                    j--;
+                }
+            }
+        }
+        int[][] path = new int[2][len];
+        for (int k = 0; k < len; ++k) {
+            path[0][k] = pathI[len - 1 - k];
+            path[1][k] = pathJ[len - 1 - k];
+        }
+        return path;
+    }
+    
+    // The band must be at least as wide as the slope of the diagonal,
+    // otherwise consecutive rows wouldn't overlap and the end of the matrix
+    // couldn't be reached
+    private static int effectiveBand(int N, int M, int band) {
+        final int minBand = N > 1 ? (M - 1 + N - 2) / (N - 1) : M;
+        return Math.max(band, minBand);
+    }
+    
+    // Number of cells of the cost matrix computed by
+    // dtwDistance(serie1, serie2, band)
+    public static long dtwCells(int N, int M, int band) {
+        if (band < 0) {
+            return (long)N * M;
+        }
+        band = effectiveBand(N, M, band);
+        long cells = 0;
+        for (int i = 0; i < N; ++i) {
+            final int center = N > 1 ? (int)((long)i * (M - 1) / (N - 1)) : 0;
+            cells += Math.min(M - 1, center + band) - Math.max(0, center - band) + 1;
+        }
+        return cells;
+    }
+    
+    // Piecewise aggregate approximation : the mean of each segment of
+    // 'factor' values (the last segment may be shorter). DTW on the PAA of
+    // two series costs about factor^2 times less than on the series.
+    public static float[] paa(float[] serie, int factor) {
+        checkArgument(factor > 0);
+        final int n = (serie.length + factor - 1) / factor;
+        final float[] out = new float[n];
+        for (int s = 0; s < n; ++s) {
+            final int from = s * factor;
+            final int to = Math.min(serie.length, from + factor);
+            float sum = 0;
+            for (int i = from; i < to; ++i) {
+                sum += serie[i];
+            }
+            out[s] = sum / (to - from);
+        }
+        return out;
+    }
+    
+    // PAA of each axis
+    public static float[][] paa(float[][] series, int factor) {
+        final float[][] out = new float[series.length][];
+        for (int a = 0; a < series.length; ++a) {
+            out[a] = paa(series[a], factor);
+        }
+        return out;
+    }
+    
     // DTW distance between multidimensional series (forces alignment across
     // all dimensions)
     public static float multiDTWDistance(float[][] serie1, float[][] serie2) {
@@ -81,12 +238,17 @@ public class DTW {
     // data is NxM where N is the number of axis and M the number of values
     // doesn't force alignment across series axes
     public static float allAxisDTW(float[][] serie1, float[][] serie2) {
+        return allAxisDTW(serie1, serie2, -1);
+    }
+    
+    // Same as allAxisDTW, with a Sakoe-Chiba band (negative for no band)
+    public static float allAxisDTW(float[][] serie1, float[][] serie2, int band) {
         // TODO: This is wrong, need to do DTW on all 3 axis at the same time
         // (we should use the same path on all axis)
         checkState(serie1.length == serie2.length);
         float sum = 0;
         for (int i = 0; i < serie1.length; ++i) {
-            sum += dtwDistance(serie1[i], serie2[i]);
+            sum += dtwDistance(serie1[i], serie2[i], band);
         }
         return sum;
     }
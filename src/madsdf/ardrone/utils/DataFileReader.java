@@ -6,7 +6,6 @@ package madsdf.ardrone.utils;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -14,7 +13,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import madsdf.shimmer.shimmer_calib.Calibration;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 
 /**
@@ -74,25 +72,58 @@ public class DataFileReader {
         }
         
         public Gesture calibrateGesture(String shimmerID) throws IOException {
-            return new Gesture(command, sample,
-                    Calibration.calibrate(shimmerID, accel, Calibration.CALIB_ACCEL),
-                    Calibration.calibrate(shimmerID, gyro, Calibration.CALIB_GYRO));
+            return calibrateGesture(SensorCalibration.get(shimmerID));
+        }
+        
+        public Gesture calibrateGesture(SensorCalibration calib) {
+            return new Gesture(command, sample, calib.calibrateAccel(accel),
+                               calib.calibrateGyro(gyro));
+        }
+    }
+    
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Significant digits kept by the fast path, so the mantissa fits in a
+    // long
+    private static final int MAX_FAST_DIGITS = 18;
+    // Powers of ten exactly representable as doubles
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; ++i) {
+            POW10[i] = POW10[i - 1] * 10;
         }
     }
+    // The fast path result is rejected when it is that close (in units of
+    // the last double bit) to the middle of two floats
+    private static final long ROUNDING_MARGIN = 16;
+    
+    private final Reader reader;
+    // Characters read from reader, valid in [pos, limit). Grown so the
+    // value or the line being parsed always fits.
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
     
-    private final BufferedReader reader;
+    // Values of the current line, grown as needed and reused between lines
+    private float[] values = new float[256];
     
     public DataFileReader(Reader input) {
-        reader = new BufferedReader(input);
+        reader = input;
     }
     
+    // The parsing is done directly on the characters of the input, without
+    // creating a String per line or per value. Decimal values are parsed
+    // here when the result is sure to be the one of Float.parseFloat, which
+    // parses the others.
     public List<Gesture> readAll() throws IOException {
         List<Gesture> samples = Lists.newArrayList();
-        String line = reader.readLine();
-        while (line != null) {
-            //System.out.println("line : " + line);
+        while (pos < limit || fill()) {
+            final String line = readLine();
             final Matcher cmdMatcher = COMMAND_REGEXP.matcher(line);
-            cmdMatcher.matches();
+            if (!cmdMatcher.matches()) {
+                throw new RuntimeException("Expected COMMAND x SAMPLE y"
+                        + " in line : " + line);
+            }
             final int cmdNum = Integer.parseInt(cmdMatcher.group(1));
             final int sampleNum = Integer.parseInt(cmdMatcher.group(2));
             final float[] accX = readFloatArray("Accel X : ");
@@ -104,31 +135,210 @@ public class DataFileReader {
             samples.add(new Gesture(cmdNum, sampleNum,
                                    new float[][]{accX, accY, accZ},
                                    new float[][]{gyroX, gyroY, gyroZ}));
-            line = reader.readLine();
         }
         return samples;
     }
     
-    // Function that reads an "Accel X" like line
+    // Function that reads an "Accel X" like line : a prefix followed by
+    // values separated by ';'. A trailing ';' is allowed.
     private float[] readFloatArray(String expectedPrefix) throws IOException {
-        String line = readLineOrThrow();
-        if (!line.startsWith(expectedPrefix)) {
-            throw new RuntimeException("Expected prefix : " + expectedPrefix +
-                    " in line : " + line);
+        if (pos == limit && !fill()) {
+            throw new RuntimeException("No more lines to read");
         }
-        String[] vals = line.substring(expectedPrefix.length()).trim().split(";");
-        float[] fvals = new float[vals.length];
-        for (int i = 0; i < fvals.length; ++i) {
-            fvals[i] = Float.parseFloat(vals[i]);
+        for (int i = 0; i < expectedPrefix.length(); ++i) {
+            if ((pos == limit && !fill()) || buf[pos] != expectedPrefix.charAt(i)) {
+                throw new RuntimeException("Expected prefix : " + expectedPrefix +
+                        " in line : " + expectedPrefix.substring(0, i) + readLine());
+            }
+            pos++;
+        }
+        
+        int n = 0;
+        // Number of empty values not yet followed by a value
+        int empty = 0;
+        boolean endOfLine = false;
+        while (!endOfLine) {
+            final int end = findDelimiter(false);
+            // Trim as Float.parseFloat does
+            int start = pos;
+            int last = end;
+            while (start < last && buf[start] <= ' ') {
+                start++;
+            }
+            while (last > start && buf[last - 1] <= ' ') {
+                last--;
+            }
+            pos = end;
+            if (pos < limit && buf[pos] == ';') {
+                pos++;
+            } else {
+                endOfLine = true;
+                skipEndOfLine();
+            }
+            
+            if (start == last) {
+                if (endOfLine && n == 0 && empty == 0) {
+                    // Nothing after the prefix
+                    throw new NumberFormatException("empty String");
+                }
+                // Ignored if only empty values follow
+                empty++;
+                continue;
+            }
+            if (empty > 0) {
+                throw new NumberFormatException("empty String");
+            }
+            if (n == values.length) {
+                values = Arrays.copyOf(values, 2 * n);
+            }
+            values[n++] = parseFloat(buf, start, last);
         }
-        return fvals;
+        return Arrays.copyOf(values, n);
     }
     
-    private String readLineOrThrow() throws IOException {
-        String line = reader.readLine();
-        if (line == null) {
-            throw new RuntimeException("No more lines to read");
+    /**
+     * Parse s[start, end) (trimmed) as Float.parseFloat does. Plain decimal
+     * values are converted with double arithmetic, the result being used
+     * only if its error cannot change the float rounding. 
+     */
+    static float parseFloat(char[] s, int start, int end) {
+        int i = start;
+        final boolean negative = s[i] == '-';
+        if (negative || s[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        // Power of ten to apply to the mantissa
+        int exp10 = 0;
+        boolean truncated = false;
+        boolean dot = false;
+        boolean any = false;
+        for (; i < end; ++i) {
+            final char c = s[i];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < MAX_FAST_DIGITS) {
+                    if (mantissa != 0 || c != '0') {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                    }
+                    if (dot) {
+                        exp10--;
+                    }
+                } else {
+                    truncated |= c != '0';
+                    if (!dot) {
+                        exp10++;
+                    }
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                // Exponent, hexadecimal, NaN, suffix or invalid
+                return Float.parseFloat(new String(s, start, end - start));
+            }
+        }
+        if (!any) {
+            return Float.parseFloat(new String(s, start, end - start));
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0f : 0.0f;
         }
+        if (exp10 == 0 && !truncated) {
+            // Integer : the long to float conversion rounds to nearest
+            final float v = mantissa;
+            return negative ? -v : v;
+        }
+        if (exp10 < -22 || exp10 > 22) {
+            return Float.parseFloat(new String(s, start, end - start));
+        }
+        // Error below a few double ulps : conversion of the mantissa,
+        // truncated digits and one rounded operation
+        final double d = exp10 < 0 ? mantissa / POW10[-exp10]
+                                   : mantissa * POW10[exp10];
+        // Subnormal or overflowing floats have other rounding boundaries
+        if (d < 2 * Float.MIN_NORMAL || d > Float.MAX_VALUE / 2) {
+            return Float.parseFloat(new String(s, start, end - start));
+        }
+        // The 29 low bits of the double mantissa are dropped by the float
+        // conversion. Too close to half of it, the error may change the
+        // rounding.
+        final long dropped = Double.doubleToRawLongBits(d) & 0x1FFFFFFFL;
+        if (Math.abs(dropped - 0x10000000L) <= ROUNDING_MARGIN) {
+            return Float.parseFloat(new String(s, start, end - start));
+        }
+        final float v = (float)d;
+        return negative ? -v : v;
+    }
+    
+    // Read the rest of the current line, without the end of line
+    private String readLine() throws IOException {
+        final int end = findDelimiter(true);
+        final String line = new String(buf, pos, end - pos);
+        pos = end;
+        skipEndOfLine();
         return line;
     }
+    
+    /**
+     * Find the end of the value (or of the line) starting at pos, reading
+     * more input if needed. pos may be moved by the compaction of the buffer.
+     * @return the index of the ';' or end of line, limit at the end of the
+     * input
+     */
+    private int findDelimiter(boolean line) throws IOException {
+        int i = pos;
+        while (true) {
+            if (i == limit) {
+                final int offset = i - pos;
+                if (!fill()) {
+                    return limit;
+                }
+                i = pos + offset;
+            }
+            final char c = buf[i];
+            if (c == '\n' || c == '\r' || (c == ';' && !line)) {
+                return i;
+            }
+            i++;
+        }
+    }
+    
+    // Skip a "\n", "\r" or "\r\n" line terminator, if any
+    private void skipEndOfLine() throws IOException {
+        if (pos == limit && !fill()) {
+            return;
+        }
+        if (buf[pos] == '\r') {
+            pos++;
+            if ((pos < limit || fill()) && buf[pos] == '\n') {
+                pos++;
+            }
+        } else if (buf[pos] == '\n') {
+            pos++;
+        }
+    }
+    
+    /**
+     * Read more characters, keeping [pos, limit) : it is moved to the
+     * start of the buffer, which is grown if full.
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+        }
+        final int n = reader.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
 }
@@ -0,0 +1,132 @@
+package madsdf.ardrone.utils;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Calibration of the accel and gyro of a shimmer sensor, as stored in
+ * data/calibrations/1_5_<ID>.accel.properties and 1_5_<ID>.gyro.properties :
+ * accel (m/s^2) = ((raw - offset) / gain) * 9.81
+ * gyro (rad/s) = (raw - offset) / gain
+ *
+ * The calibration of each sensor is read once and cached. Used for the
+ * templates and the live samples, so both are calibrated the same way.
+ */
+public class SensorCalibration {
+    public static final String CALIBRATION_DIR = "data/calibrations";
+    public static final String FILE_PREFIX = "1_5_";
+    public static final double GRAVITY = 9.81;
+
+    private static final LoadingCache<String, SensorCalibration> cache =
+            CacheBuilder.newBuilder().build(
+                    new CacheLoader<String, SensorCalibration>() {
+        @Override
+        public SensorCalibration load(String shimmerID) throws IOException {
+            final String base = CALIBRATION_DIR + "/" + FILE_PREFIX + shimmerID;
+            return SensorCalibration.load(new File(base + ".accel.properties"),
+                                          new File(base + ".gyro.properties"));
+        }
+    });
+
+    /**
+     * @return the calibration of the given sensor, read on first call
+     */
+    public static SensorCalibration get(String shimmerID) throws IOException {
+        try {
+            return cache.get(shimmerID);
+        } catch (ExecutionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    public static SensorCalibration load(File accelFile, File gyroFile)
+            throws IOException {
+        for (File f : new File[]{accelFile, gyroFile}) {
+            if (!f.exists()) {
+                throw new FileNotFoundException("No calibration file " + f);
+            }
+        }
+        PropertiesReader accel = new PropertiesReader(accelFile.getPath());
+        PropertiesReader gyro = new PropertiesReader(gyroFile.getPath());
+        return new SensorCalibration(axes(accel, "offset_"), axes(accel, "gain_"),
+                                     axes(gyro, "offset_"), axes(gyro, "gain_"));
+    }
+
+    private static double[] axes(PropertiesReader reader, String prefix) {
+        return new double[]{reader.getDouble(prefix + "x"),
+                            reader.getDouble(prefix + "y"),
+                            reader.getDouble(prefix + "z")};
+    }
+
+    private final double[] accelOffset;
+    private final double[] gyroOffset;
+    // Factors applied after the offset : GRAVITY / gain and 1 / gain
+    private final double[] accelFactor = new double[3];
+    private final double[] gyroFactor = new double[3];
+
+    public SensorCalibration(double[] accelOffset, double[] accelGain,
+                             double[] gyroOffset, double[] gyroGain) {
+        this.accelOffset = accelOffset.clone();
+        this.gyroOffset = gyroOffset.clone();
+        for (int a = 0; a < 3; ++a) {
+            accelFactor[a] = GRAVITY / accelGain[a];
+            gyroFactor[a] = 1 / gyroGain[a];
+        }
+    }
+
+    /**
+     * Calibrate a whole accel serie
+     * @param accel [axis][sample] raw values
+     * @return a new [axis][sample] array
+     */
+    public float[][] calibrateAccel(float[][] accel) {
+        return calibrate(accel, accelOffset, accelFactor);
+    }
+
+    public float[][] calibrateGyro(float[][] gyro) {
+        return calibrate(gyro, gyroOffset, gyroFactor);
+    }
+
+    /**
+     * Calibrate one accel sample
+     * @param raw the x, y, z raw values
+     * @param out the calibrated values, may be raw
+     */
+    public void calibrateAccel(float[] raw, float[] out) {
+        calibrate(raw, out, accelOffset, accelFactor);
+    }
+
+    public void calibrateGyro(float[] raw, float[] out) {
+        calibrate(raw, out, gyroOffset, gyroFactor);
+    }
+
+    private static float[][] calibrate(float[][] serie, double[] offset,
+                                       double[] factor) {
+        float[][] out = new float[serie.length][];
+        for (int a = 0; a < serie.length; ++a) {
+            final float[] in = serie[a];
+            final float[] o = new float[in.length];
+            final double off = offset[a];
+            final double f = factor[a];
+            for (int i = 0; i < in.length; ++i) {
+                o[i] = (float)((in[i] - off) * f);
+            }
+            out[a] = o;
+        }
+        return out;
+    }
+
+    private static void calibrate(float[] raw, float[] out, double[] offset,
+                                  double[] factor) {
+        for (int a = 0; a < 3; ++a) {
+            out[a] = (float)((raw[a] - offset[a]) * factor[a]);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package madsdf.ardrone.utils;
+
+/**
+ * Clock whose time is set explicitly, used to replay recorded sessions
+ */
+public class VirtualClock implements Clock {
+    private volatile long nowMS;
+
+    public VirtualClock(long startMS) {
+        this.nowMS = startMS;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return nowMS;
+    }
+
+    public void set(long ms) {
+        nowMS = ms;
+    }
+
+    public void advance(long ms) {
+        nowMS += ms;
+    }
+}
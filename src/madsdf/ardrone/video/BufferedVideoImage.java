@@ -1,6 +1,15 @@
 package madsdf.ardrone.video;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 // Copyright (C) 2007-2011, PARROT SA, all rights reserved.
 
@@ -71,17 +80,55 @@ public class BufferedVideoImage {
    private static final short[] QUANTIZER_VALUES = new short[]{3, 5, 7, 9, 11, 13, 15, 17, 5, 7, 9, 11, 13,
                                                                15, 17, 19, 7, 9, 11, 13, 15, 17, 19, 21, 9, 11, 13, 15, 17, 19, 21, 23, 11, 13, 15, 17, 19, 21, 23, 25,
                                                                13, 15, 17, 19, 21, 23, 25, 27, 15, 17, 19, 21, 23, 25, 27, 29, 17, 19, 21, 23, 25, 27, 29, 31};
-   static byte[] CLZLUT = new byte[]{8, 7, 6, 6, 5, 5, 5, 5, 4, 4, 4, 4, 4, 4, 4, 4,
-                                     3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
-                                     2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
-                                     1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
-                                     1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-                                     0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-                                     0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-                                     0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
    private static final int[] CROMA_QUADRANT_OFFSETS = new int[]{0, 4, 32, 36};
+   // Chroma contributions to the color components, indexed by the chroma
+   // value + CHROMA_OFFSET. Values out of the tables are computed.
+   private static final int CHROMA_OFFSET = 384;
+   private static final int CHROMA_TABLE_SIZE = 1024;
+   private static final int[] BLUE_U = new int[CHROMA_TABLE_SIZE];
+   private static final int[] GREEN_U = new int[CHROMA_TABLE_SIZE];
+   private static final int[] GREEN_V = new int[CHROMA_TABLE_SIZE];
+   private static final int[] RED_V = new int[CHROMA_TABLE_SIZE];
+   // Saturated components, shifted to their place in the RGB int, indexed
+   // by (component >> 10) + CLAMP_OFFSET. Red and blue have 5 bits, green 6.
+   private static final int CLAMP_OFFSET = 256;
+   private static final int CLAMP_TABLE_SIZE = 1024;
+   private static final int[] RED_CLAMP = new int[CLAMP_TABLE_SIZE];
+   private static final int[] GREEN_CLAMP = new int[CLAMP_TABLE_SIZE];
+   private static final int[] BLUE_CLAMP = new int[CLAMP_TABLE_SIZE];
+   // Pixel of a macro block of zero coefficients
+   private static final int ZERO_MACRO_BLOCK_PIXEL;
+
+   static {
+      for (int i = 0; i < CHROMA_TABLE_SIZE; i++) {
+         int c = i - CHROMA_OFFSET - 128;
+         BLUE_U[i] = 454 * c;
+         GREEN_U[i] = 88 * c;
+         GREEN_V[i] = 183 * c;
+         RED_V[i] = 359 * c;
+      }
+      for (int i = 0; i < CLAMP_TABLE_SIZE; i++) {
+         int x = i - CLAMP_OFFSET;
+         int c5 = x < 0 ? 0 : Math.min(x >> 1, 0x1F);
+         int c6 = x < 0 ? 0 : Math.min(x, 0x3F);
+         RED_CLAMP[i] = (c5 << 2) << 16;
+         GREEN_CLAMP[i] = (c6 << 1) << 8;
+         BLUE_CLAMP[i] = c5 << 2;
+      }
+      ZERO_MACRO_BLOCK_PIXEL = RED_CLAMP[clampIndex(RED_V[CHROMA_OFFSET])]
+              | GREEN_CLAMP[clampIndex(-GREEN_U[CHROMA_OFFSET] - GREEN_V[CHROMA_OFFSET])]
+              | BLUE_CLAMP[clampIndex(BLUE_U[CHROMA_OFFSET])];
+   }
+
    private short[] dataBlockBuffer = new short[64];
-   private uint streamField;
+   // Columns of dataBlockBuffer which may have non zero AC coefficients, one
+   // bit per column, 0 for a DC only block
+   private int acColumns;
+   // Intermediate results of the inverse transform
+   private final int[] workSpace = new int[64];
+   // Current 32 bits word of the stream, the bits already read are shifted
+   // out on the left
+   private int streamField;
    private int streamFieldBitIndex;
    private int streamIndex;
    private int sliceCount;
@@ -101,9 +148,40 @@ public class BufferedVideoImage {
    private int pixelRowSize;
    private ByteBuffer imageStream;
    private ImageSlice imageSlice;
-   private uint[] pixelData;
+   // Macro blocks of imageSlice which were empty in the last slice decoded
+   private boolean[] emptyMacroBlocks;
+   // Pixels of the last slice of the previous picture, which the empty macro
+   // blocks of the first slice repeat
+   private int[] lastSlicePixels;
    private int[] javaPixelData;
+   // Luma only mode : the chroma blocks are skipped and the pictures are
+   // decoded in lumaData, one byte per pixel
+   private boolean lumaOnly;
+   private byte[] lumaData;
+   private byte[] lastSliceLuma;
+   // When set, the pictures are decoded in frames of this pool
+   private FramePool framePool;
+   // Frame of framePool holding javaPixelData, until taken by takeFrame()
+   private VideoFrame frame;
+   // Offset of the four luma quadrants of a macro block in javaPixelData
+   private int[] pixelDataQuadrantOffsets;
+   // When set, the slices are decoded in parallel on this executor
+   private ExecutorService executor;
+   // Decoders of the slices 1 to sliceCount - 1 in parallel mode
+   private BufferedVideoImage[] sliceDecoders = new BufferedVideoImage[0];
+   // Bit positions of the start codes of the slices and of the end of
+   // picture code, found before decoding in parallel
+   private int[] sliceStarts = new int[0];
+   private long sequentialFallbacks;
+   // Outputs of decodeFieldBytes
+   private int run;
+   private int level;
+   private boolean last;
 
+   /**
+    * Decode a picture from the start of the array of the stream, up to its
+    * limit
+    */
    public void addImageStream(ByteBuffer stream) {
       imageStream = stream;
       processStream();
@@ -119,16 +197,20 @@ public class BufferedVideoImage {
          alignedLength = (actualLength & ~7);
          if (alignedLength != actualLength) {
             alignedLength += 0x08;
-            streamField.shiftLeftEquals(alignedLength - actualLength);
+            streamField <<= alignedLength - actualLength;
             streamFieldBitIndex = alignedLength;
          }
       }
    }
 
    private void composeImageSlice() {
+      if (lumaOnly) {
+         composeLumaSlice();
+         return;
+      }
+
       int u, ug, ub;
       int v, vg, vr;
-      int r, g, b;
 
       int lumaElementIndex1 = 0;
       int lumaElementIndex2 = 0;
@@ -142,12 +224,16 @@ public class BufferedVideoImage {
       int chromaBlueValue = 0;
       int chromaRedValue = 0;
 
-      int[] pixelDataQuadrantOffsets = new int[]{0, BLOCK_WIDTH, width * BLOCK_WIDTH,
-                                                 (width * BLOCK_WIDTH) + BLOCK_WIDTH};
-
       int imageDataOffset = (sliceIndex - 1) * width * 16;
 
-      for (MacroBlock macroBlock : imageSlice.MacroBlocks) {
+      for (int count = 0; count < blockCount; count++) {
+         MacroBlock macroBlock = imageSlice.MacroBlocks[count];
+         if (emptyMacroBlocks[count]) {
+            // Copied by copyEmptyMacroBlocks
+            imageDataOffset += 16;
+            continue;
+         }
+
          for (int verticalStep = 0; verticalStep < BLOCK_WIDTH / 2; verticalStep++) {
             chromaOffset = verticalStep * BLOCK_WIDTH;
             lumaElementIndex1 = verticalStep * BLOCK_WIDTH * 2;
@@ -162,34 +248,40 @@ public class BufferedVideoImage {
                   chromaBlueValue = macroBlock.DataBlocks[4][chromaIndex];
                   chromaRedValue = macroBlock.DataBlocks[5][chromaIndex];
 
-                  u = chromaBlueValue - 128;
-                  ug = 88 * u;
-                  ub = 454 * u;
+                  u = chromaBlueValue + CHROMA_OFFSET;
+                  if ((u & ~(CHROMA_TABLE_SIZE - 1)) == 0) {
+                     ug = GREEN_U[u];
+                     ub = BLUE_U[u];
+                  }
+                  else {
+                     ug = 88 * (chromaBlueValue - 128);
+                     ub = 454 * (chromaBlueValue - 128);
+                  }
 
-                  v = chromaRedValue - 128;
-                  vg = 183 * v;
-                  vr = 359 * v;
+                  v = chromaRedValue + CHROMA_OFFSET;
+                  if ((v & ~(CHROMA_TABLE_SIZE - 1)) == 0) {
+                     vg = GREEN_V[v];
+                     vr = RED_V[v];
+                  }
+                  else {
+                     vg = 183 * (chromaRedValue - 128);
+                     vr = 359 * (chromaRedValue - 128);
+                  }
 
                   for (int pixel = 0; pixel < 2; pixel++) {
                      int deltaIndex = 2 * horizontalStep + pixel;
                      lumaElementValue1 = macroBlock.DataBlocks[quadrant][lumaElementIndex1 + deltaIndex] << 8;
                      lumaElementValue2 = macroBlock.DataBlocks[quadrant][lumaElementIndex2 + deltaIndex] << 8;
 
-                     r = saturate5(lumaElementValue1 + vr);
-                     g = saturate6(lumaElementValue1 - ug - vg);
-                     b = saturate5(lumaElementValue1 + ub);
-
                      int index1 = dataIndex1 + pixelDataQuadrantOffsets[quadrant] + deltaIndex;
-                     pixelData[index1] = makeRGB(r, g, b);
-                     javaPixelData[index1] = pixelData[index1].intValue();
-
-                     r = saturate5(lumaElementValue2 + vr);
-                     g = saturate6(lumaElementValue2 - ug - vg);
-                     b = saturate5(lumaElementValue2 + ub);
+                     javaPixelData[index1] = RED_CLAMP[clampIndex(lumaElementValue1 + vr)]
+                             | GREEN_CLAMP[clampIndex(lumaElementValue1 - ug - vg)]
+                             | BLUE_CLAMP[clampIndex(lumaElementValue1 + ub)];
 
                      int index2 = dataIndex2 + pixelDataQuadrantOffsets[quadrant] + deltaIndex;
-                     pixelData[index2] = makeRGB(r, g, b);
-                     javaPixelData[index2] = pixelData[index2].intValue();
+                     javaPixelData[index2] = RED_CLAMP[clampIndex(lumaElementValue2 + vr)]
+                             | GREEN_CLAMP[clampIndex(lumaElementValue2 - ug - vg)]
+                             | BLUE_CLAMP[clampIndex(lumaElementValue2 + ub)];
                   }
                }
             }
@@ -199,25 +291,39 @@ public class BufferedVideoImage {
       }
    }
 
-   private static int countLeadingZeros(uint value) {
-      int accum = 0;
+   private void composeLumaSlice() {
+      int imageDataOffset = (sliceIndex - 1) * width * 16;
 
-      accum += CLZLUT[value.shiftRight(24).intValue()];
-      if (accum == 8) {
-         accum += CLZLUT[(value.shiftRight(16).intValue()) & 0xFF];
-      }
-      if (accum == 16) {
-         accum += CLZLUT[(value.shiftRight(8).intValue()) & 0xFF];
-      }
-      if (accum == 24) {
-         accum += CLZLUT[value.intValue() & 0xFF];
+      for (int count = 0; count < blockCount; count++) {
+         if (!emptyMacroBlocks[count]) {
+            MacroBlock macroBlock = imageSlice.MacroBlocks[count];
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+               short[] block = macroBlock.DataBlocks[quadrant];
+               int dataIndex = imageDataOffset + pixelDataQuadrantOffsets[quadrant];
+               for (int element = 0; element < 64; element += BLOCK_WIDTH) {
+                  for (int pixel = 0; pixel < BLOCK_WIDTH; pixel++) {
+                     int luma = block[element + pixel];
+                     if ((luma & ~0xFF) != 0) {
+                        luma = luma < 0 ? 0 : 0xFF;
+                     }
+                     lumaData[dataIndex + pixel] = (byte) luma;
+                  }
+                  dataIndex += width;
+               }
+            }
+         }
+
+         imageDataOffset += 16;
       }
+   }
 
-      return accum;
+   private static int countLeadingZeros(int value) {
+      return Integer.numberOfLeadingZeros(value);
    }
 
-   private void decodeFieldBytes(int[] run, int[] level, boolean[] last) {
-      uint streamCode = new uint(0);
+   // Decode the next run and level, stored in run, level and last
+   private void decodeFieldBytes() {
+      int streamCode = 0;
 
       int streamLength = 0;
       ;
@@ -249,14 +355,14 @@ public class BufferedVideoImage {
       // 3 - Calculate value of run, for coarse value 00001 this is (111) + 8
 
       zeroCount = countLeadingZeros(streamCode); // - (1)
-      streamCode.shiftLeftEquals(zeroCount + 1); // - (2) -> shift left to get
+      streamCode <<= zeroCount + 1; // - (2) -> shift left to get
       // rid of the coarse value
       streamLength += zeroCount + 1; // - position bit pointer to keep track
       // off how many bits to consume later on
       // the stream.
 
       if (zeroCount > 1) {
-         temp = (streamCode.shiftRight(32 - (zeroCount - 1))).intValue(); // -
+         temp = streamCode >>> (32 - (zeroCount - 1)); // -
          // (2)
          // ->
          // shift
@@ -273,7 +379,7 @@ public class BufferedVideoImage {
          // is
          // zerocount
          // - 1)
-         streamCode.shiftLeftEquals(zeroCount - 1); // - shift all of the run
+         streamCode <<= zeroCount - 1; // - shift all of the run
          // bits out of the way
          // so the first bit is
          // points to the first
@@ -282,11 +388,11 @@ public class BufferedVideoImage {
          streamLength += zeroCount - 1;// - position bit pointer to keep
          // track off how many bits to
          // consume later on the stream.
-         run[0] = temp + (1 << (zeroCount - 1)); // - (3) -> calculate run
+         run = temp + (1 << (zeroCount - 1)); // - (3) -> calculate run
          // value
       }
       else {
-         run[0] = zeroCount;
+         run = zeroCount;
       }
 
       // Determine non zero value. (a.k.a 'level' field info)
@@ -301,7 +407,7 @@ public class BufferedVideoImage {
       // multiply by sign
 
       zeroCount = countLeadingZeros(streamCode);
-      streamCode.shiftLeftEquals(zeroCount + 1); // - (1)
+      streamCode <<= zeroCount + 1; // - (1)
       streamLength += zeroCount + 1; // - position bit pointer to keep track
       // off how many bits to consume later on
       // the stream.
@@ -310,8 +416,8 @@ public class BufferedVideoImage {
          // If coarse value is 01 according to the Huffman dictionary this
          // means EOB, so there is
          // no run and level and we indicate this by setting last to true;
-         run[0] = 0;
-         last[0] = true;
+         run = 0;
+         last = true;
       }
       else {
          if (zeroCount == 0) {
@@ -322,14 +428,14 @@ public class BufferedVideoImage {
          streamLength += zeroCount;// - position bit pointer to keep track
          // off how many bits to consume later on
          // the stream.
-         streamCode.shiftRightEquals(32 - zeroCount);// - (2) -> shift right
+         streamCode >>>= 32 - zeroCount;// - (2) -> shift right
          // to determine the
          // addtional bits
          // (number of additional
          // bits is zerocount)
          // sign = (sbyte)(streamCode & 1); // determine sign, last bit is
          // sign
-         sign = (int) (streamCode.and(1).intValue()); // determine sign, last
+         sign = streamCode & 1; // determine sign, last
          // bit is sign
 
          if (zeroCount != 0) {
@@ -337,7 +443,7 @@ public class BufferedVideoImage {
             // last bit is sign, so shift it out of the way
             // temp += (sbyte)(1 << (zeroCount - 1)); // - (3) -> calculate
             // run value without sign
-            temp = (streamCode.shiftRight(1)).intValue(); // take into
+            temp = streamCode >>> 1; // take into
             // account
             // that last bit is
             // sign, so shift it
@@ -346,39 +452,39 @@ public class BufferedVideoImage {
             // value without sign
          }
 
-         level[0] = (sign == 1) ? -temp : temp; // - (3) -> calculate run
+         level = (sign == 1) ? -temp : temp; // - (3) -> calculate run
          // value with sign
-         last[0] = false;
+         last = false;
       }
 
       readStreamData(streamLength);
    }
 
    private void getBlockBytes(boolean acCoefficientsAvailable) {
-      int[] run = new int[]{0};
-      int[] level = new int[]{0};
       int zigZagPosition = 0;
       int matrixPosition = 0;
-      boolean[] last = new boolean[]{false};
 
-      for (int i = 0; i < dataBlockBuffer.length; i++) {
-         dataBlockBuffer[i] = 0;
+      // Only the previous block's AC coefficients may be non zero
+      if (acColumns != 0) {
+         Arrays.fill(dataBlockBuffer, (short) 0);
+         acColumns = 0;
       }
 
-      uint dcCoefficient = readStreamData(10);
+      int dcCoefficient = readStreamData(10);
 
       if (quantizerMode == TABLE_QUANTIZATION_MODE) {
-         dataBlockBuffer[0] = (short) (dcCoefficient.times(QUANTIZER_VALUES[0]));
+         dataBlockBuffer[0] = (short) (dcCoefficient * QUANTIZER_VALUES[0]);
 
          if (acCoefficientsAvailable) {
-            decodeFieldBytes(run, level, last);
+            decodeFieldBytes();
 
-            while (!last[0]) {
-               zigZagPosition += run[0] + 1;
+            while (!last) {
+               zigZagPosition += run + 1;
                matrixPosition = ZIGZAG_POSITIONS[zigZagPosition];
-               level[0] *= QUANTIZER_VALUES[matrixPosition];
-               dataBlockBuffer[matrixPosition] = (short) level[0];
-               decodeFieldBytes(run, level, last);
+               level *= QUANTIZER_VALUES[matrixPosition];
+               dataBlockBuffer[matrixPosition] = (short) level;
+               acColumns |= 1 << (matrixPosition & 7);
+               decodeFieldBytes();
             }
          }
       }
@@ -400,12 +506,75 @@ public class BufferedVideoImage {
       return javaPixelData;
    }
 
-   public int getPictureType() {
-      return pictureType;
+   /**
+    * Decode the next pictures as luma only : the chroma blocks are skipped
+    * and the pixels are written to getLumaData() instead of
+    * getJavaPixelData(), which isn't updated (nor the frames of the pool).
+    */
+   public void setLumaOnly(boolean lumaOnly) {
+      this.lumaOnly = lumaOnly;
    }
 
-   public uint[] getPixelData() {
-      return pixelData;
+   /**
+    * @return the luma, 0 to 255, of the last picture decoded in luma only
+    * mode, row by row. The same array is reused for the next pictures of
+    * the same size.
+    */
+   public byte[] getLumaData() {
+      return lumaData;
+   }
+
+   /**
+    * Decode the next pictures in frames of the given pool instead of an
+    * array of the decoder, to hand them over with takeFrame() without copy.
+    */
+   public void setFramePool(FramePool framePool) {
+      this.framePool = framePool;
+   }
+
+   /**
+    * @return the frame holding the last decoded picture, which then belongs
+    * to the caller, or null if no frame pool is set or the frame was
+    * already taken
+    */
+   public VideoFrame takeFrame() {
+      VideoFrame taken = frame;
+      if (taken != null) {
+         taken.setFrameIndex(frameIndex);
+         frame = null;
+         javaPixelData = null;
+      }
+      return taken;
+   }
+
+   /**
+    * Decode the slices of the next pictures in parallel on the given
+    * executor, or sequentially if null. The calling thread decodes the
+    * first slice. Pictures whose slices can't be located are decoded
+    * sequentially.
+    */
+   public void setExecutor(ExecutorService executor) {
+      this.executor = executor;
+   }
+
+   /**
+    * @return the number of pictures decoded sequentially although an
+    * executor is set
+    */
+   public long getSequentialFallbacks() {
+      return sequentialFallbacks;
+   }
+
+   /**
+    * @return true if the end of the last picture was reached, false if the
+    * stream ended before
+    */
+   public boolean isPictureComplete() {
+      return pictureComplete;
+   }
+
+   public int getPictureType() {
+      return pictureType;
    }
 
    public int getPixelRowSize() {
@@ -420,22 +589,27 @@ public class BufferedVideoImage {
       return width;
    }
 
+   // Integer islow IDCT of dataBlockBuffer into the given data block of the
+   // slice. DC only blocks, all zero columns and rows without AC are
+   // computed with shortcuts giving the same results as the full transform.
    void inverseTransform(int macroBlockIndex, int dataBlockIndex) {
-      int[] workSpace = new int[64];
-      short[] data = new short[64];
+      final short[] data = imageSlice.MacroBlocks[macroBlockIndex].DataBlocks[dataBlockIndex];
+      final short[] block = dataBlockBuffer;
+
+      if (acColumns == 0) {
+         // Both passes reduce to a shift of the DC
+         Arrays.fill(data, (short) (((block[0] << PASS1_BITS) << BITS) >> F3));
+         return;
+      }
 
       int z1, z2, z3, z4, z5;
       int tmp0, tmp1, tmp2, tmp3;
       int tmp10, tmp11, tmp12, tmp13;
 
-      int pointer = 0;
-
-      for (int index = 8; index > 0; index--) {
-         if (dataBlockBuffer[pointer + 8] == 0 && dataBlockBuffer[pointer + 16] == 0
-                 && dataBlockBuffer[pointer + 24] == 0 && dataBlockBuffer[pointer + 32] == 0
-                 && dataBlockBuffer[pointer + 40] == 0 && dataBlockBuffer[pointer + 48] == 0
-                 && dataBlockBuffer[pointer + 56] == 0) {
-            int dcValue = dataBlockBuffer[pointer] << PASS1_BITS;
+      // Only column 0 can have a DC, the other columns without AC are zero
+      for (int pointer = 0; pointer < 8; pointer++) {
+         if ((acColumns & (1 << pointer)) == 0) {
+            int dcValue = block[pointer] << PASS1_BITS;
 
             workSpace[pointer + 0] = dcValue;
             workSpace[pointer + 8] = dcValue;
@@ -445,20 +619,18 @@ public class BufferedVideoImage {
             workSpace[pointer + 40] = dcValue;
             workSpace[pointer + 48] = dcValue;
             workSpace[pointer + 56] = dcValue;
-
-            pointer++;
             continue;
          }
 
-         z2 = dataBlockBuffer[pointer + 16];
-         z3 = dataBlockBuffer[pointer + 48];
+         z2 = block[pointer + 16];
+         z3 = block[pointer + 48];
 
          z1 = (z2 + z3) * FIX_0_541196100;
          tmp2 = z1 + z3 * -FIX_1_847759065;
          tmp3 = z1 + z2 * FIX_0_765366865;
 
-         z2 = dataBlockBuffer[pointer];
-         z3 = dataBlockBuffer[pointer + 32];
+         z2 = block[pointer];
+         z3 = block[pointer + 32];
 
          tmp0 = (z2 + z3) << BITS;
          tmp1 = (z2 - z3) << BITS;
@@ -468,10 +640,10 @@ public class BufferedVideoImage {
          tmp11 = tmp1 + tmp2;
          tmp12 = tmp1 - tmp2;
 
-         tmp0 = dataBlockBuffer[pointer + 56];
-         tmp1 = dataBlockBuffer[pointer + 40];
-         tmp2 = dataBlockBuffer[pointer + 24];
-         tmp3 = dataBlockBuffer[pointer + 8];
+         tmp0 = block[pointer + 56];
+         tmp1 = block[pointer + 40];
+         tmp2 = block[pointer + 24];
+         tmp3 = block[pointer + 8];
 
          z1 = tmp0 + tmp3;
          z2 = tmp1 + tmp2;
@@ -504,13 +676,27 @@ public class BufferedVideoImage {
          workSpace[pointer + 40] = ((tmp12 - tmp1 + (1 << F1)) >> F2);
          workSpace[pointer + 24] = ((tmp13 + tmp0 + (1 << F1)) >> F2);
          workSpace[pointer + 32] = ((tmp13 - tmp0 + (1 << F1)) >> F2);
-
-         pointer++;
       }
 
-      pointer = 0;
+      // The rows are zero past the last column with AC
+      final boolean onlyFirstColumn = acColumns == 1;
+      for (int pointer = 0; pointer < 64; pointer += 8) {
+         if (onlyFirstColumn || (workSpace[pointer + 1] == 0 && workSpace[pointer + 2] == 0
+                 && workSpace[pointer + 3] == 0 && workSpace[pointer + 4] == 0
+                 && workSpace[pointer + 5] == 0 && workSpace[pointer + 6] == 0
+                 && workSpace[pointer + 7] == 0)) {
+            final short value = (short) ((workSpace[pointer] << BITS) >> F3);
+            data[pointer + 0] = value;
+            data[pointer + 1] = value;
+            data[pointer + 2] = value;
+            data[pointer + 3] = value;
+            data[pointer + 4] = value;
+            data[pointer + 5] = value;
+            data[pointer + 6] = value;
+            data[pointer + 7] = value;
+            continue;
+         }
 
-      for (int index = 0; index < 8; index++) {
          z2 = workSpace[pointer + 2];
          z3 = workSpace[pointer + 6];
 
@@ -563,29 +749,16 @@ public class BufferedVideoImage {
          data[pointer + 5] = (short) ((tmp12 - tmp1) >> F3);
          data[pointer + 3] = (short) ((tmp13 + tmp0) >> F3);
          data[pointer + 4] = (short) ((tmp13 - tmp0) >> F3);
-
-         pointer += 8;
-      }
-
-      for (int i = 0; i < data.length; i++) {
-         imageSlice.MacroBlocks[macroBlockIndex].DataBlocks[dataBlockIndex][i] = data[i];
       }
    }
 
-   private uint makeRGB(int r, int g, int b) {
-      r <<= 2;
-      g <<= 1;
-      b <<= 2;
-
-      uint ru = new uint(r);
-      uint gu = new uint(g);
-      uint bu = new uint(b);
-
-      uint retval = ru.shiftLeft(16);
-      retval = retval.or(gu.shiftLeft(8));
-      retval = retval.or(bu);
-
-      return retval;
+   // Index of a color component in the clamp tables
+   private static int clampIndex(int x) {
+      int index = (x >> 10) + CLAMP_OFFSET;
+      if ((index & ~(CLAMP_TABLE_SIZE - 1)) != 0) {
+         return index < 0 ? 0 : CLAMP_TABLE_SIZE - 1;
+      }
+      return index;
    }
 
    // Blockline:
@@ -721,108 +894,337 @@ public class BufferedVideoImage {
    // that an GroupOfBlocks contains multiple pixel matrices.
    // So to calculate the real index we have to take that also into account
    // (blockCount)
-   private uint peekStreamData(ByteBuffer stream, int count) {
-      uint data = new uint(0);
-      uint stream_field = streamField;
+   private int peekStreamData(ByteBuffer stream, int count) {
+      int data = 0;
+      int stream_field = streamField;
       int stream_field_bit_index = streamFieldBitIndex;
 
-      while (count > (32 - stream_field_bit_index) && streamIndex < (imageStream.capacity() >> 2)) {
-         data = (data.shiftLeft(32 - stream_field_bit_index)).or(stream_field.shiftRight(stream_field_bit_index));
+      while (count > (32 - stream_field_bit_index) && streamIndex < (imageStream.limit() >> 2)) {
+         data = (data << (32 - stream_field_bit_index)) | (stream_field >>> stream_field_bit_index);
          count -= 32 - stream_field_bit_index;
-         stream_field = new uint(stream, streamIndex * 4);
+         stream_field = readWord(stream, streamIndex * 4);
          stream_field_bit_index = 0;
       }
 
       if (count > 0) {
-         data = data.shiftLeft(count).or(stream_field.shiftRight((32 - count)));
+         data = (data << count) | (stream_field >>> (32 - count));
       }
 
       return data;
    }
 
+   // Little-endian 32 bits word of the stream at the given byte offset
+   // The words past the limit of the stream read as zeros
+   private static int readWord(ByteBuffer stream, int start) {
+      if (start + 3 >= stream.limit()) {
+         return 0;
+      }
+      final byte[] b = stream.array();
+      return (b[start] & 0xFF) | ((b[start + 1] & 0xFF) << 8)
+              | ((b[start + 2] & 0xFF) << 16) | (b[start + 3] << 24);
+   }
+
    private void processStream() {
-      boolean blockY0HasAcComponents = false;
-      boolean blockY1HasAcComponents = false;
-      boolean blockY2HasAcComponents = false;
-      boolean blockY3HasAcComponents = false;
-      boolean blockCbHasAcComponents = false;
-      boolean blockCrHasAcComponents = false;
+      if (executor != null && decodeSlicesInParallel()) {
+         return;
+      }
+      if (executor != null) {
+         sequentialFallbacks++;
+      }
+
+      resetStream();
+      while (!pictureComplete && hasHeaderData()) {
+         readHeader();
+
+         if (!pictureComplete) {
+            decodeMacroBlocks();
+
+            // No picture header yet since the frame was taken
+            if (hasPixels()) {
+               composeImageSlice();
+               copyEmptyMacroBlocks(sliceIndex - 1, emptyMacroBlocks);
+            }
+         }
+      }
+
+      if (hasPixels() && sliceIndex > 0) {
+         saveLastSlice(sliceIndex - 1);
+      }
+   }
+
+   // Whether the pixels of the current mode are allocated
+   private boolean hasPixels() {
+      return lumaOnly ? lumaData != null : javaPixelData != null;
+   }
 
+   private void resetStream() {
       // Set streamFieldBitIndex to 32 to make sure that the first call to
       // ReadStreamData
       // actually consumes data from the stream
       streamFieldBitIndex = 32;
-      streamField = new uint(0);
+      streamField = 0;
       streamIndex = 0;
       sliceIndex = 0;
       pictureComplete = false;
+   }
 
-      while (!pictureComplete && streamIndex < (imageStream.capacity() >> 2)) {
-         readHeader();
+   // Whether the stream has room for a start code at the next byte. The
+   // last word loaded may still hold one.
+   private boolean hasHeaderData() {
+      return ((streamPosition() + 7) & ~7) + 22 <= imageStream.limit() << 3;
+   }
 
-         if (!pictureComplete) {
-            for (int count = 0; count < blockCount; count++) {
-               uint macroBlockEmpty = readStreamData(1);
-
-               if (macroBlockEmpty.intValue() == (0)) {
-                  uint acCoefficients = readStreamData(8);
-
-                  blockY0HasAcComponents = acCoefficients.shiftRight(0).and(1).intValue() == 1;
-                  blockY1HasAcComponents = acCoefficients.shiftRight(1).and(1).intValue() == 1;
-                  blockY2HasAcComponents = acCoefficients.shiftRight(2).and(1).intValue() == 1;
-                  blockY3HasAcComponents = acCoefficients.shiftRight(3).and(1).intValue() == 1;
-                  blockCbHasAcComponents = acCoefficients.shiftRight(4).and(1).intValue() == 1;
-                  blockCrHasAcComponents = acCoefficients.shiftRight(5).and(1).intValue() == 1;
-
-                  if (acCoefficients.shiftRight(6).and(1).intValue() == 1) {
-                     uint quantizer_mode = readStreamData(2);
-                     quantizerMode = (int) ((quantizer_mode.intValue() < 2) ? quantizer_mode.flipBits()
-                             : quantizer_mode.intValue());
-                  }
+   // Bit position of the next bit to read in the stream
+   private int streamPosition() {
+      return ((streamIndex - 1) << 5) + streamFieldBitIndex;
+   }
 
-                  getBlockBytes(blockY0HasAcComponents);
-                  inverseTransform(count, 0);
+   // Decode the macro blocks of the current slice into imageSlice
+   private void decodeMacroBlocks() {
+      boolean blockY0HasAcComponents = false;
+      boolean blockY1HasAcComponents = false;
+      boolean blockY2HasAcComponents = false;
+      boolean blockY3HasAcComponents = false;
+      boolean blockCbHasAcComponents = false;
+      boolean blockCrHasAcComponents = false;
 
-                  getBlockBytes(blockY1HasAcComponents);
-                  inverseTransform(count, 1);
+      for (int count = 0; count < blockCount; count++) {
+         int macroBlockEmpty = readStreamData(1);
+         emptyMacroBlocks[count] = macroBlockEmpty != 0;
 
-                  getBlockBytes(blockY2HasAcComponents);
-                  inverseTransform(count, 2);
+         if (macroBlockEmpty == 0) {
+            int acCoefficients = readStreamData(8);
 
-                  getBlockBytes(blockY3HasAcComponents);
-                  inverseTransform(count, 3);
+            blockY0HasAcComponents = (acCoefficients & 1) == 1;
+            blockY1HasAcComponents = ((acCoefficients >>> 1) & 1) == 1;
+            blockY2HasAcComponents = ((acCoefficients >>> 2) & 1) == 1;
+            blockY3HasAcComponents = ((acCoefficients >>> 3) & 1) == 1;
+            blockCbHasAcComponents = ((acCoefficients >>> 4) & 1) == 1;
+            blockCrHasAcComponents = ((acCoefficients >>> 5) & 1) == 1;
 
-                  getBlockBytes(blockCbHasAcComponents);
-                  inverseTransform(count, 4);
+            if (((acCoefficients >>> 6) & 1) == 1) {
+               int quantizer_mode = readStreamData(2);
+               quantizerMode = (quantizer_mode < 2) ? ~quantizer_mode
+                       : quantizer_mode;
+            }
 
-                  getBlockBytes(blockCrHasAcComponents);
-                  inverseTransform(count, 5);
-               }
+            getBlockBytes(blockY0HasAcComponents);
+            inverseTransform(count, 0);
+
+            getBlockBytes(blockY1HasAcComponents);
+            inverseTransform(count, 1);
+
+            getBlockBytes(blockY2HasAcComponents);
+            inverseTransform(count, 2);
+
+            getBlockBytes(blockY3HasAcComponents);
+            inverseTransform(count, 3);
+
+            // Read in any case, to reach the next macro block
+            getBlockBytes(blockCbHasAcComponents);
+            if (!lumaOnly) {
+               inverseTransform(count, 4);
             }
 
-            composeImageSlice();
+            getBlockBytes(blockCrHasAcComponents);
+            if (!lumaOnly) {
+               inverseTransform(count, 5);
+            }
          }
       }
+   }
 
+   // An empty macro block shows the last macro block decoded at the same
+   // place : the one above, or the one of the last slice of the previous
+   // picture in the first slice. The slices above must be complete.
+   private void copyEmptyMacroBlocks(int slice, boolean[] empty) {
+      // Same copies for the int and byte pixels
+      final Object pixels = lumaOnly ? lumaData : javaPixelData;
+      final Object lastSlice = lumaOnly ? lastSliceLuma : lastSlicePixels;
+      for (int count = 0; count < blockCount; count++) {
+         if (!empty[count]) {
+            continue;
+         }
+         for (int row = 0; row < 16; row++) {
+            int index = (slice * 16 + row) * width + count * 16;
+            if (slice == 0) {
+               System.arraycopy(lastSlice, row * width + count * 16, pixels, index, 16);
+            }
+            else {
+               System.arraycopy(pixels, index - 16 * width, pixels, index, 16);
+            }
+         }
+      }
+   }
+
+   private void saveLastSlice(int slice) {
+      if (lumaOnly) {
+         System.arraycopy(lumaData, slice * 16 * width, lastSliceLuma, 0, lastSliceLuma.length);
+      }
+      else {
+         System.arraycopy(javaPixelData, slice * 16 * width, lastSlicePixels, 0, lastSlicePixels.length);
+      }
+   }
+
+   // Decode the slices of the picture in parallel, each one from its start
+   // code. False if the slices could not be located or didn't end where the
+   // next one starts, the picture must then be decoded sequentially.
+   private boolean decodeSlicesInParallel() {
+      resetStream();
+      readHeader();
+      if (sliceIndex != 1 || pictureComplete || sliceCount < 2) {
+         return false;
+      }
+
+      if (sliceDecoders.length < sliceCount) {
+         BufferedVideoImage[] decoders = Arrays.copyOf(sliceDecoders, sliceCount);
+         for (int slice = sliceDecoders.length; slice < sliceCount; slice++) {
+            decoders[slice] = new BufferedVideoImage();
+         }
+         sliceDecoders = decoders;
+         sliceStarts = new int[sliceCount + 1];
+      }
+      if (!findSliceStarts((streamPosition() + 7) >> 3)) {
+         return false;
+      }
+
+      boolean decoded = true;
+      List<Future<Integer>> futures = Lists.newArrayListWithCapacity(sliceCount - 1);
+      try {
+         for (int slice = 1; slice < sliceCount; slice++) {
+            final int sliceNumber = slice;
+            final BufferedVideoImage decoder = sliceDecoders[slice];
+            futures.add(executor.submit(new Callable<Integer>() {
+               @Override
+               public Integer call() {
+                  return decoder.decodeSlice(BufferedVideoImage.this, sliceNumber);
+               }
+            }));
+         }
+      }
+      catch (RejectedExecutionException ex) {
+         decoded = false;
+      }
+
+      // The first slice follows the picture header
+      try {
+         decodeMacroBlocks();
+         composeImageSlice();
+         alignStreamData();
+         decoded &= streamPosition() == sliceStarts[1];
+      }
+      catch (RuntimeException ex) {
+         decoded = false;
+      }
+
+      // All the slices must be done before a sequential decoding
+      for (int slice = 1; slice <= futures.size(); slice++) {
+         try {
+            int end = Uninterruptibles.getUninterruptibly(futures.get(slice - 1));
+            decoded &= end == sliceStarts[slice + 1];
+         }
+         catch (ExecutionException ex) {
+            decoded = false;
+         }
+      }
+      if (!decoded) {
+         return false;
+      }
+
+      // In order, the empty macro blocks repeat the slice above
+      copyEmptyMacroBlocks(0, emptyMacroBlocks);
+      for (int slice = 1; slice < sliceCount; slice++) {
+         copyEmptyMacroBlocks(slice, sliceDecoders[slice].emptyMacroBlocks);
+      }
+      saveLastSlice(sliceCount - 1);
+      sliceIndex = sliceCount;
+      pictureComplete = true;
+      return true;
+   }
+
+   // Fill sliceStarts with the bit positions of the byte aligned start codes
+   // of the slices 1 to sliceCount - 1 and of the end of picture, in this
+   // order, looked for from the given byte. False if one is missing.
+   private boolean findSliceStarts(int from) {
+      final byte[] bytes = imageStream.array();
+      final int end = (imageStream.limit() & ~3) - 2;
+      int slice = 1;
+      int code = 32 | slice;
+
+      // The bytes of the bit stream are in little-endian words
+      for (int position = from; position < end; position++) {
+         if (bytes[position ^ 3] == 0 && bytes[(position + 1) ^ 3] == 0
+                 && ((bytes[(position + 2) ^ 3] & 0xFF) >> 2) == code) {
+            sliceStarts[slice] = position << 3;
+            if (slice == sliceCount) {
+               return true;
+            }
+            slice++;
+            code = 32 | (slice == sliceCount ? 0x1F : slice);
+            position += 2;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Decode a slice of the picture read by another decoder, from its start
+    * code, into the pixels of the picture.
+    * @return the bit position after the slice, or -1 if it could not be
+    * decoded
+    */
+   private int decodeSlice(BufferedVideoImage picture, int slice) {
+      imageStream = picture.imageStream;
+      width = picture.width;
+      height = picture.height;
+      blockCount = picture.blockCount;
+      javaPixelData = picture.javaPixelData;
+      lumaOnly = picture.lumaOnly;
+      lumaData = picture.lumaData;
+      pixelDataQuadrantOffsets = picture.pixelDataQuadrantOffsets;
+      if (imageSlice == null || imageSlice.MacroBlocks.length != blockCount) {
+         imageSlice = new ImageSlice(blockCount);
+         emptyMacroBlocks = new boolean[blockCount];
+      }
+
+      try {
+         int position = picture.sliceStarts[slice];
+         streamIndex = position >> 5;
+         streamFieldBitIndex = position & 31;
+         streamField = readWord(imageStream, streamIndex * 4) << streamFieldBitIndex;
+         streamIndex++;
+
+         // The start code, already checked
+         readStreamData(22);
+         quantizerMode = readStreamData(5);
+         sliceIndex = slice + 1;
+         decodeMacroBlocks();
+         composeImageSlice();
+         alignStreamData();
+         return streamPosition();
+      }
+      catch (RuntimeException ex) {
+         return -1;
+      }
    }
 
    private void readHeader() {
       alignStreamData();
 
-      uint code = readStreamData(22);
-      uint startCode = new uint(code.and(~0x1F));
+      int code = readStreamData(22);
+      int startCode = code & ~0x1F;
 
-      if (startCode.intValue() == 32) {
-         if (((code.and(0x1F).intValue()) == 0x1F)) {
+      if (startCode == 32) {
+         if ((code & 0x1F) == 0x1F) {
             pictureComplete = true;
          }
          else {
             if (sliceIndex++ == 0) {
-               pictureFormat = (int) readStreamData(2).intValue();
-               resolution = (int) readStreamData(3).intValue();
-               pictureType = (int) readStreamData(3).intValue();
-               quantizerMode = (int) readStreamData(5).intValue();
-               frameIndex = (int) readStreamData(32).intValue();
+               pictureFormat = readStreamData(2);
+               resolution = readStreamData(3);
+               pictureType = readStreamData(3);
+               quantizerMode = readStreamData(5);
+               frameIndex = readStreamData(32);
 
                switch (pictureFormat) {
                   case CIF:
@@ -841,61 +1243,63 @@ public class BufferedVideoImage {
                sliceCount = height >> 4;
                blockCount = width >> 4;
 
-               if (imageSlice == null) {
+               // The buffers are kept from one picture to the next
+               if (imageSlice == null || imageSlice.MacroBlocks.length != blockCount) {
                   imageSlice = new ImageSlice(blockCount);
-                  pixelData = new uint[width * height];
-                  javaPixelData = new int[pixelData.length];
+                  emptyMacroBlocks = new boolean[blockCount];
+               }
+               if (lastSlicePixels == null || lastSlicePixels.length != width * 16) {
+                  lastSlicePixels = new int[width * 16];
+                  Arrays.fill(lastSlicePixels, ZERO_MACRO_BLOCK_PIXEL);
+               }
+               if (lumaOnly) {
+                  if (lumaData == null || lumaData.length != width * height) {
+                     lumaData = new byte[width * height];
+                  }
+                  // The luma of ZERO_MACRO_BLOCK_PIXEL
+                  if (lastSliceLuma == null || lastSliceLuma.length != width * 16) {
+                     lastSliceLuma = new byte[width * 16];
+                  }
                }
-               else {
-                  if (imageSlice.MacroBlocks.length != blockCount) {
-                     imageSlice = new ImageSlice(blockCount);
-                     pixelData = new uint[width * height];
-                     javaPixelData = new int[pixelData.length];
+               else if (framePool != null) {
+                  if (frame == null || frame.width != width || frame.height != height) {
+                     if (frame != null) {
+                        frame.release();
+                     }
+                     frame = framePool.acquire(width, height);
                   }
+                  javaPixelData = frame.pixels;
                }
+               else if (javaPixelData == null || javaPixelData.length != width * height) {
+                  javaPixelData = new int[width * height];
+               }
+               pixelDataQuadrantOffsets = new int[]{0, BLOCK_WIDTH, width * BLOCK_WIDTH,
+                                                    (width * BLOCK_WIDTH) + BLOCK_WIDTH};
             }
             else {
-               quantizerMode = (int) readStreamData(5).intValue();
+               quantizerMode = readStreamData(5);
             }
          }
       }
    }
 
-   private uint readStreamData(int count) {
-      uint data = new uint(0);
+   private int readStreamData(int count) {
+      int data = 0;
 
       while (count > (32 - streamFieldBitIndex)) {
-         data = (data.shiftLeft((int) (32 - streamFieldBitIndex)).or(streamField.shiftRight(streamFieldBitIndex)));
+         data = (data << (32 - streamFieldBitIndex)) | (streamField >>> streamFieldBitIndex);
          count -= 32 - streamFieldBitIndex;
-         streamField = new uint(imageStream, streamIndex * 4);
+         streamField = readWord(imageStream, streamIndex * 4);
          streamFieldBitIndex = 0;
          streamIndex++;
       }
 
       if (count > 0) {
-         data = data.shiftLeft(count).or(streamField.shiftRight(32 - count));
-         streamField.shiftLeftEquals(count);
+         data = (data << count) | (streamField >>> (32 - count));
+         streamField <<= count;
          streamFieldBitIndex += count;
       }
 
       return data;
    }
-
-   private static int saturate5(int x) {
-      if (x < 0) {
-         return 0;
-      }
-
-      x >>= 11;
-      return (x > 0x1F) ? 0x1F : x;
-   }
-
-   private static int saturate6(int x) {
-      if (x < 0) {
-         return 0;
-      }
-
-      x >>= 10;
-      return x > 0x3F ? 0x3F : x;
-   }
 }
@@ -0,0 +1,177 @@
+package madsdf.ardrone.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Reassembles the pictures of the video stream from the datagrams they
+ * were sent in. A picture starts at the beginning of a datagram with a
+ * picture start code, the datagrams without start code are its following
+ * fragments, and it is complete at its end of picture code. Incomplete
+ * pictures, fragments without picture and pictures older than the last
+ * complete one are dropped.
+ *
+ * The pictures are assembled in pooled buffers, given back with release()
+ * once decoded. Not thread-safe, used by the thread receiving the video.
+ */
+public class FrameAssembler {
+    public static final int INITIAL_BUFFER_SIZE = 64000;
+    // A picture this many frames older than the last one is stale, an older
+    // one comes from a restarted stream
+    private static final int STALE_FRAMES = 64;
+    // Picture header : start code, format, resolution, type and quantizer
+    private static final int FRAME_INDEX_BIT = 22 + 2 + 3 + 3 + 5;
+    // First byte after the header, which may look like an end code
+    private static final int HEADER_BYTES = (FRAME_INDEX_BIT + 32 + 7) / 8;
+
+    private final int capacity;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    // Picture being assembled, null if none
+    private ByteBuffer current = null;
+    private int currentLength = 0;
+    // Bit stream bytes of current before which there is no end code
+    private int scanned = 0;
+    private boolean hasLastFrame = false;
+    private int lastFrameIndex = 0;
+
+    private long completeCount = 0;
+    private long incompleteCount = 0;
+    private long staleCount = 0;
+    private long orphanCount = 0;
+
+    /**
+     * @param capacity the maximum number of free buffers kept
+     */
+    public FrameAssembler(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add a received datagram
+     * @return the picture completed by the datagram, from 0 to its limit,
+     * or null. It must be given back with release().
+     */
+    public ByteBuffer add(byte[] data, int offset, int length) {
+        if (length >= 4 && isPictureStart(data, offset)) {
+            if (current != null) {
+                // Its end was lost
+                incompleteCount++;
+            } else {
+                current = acquire();
+            }
+            currentLength = 0;
+            scanned = HEADER_BYTES;
+        } else if (current == null) {
+            orphanCount++;
+            return null;
+        }
+
+        // With room to pad to a whole word
+        if (currentLength + length + 3 > current.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(2 * current.capacity(), currentLength + length + 4));
+            System.arraycopy(current.array(), 0, bigger.array(), 0, currentLength);
+            current = bigger;
+        }
+        System.arraycopy(data, offset, current.array(), currentLength, length);
+        currentLength += length;
+        if (!findEnd()) {
+            return null;
+        }
+
+        // The decoder reads whole words
+        final ByteBuffer picture = current;
+        current = null;
+        final int padded = (currentLength + 3) & ~3;
+        for (int i = currentLength; i < padded; ++i) {
+            picture.array()[i] = 0;
+        }
+        picture.clear();
+        picture.limit(padded);
+
+        final int frameIndex = frameIndex(picture.array());
+        final int age = lastFrameIndex - frameIndex;
+        if (hasLastFrame && age >= 0 && age < STALE_FRAMES) {
+            staleCount++;
+            release(picture);
+            return null;
+        }
+        hasLastFrame = true;
+        lastFrameIndex = frameIndex;
+        completeCount++;
+        return picture;
+    }
+
+    /**
+     * Give back a picture returned by add()
+     */
+    public void release(ByteBuffer picture) {
+        if (free.size() >= capacity) {
+            return;
+        }
+        // Not contains(), which compares the contents
+        for (ByteBuffer b : free) {
+            if (b == picture) {
+                return;
+            }
+        }
+        free.addFirst(picture);
+    }
+
+    private ByteBuffer acquire() {
+        final ByteBuffer b = free.pollFirst();
+        return b != null ? b : ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    // The bytes of the bit stream are in little-endian words : bit stream
+    // byte k is at k ^ 3
+
+    // 22 bits picture start code 0000 0000 0000 0000 1000 00
+    private static boolean isPictureStart(byte[] data, int offset) {
+        return data[offset + 3] == 0 && data[offset + 2] == 0
+                && (data[offset + 1] & 0xFC) == 0x80;
+    }
+
+    // Look for the byte aligned 22 bits end of picture code
+    // 0000 0000 0000 0000 1111 11 in the whole words received
+    private boolean findEnd() {
+        final byte[] b = current.array();
+        final int end = (currentLength & ~3) - 2;
+        for (int k = scanned; k < end; ++k) {
+            if (b[k ^ 3] == 0 && b[(k + 1) ^ 3] == 0
+                    && (b[(k + 2) ^ 3] & 0xFC) == 0xFC) {
+                return true;
+            }
+        }
+        scanned = Math.max(scanned, end);
+        return false;
+    }
+
+    private static int frameIndex(byte[] b) {
+        int frameIndex = 0;
+        for (int i = FRAME_INDEX_BIT; i < FRAME_INDEX_BIT + 32; ++i) {
+            frameIndex = (frameIndex << 1) | ((b[(i >> 3) ^ 3] >> (7 - (i & 7))) & 1);
+        }
+        return frameIndex;
+    }
+
+    // Number of pictures returned by add()
+    public long getCompleteCount() {
+        return completeCount;
+    }
+
+    // Number of pictures dropped because the next one started before their end
+    public long getIncompleteCount() {
+        return incompleteCount;
+    }
+
+    // Number of complete pictures dropped because older than the last one
+    public long getStaleCount() {
+        return staleCount;
+    }
+
+    // Number of datagrams dropped because they were not part of a picture
+    public long getOrphanCount() {
+        return orphanCount;
+    }
+}
@@ -0,0 +1,53 @@
+package madsdf.ardrone.video;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles the frames passed from the video decoder to the display, so a
+ * steady video stream doesn't allocate an image per frame. When all the
+ * frames are in use a new one is allocated, and at most 'capacity' free
+ * frames are kept. Thread-safe.
+ */
+public class FramePool {
+    private final int capacity;
+    // Guarded by this
+    private final ArrayDeque<VideoFrame> free = new ArrayDeque<>();
+    private long allocated = 0;
+
+    /**
+     * @param capacity the maximum number of free frames kept
+     */
+    public FramePool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return a frame of the given size, with undefined content
+     */
+    public synchronized VideoFrame acquire(int width, int height) {
+        VideoFrame frame;
+        while ((frame = free.pollFirst()) != null) {
+            if (frame.width == width && frame.height == height) {
+                return frame;
+            }
+            // The resolution changed, drop the old frames
+        }
+        allocated++;
+        return new VideoFrame(this, width, height);
+    }
+
+    synchronized void release(VideoFrame frame) {
+        if (free.size() < capacity && !free.contains(frame)) {
+            free.addFirst(frame);
+        }
+    }
+
+    // Number of frames allocated since the pool was created
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+
+    public synchronized int getFreeCount() {
+        return free.size();
+    }
+}
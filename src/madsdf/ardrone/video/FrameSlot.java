@@ -0,0 +1,63 @@
+package madsdf.ardrone.video;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single slot between the video decoder and the display, where the latest
+ * frame wins : a frame offered while the previous one is still waiting is
+ * released to its pool and counted as dropped. The display never lags more
+ * than one frame behind the decoder, however busy it is.
+ *
+ * offer() returns true when the slot was empty, the consumer must then be
+ * notified once. As the consumer empties the slot, a single notification is
+ * pending at a time. Thread-safe.
+ */
+public class FrameSlot {
+    private final AtomicReference<VideoFrame> pending = new AtomicReference<>();
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong displayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Put a frame in the slot, replacing the waiting one if any
+     * @return true if the slot was empty
+     */
+    public boolean offer(VideoFrame frame) {
+        decoded.incrementAndGet();
+        final VideoFrame previous = pending.getAndSet(frame);
+        if (previous != null) {
+            dropped.incrementAndGet();
+            previous.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the latest frame, which then belongs to the caller, or null
+     * if there is none
+     */
+    public VideoFrame take() {
+        final VideoFrame frame = pending.getAndSet(null);
+        if (frame != null) {
+            displayed.incrementAndGet();
+        }
+        return frame;
+    }
+
+    // Number of frames offered
+    public long getDecodedCount() {
+        return decoded.get();
+    }
+
+    // Number of frames taken
+    public long getDisplayedCount() {
+        return displayed.get();
+    }
+
+    // Number of frames replaced before being taken
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,42 @@
+package madsdf.ardrone.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A decoded picture : an RGB image and its pixel array, which are the same
+ * memory. Frames come from a FramePool and go back to it with release()
+ * once they are no longer displayed.
+ */
+public class VideoFrame {
+    public final int width;
+    public final int height;
+    public final BufferedImage image;
+    // The pixels of image, row by row
+    public final int[] pixels;
+    private final FramePool pool;
+    private int frameIndex;
+
+    VideoFrame(FramePool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public void setFrameIndex(int frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    /**
+     * Give the frame back to its pool. The frame must not be used anymore.
+     */
+    public void release() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,107 @@
+package madsdf.ardrone.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import madsdf.ardrone.utils.AsyncFileWriter;
+
+/**
+ * Records the compressed pictures of the video stream, as received from the
+ * drone, to be seeked and decoded afterwards with VideoRecording.
+ *
+ * The recorder is disabled until start() is called, picture() is then a
+ * cheap no-op. Pictures are copied into the buffers of an AsyncFileWriter,
+ * so the video thread never waits for the disk. The timestamps come from
+ * System.nanoTime(), like those of FlightRecorder.
+ *
+ * File format (little-endian) : the FILE_MAGIC and FILE_VERSION ints
+ * followed by a record per picture :
+ * - int frame index
+ * - int picture length
+ * - long nanoTime
+ * - picture, in the layout read by BufferedVideoImage
+ */
+public class VideoRecorder {
+    public static final int FILE_MAGIC = 0x44565241; // "ARVD"
+    public static final int FILE_VERSION = 1;
+    public static final int RECORD_HEADER_SIZE = 16;
+
+    // A picture is at most a few tens of KB
+    private static final int BUFFER_SIZE = 512 * 1024;
+    private static final int NUM_BUFFERS = 8;
+
+    private static final VideoRecorder instance = new VideoRecorder();
+
+    public static VideoRecorder get() {
+        return instance;
+    }
+
+    private volatile AsyncFileWriter writer = null;
+
+    private VideoRecorder() {}
+
+    /**
+     * Start recording to the given file
+     */
+    public synchronized void start(File file) throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("Video recorder already started");
+        }
+        AsyncFileWriter w = new AsyncFileWriter(file, BUFFER_SIZE, NUM_BUFFERS);
+        synchronized (w) {
+            ByteBuffer b = w.claim(8);
+            b.putInt(FILE_MAGIC);
+            b.putInt(FILE_VERSION);
+        }
+        writer = w;
+        System.out.println("Video recorder : recording to " + file);
+    }
+
+    /**
+     * Stop recording and close the file
+     */
+    public synchronized void stop() throws IOException {
+        final AsyncFileWriter w = writer;
+        if (w != null) {
+            writer = null;
+            w.close();
+            System.out.println("Video recorder : stopped, "
+                    + w.getDroppedCount() + " pictures dropped");
+        }
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * @return the number of pictures dropped because the writer couldn't
+     * keep up, 0 if the recorder is disabled
+     */
+    public long getDroppedCount() {
+        final AsyncFileWriter w = writer;
+        return w == null ? 0 : w.getDroppedCount();
+    }
+
+    /**
+     * Record a picture
+     * @param picture the picture, from 0 to its limit, in the array of the
+     * buffer. Not modified.
+     */
+    public void picture(int frameIndex, ByteBuffer picture) {
+        final AsyncFileWriter w = writer;
+        if (w == null) {
+            return;
+        }
+        final int length = picture.limit();
+        synchronized (w) {
+            ByteBuffer b = w.claim(RECORD_HEADER_SIZE + length);
+            if (b != null) {
+                b.putInt(frameIndex);
+                b.putInt(length);
+                b.putLong(System.nanoTime());
+                b.put(picture.array(), 0, length);
+            }
+        }
+    }
+}
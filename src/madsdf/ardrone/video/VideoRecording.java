@@ -0,0 +1,128 @@
+package madsdf.ardrone.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access reader for the files written by VideoRecorder. The file is
+ * memory-mapped and the record headers are read once to index the
+ * pictures by position and timestamp.
+ *
+ * Pictures are intra coded and decode on their own, except for empty
+ * macro blocks which repeat the previous picture : decode from a few
+ * pictures before for the exact live output.
+ */
+public class VideoRecording {
+    private final ByteBuffer map;
+    // Offset of the picture, frame index and timestamp of each record
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] frameIndices;
+    private final long[] nanoTimes;
+
+    public VideoRecording(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY,
+                                             0, channel.size());
+            map = m.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (map.remaining() < 8 || map.getInt() != VideoRecorder.FILE_MAGIC) {
+            throw new IOException("Not a video recording : " + file);
+        }
+        final int version = map.getInt();
+        if (version != VideoRecorder.FILE_VERSION) {
+            throw new IOException("Unsupported video recording version : " + version);
+        }
+
+        int n = 0;
+        int[] offs = new int[1024];
+        int[] lens = new int[1024];
+        int[] indices = new int[1024];
+        long[] times = new long[1024];
+        int position = map.position();
+        // A truncated last record (the recorder was killed) is ignored
+        while (map.limit() - position >= VideoRecorder.RECORD_HEADER_SIZE) {
+            final int length = map.getInt(position + 4);
+            final int offset = position + VideoRecorder.RECORD_HEADER_SIZE;
+            if (length < 0 || length > map.limit() - offset) {
+                break;
+            }
+            if (n == offs.length) {
+                offs = Arrays.copyOf(offs, 2 * n);
+                lens = Arrays.copyOf(lens, 2 * n);
+                indices = Arrays.copyOf(indices, 2 * n);
+                times = Arrays.copyOf(times, 2 * n);
+            }
+            indices[n] = map.getInt(position);
+            lens[n] = length;
+            times[n] = map.getLong(position + 8);
+            offs[n] = offset;
+            n++;
+            position = offset + length;
+        }
+        offsets = Arrays.copyOf(offs, n);
+        lengths = Arrays.copyOf(lens, n);
+        frameIndices = Arrays.copyOf(indices, n);
+        nanoTimes = Arrays.copyOf(times, n);
+    }
+
+    // Number of pictures
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getFrameIndex(int i) {
+        return frameIndices[i];
+    }
+
+    public long getNanoTime(int i) {
+        return nanoTimes[i];
+    }
+
+    /**
+     * @return the last picture recorded at or before the given time, 0 if
+     * the time is before the first picture
+     */
+    public int seek(long nanoTime) {
+        int i = Arrays.binarySearch(nanoTimes, nanoTime);
+        if (i < 0) {
+            i = -i - 2;
+        } else {
+            // The last of the pictures with this timestamp
+            while (i + 1 < nanoTimes.length && nanoTimes[i + 1] == nanoTime) {
+                i++;
+            }
+        }
+        return Math.max(i, 0);
+    }
+
+    /**
+     * Copy the i-th picture to a buffer the decoder can read
+     * @param reuse a buffer returned by a previous call, or null
+     * @return the picture from 0 to its limit, in reuse if big enough
+     */
+    public ByteBuffer getPicture(int i, ByteBuffer reuse) {
+        final int padded = (lengths[i] + 3) & ~3;
+        ByteBuffer b = reuse;
+        if (b == null || b.capacity() < padded) {
+            b = ByteBuffer.allocate(padded);
+        }
+        b.clear();
+        ByteBuffer src = map.duplicate();
+        src.position(offsets[i]);
+        src.limit(offsets[i] + lengths[i]);
+        b.put(src);
+        while (b.position() < padded) {
+            b.put((byte)0);
+        }
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,61 @@
+package madsdf.ardrone;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import madsdf.shimmer.gui.AccelGyro;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FlightLogReaderTest {
+    /**
+     * Records written by FlightRecorder are read back by FlightLogReader
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("roundTrip");
+        File file = File.createTempFile("flight", ".log");
+        try {
+            FlightRecorder rec = FlightRecorder.get();
+            rec.start(file);
+            byte[] source = FlightRecorder.source("right");
+            rec.navData(new byte[]{1, 2, 3, 4, 5}, 3);
+            rec.sample(source, true, new AccelGyro.CalibratedSample(0,
+                    new float[]{1, 2, 3}, new float[]{4, 5, 6}));
+            rec.decision(source, 42, ActionCommand.GOLEFT, 12.5f,
+                         ActionCommand.NOTHING, 1);
+            rec.stop();
+            assertFalse(rec.isEnabled());
+
+            FlightLogReader reader = new FlightLogReader(file);
+            assertTrue(reader.next());
+            assertEquals(FlightRecorder.TYPE_NAVDATA, reader.getType());
+            ByteBuffer p = reader.getPayload();
+            assertEquals(3, p.remaining());
+            assertEquals(3, p.get(2));
+            final long t0 = reader.getNanoTime();
+
+            assertTrue(reader.next());
+            assertEquals(FlightRecorder.TYPE_SAMPLE, reader.getType());
+            assertTrue(reader.getNanoTime() >= t0);
+            p = reader.getPayload();
+            assertEquals("right", FlightLogReader.readSource(p));
+            AccelGyro.Sample s = FlightLogReader.readSample(p, 0);
+            assertTrue(s instanceof AccelGyro.CalibratedSample);
+            assertArrayEquals(new float[]{1, 2, 3}, s.accel, 0);
+            assertArrayEquals(new float[]{4, 5, 6}, s.gyro, 0);
+
+            assertTrue(reader.next());
+            assertEquals(FlightRecorder.TYPE_DECISION, reader.getType());
+            p = reader.getPayload();
+            assertEquals("right", FlightLogReader.readSource(p));
+            assertEquals(42, p.getFloat(), 0);
+            assertEquals(ActionCommand.GOLEFT.ordinal(), p.getInt());
+            assertEquals(12.5f, p.getFloat(), 0);
+            assertEquals(ActionCommand.NOTHING.ordinal(), p.getInt());
+
+            assertFalse(reader.next());
+        } finally {
+            file.delete();
+        }
+    }
+}
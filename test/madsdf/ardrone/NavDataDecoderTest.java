@@ -0,0 +1,182 @@
+package madsdf.ardrone;
+
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NavDataDecoderTest {
+    private byte[] buf;
+    private ByteBuffer view;
+    private NavDataDecoder decoder;
+    private NavData navData;
+
+    @Before
+    public void setUp() {
+        buf = new byte[4096];
+        view = NavDataDecoder.wrap(buf);
+        decoder = new NavDataDecoder();
+        navData = new NavData();
+    }
+
+    // Write the header and return the offset of the first option
+    private int putHeader(int state, int sequence) {
+        view.putInt(0, NavDataDecoder.NAVDATA_HEADER);
+        view.putInt(4, state);
+        view.putInt(8, sequence);
+        view.putInt(12, 0);
+        return NavDataDecoder.HEADER_SIZE;
+    }
+
+    private int putOptionHeader(int offset, int tag, int size) {
+        view.putShort(offset, (short)tag);
+        view.putShort(offset + 2, (short)size);
+        return offset + NavDataDecoder.OPTION_HEADER_SIZE;
+    }
+
+    // Demo option as sent by the drone (148 bytes)
+    private int putDemo(int offset) {
+        int o = putOptionHeader(offset, NavDataDecoder.NAVDATA_DEMO_TAG, 148);
+        view.putInt(o, 3 << 16);
+        view.putInt(o + 4, 87);
+        view.putFloat(o + 8, 1500f);
+        view.putFloat(o + 12, -2500f);
+        view.putFloat(o + 16, 90000f);
+        view.putInt(o + 20, 1234);
+        view.putFloat(o + 24, 0.5f);
+        view.putFloat(o + 28, -0.25f);
+        view.putFloat(o + 32, 0.125f);
+        view.putInt(o + 36, 42);
+        return offset + 148;
+    }
+
+    private int putChecksum(int offset) {
+        int sum = NavDataDecoder.checksum(view, offset);
+        int o = putOptionHeader(offset, NavDataDecoder.NAVDATA_CKS_TAG, 8);
+        view.putInt(o, sum);
+        return offset + 8;
+    }
+
+    @Test
+    public void testDemo() {
+        int len = putChecksum(putDemo(putHeader(0x0F000801, 12)));
+        assertTrue(decoder.decode(view, len, navData));
+        assertEquals(0x0F000801, navData.state);
+        assertEquals(12, navData.sequence);
+        assertTrue(navData.hasOption(NavDataDecoder.NAVDATA_DEMO_TAG));
+        assertFalse(navData.hasOption(NavDataDecoder.NAVDATA_TIME_TAG));
+        assertEquals(FlyingState.FLYING, FlyingState.fromInt(navData.flyingState()));
+        assertEquals(87, navData.battery);
+        assertEquals(1.5f, navData.pitch, 0);
+        assertEquals(-2.5f, navData.roll, 0);
+        assertEquals(90f, navData.yaw, 0);
+        assertEquals(1234, navData.altitude);
+        assertEquals(0.5f, navData.vx, 0);
+        assertEquals(-0.25f, navData.vy, 0);
+        assertEquals(0.125f, navData.vz, 0);
+        assertEquals(42, navData.numFrames);
+        assertEquals(0, decoder.getErrorCount());
+    }
+
+    @Test
+    public void testAllOptions() {
+        int offset = putDemo(putHeader(0, 1));
+        int o = putOptionHeader(offset, NavDataDecoder.NAVDATA_TIME_TAG, 8);
+        view.putInt(o, 0x12345);
+        offset += 8;
+        o = putOptionHeader(offset, NavDataDecoder.NAVDATA_RAW_MEASURES_TAG, 40);
+        view.putShort(o, (short)2000);
+        view.putShort(o + 2, (short)2010);
+        view.putShort(o + 4, (short)60000);
+        view.putShort(o + 6, (short)-3);
+        view.putShort(o + 8, (short)4);
+        view.putShort(o + 10, (short)5);
+        view.putInt(o + 16, 11900);
+        offset += 40;
+        o = putOptionHeader(offset, NavDataDecoder.NAVDATA_PHYS_MEASURES_TAG, 46);
+        view.putFloat(o, 35.5f);
+        view.putShort(o + 4, (short)400);
+        view.putFloat(o + 6, 1f);
+        view.putFloat(o + 10, 2f);
+        view.putFloat(o + 14, 3f);
+        view.putFloat(o + 18, 4f);
+        view.putFloat(o + 22, 5f);
+        view.putFloat(o + 26, 6f);
+        offset += 46;
+        // Option we don't decode
+        putOptionHeader(offset, NavDataDecoder.NAVDATA_REFERENCES_TAG, 92);
+        offset += 92;
+        o = putOptionHeader(offset, NavDataDecoder.NAVDATA_PWM_TAG, 76);
+        buf[o] = (byte)200;
+        buf[o + 1] = 10;
+        buf[o + 2] = 20;
+        buf[o + 3] = 30;
+        offset += 76;
+        o = putOptionHeader(offset, NavDataDecoder.NAVDATA_ALTITUDE_TAG, 56);
+        view.putInt(o, 800);
+        view.putFloat(o + 4, -1.5f);
+        view.putInt(o + 8, 810);
+        view.putInt(o + 12, 820);
+        offset += 56;
+        o = putOptionHeader(offset, NavDataDecoder.NAVDATA_WATCHDOG_TAG, 8);
+        view.putInt(o, 7);
+        offset += 8;
+        int len = putChecksum(offset);
+
+        assertTrue(decoder.decode(view, len, navData));
+        assertTrue(navData.hasOption(NavDataDecoder.NAVDATA_REFERENCES_TAG));
+        assertFalse(navData.hasOption(NavDataDecoder.NAVDATA_TRIMS_TAG));
+        assertEquals(0x12345, navData.time);
+        assertArrayEquals(new int[]{2000, 2010, 60000}, navData.rawAccs);
+        assertArrayEquals(new int[]{-3, 4, 5}, navData.rawGyros);
+        assertEquals(11900, navData.vbatRaw);
+        assertEquals(35.5f, navData.accsTemp, 0);
+        assertEquals(400, navData.gyroTemp);
+        assertArrayEquals(new float[]{1, 2, 3}, navData.physAccs, 0);
+        assertArrayEquals(new float[]{4, 5, 6}, navData.physGyros, 0);
+        assertArrayEquals(new int[]{200, 10, 20, 30}, navData.motors);
+        assertEquals(800, navData.altitudeVision);
+        assertEquals(-1.5f, navData.altitudeVz, 0);
+        assertEquals(810, navData.altitudeRef);
+        assertEquals(820, navData.altitudeRaw);
+        assertEquals(7, navData.watchdog);
+    }
+
+    @Test
+    public void testBootstrapHeaderOnly() {
+        int len = putHeader(1 << 11, 3);
+        assertTrue(decoder.decode(view, len, navData));
+        assertEquals(0, navData.options);
+        assertFalse(navData.hasOption(NavDataDecoder.NAVDATA_DEMO_TAG));
+    }
+
+    @Test
+    public void testBadChecksum() {
+        int len = putChecksum(putDemo(putHeader(0, 1)));
+        // Corrupt the battery
+        buf[NavDataDecoder.HEADER_SIZE + 8] ^= 1;
+        assertFalse(decoder.decode(view, len, navData));
+        assertEquals(1, decoder.getErrorCount());
+    }
+
+    @Test
+    public void testMalformed() {
+        // Bad header
+        int len = putChecksum(putDemo(putHeader(0, 1)));
+        view.putInt(0, 0x12345678);
+        assertFalse(decoder.decode(view, len, navData));
+
+        // Option bigger than the packet
+        len = putChecksum(putDemo(putHeader(0, 1)));
+        assertFalse(decoder.decode(view, len - 20, navData));
+
+        // Option smaller than its header
+        int offset = putHeader(0, 1);
+        putOptionHeader(offset, NavDataDecoder.NAVDATA_TIME_TAG, 2);
+        assertFalse(decoder.decode(view, offset + 8, navData));
+
+        // Truncated packet
+        assertFalse(decoder.decode(view, 10, navData));
+        assertEquals(4, decoder.getErrorCount());
+    }
+}
@@ -0,0 +1,131 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import java.util.List;
+import java.util.Random;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KNNTest {
+    // Noisy sine of the given frequency on all axes
+    private static float[][] serie(Random rand, float freq, int len) {
+        float[][] s = new float[3][len];
+        for (int a = 0; a < 3; ++a) {
+            for (int i = 0; i < len; ++i) {
+                s[a][i] = (float)(100 * Math.sin(freq * i + a)
+                        + 5 * rand.nextGaussian());
+            }
+        }
+        return s;
+    }
+
+    private static List<GestureTemplate> templates(Random rand) {
+        List<GestureTemplate> templates = Lists.newArrayList();
+        final ActionCommand[] commands = {ActionCommand.GOLEFT,
+            ActionCommand.GORIGHT, ActionCommand.NOTHING};
+        for (int c = 0; c < commands.length; ++c) {
+            for (int i = 0; i < 4; ++i) {
+                float[][] accel = serie(rand, 0.1f * (c + 1), 40);
+                templates.add(new GestureTemplate(commands[c],
+                        new Gesture(c, i, accel, accel)));
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Classifying with a TemplateIndex gives the same result as with the
+     * multimap of templates
+     */
+    @Test
+    public void testClassifyIndex() {
+        System.out.println("classifyIndex");
+        Random rand = new Random(42);
+        List<GestureTemplate> templates = templates(rand);
+        Multimap<ActionCommand, GestureTemplate> byCommand = ArrayListMultimap.create();
+        for (GestureTemplate g : templates) {
+            byCommand.put(g.command, g);
+        }
+        TemplateIndex index = new TemplateIndex(templates);
+        for (int i = 0; i < 5; ++i) {
+            float[][] window = serie(rand, 0.1f * (i % 3 + 1), 40);
+            KNN expected = KNN.classify(3, window, byCommand);
+            KNN knn = KNN.classify(3, window, index);
+            assertEquals(expected.nearest, knn.nearest);
+            assertEquals(expected.votesPerClass, knn.votesPerClass);
+            assertEquals(expected.distsPerClass, knn.distsPerClass);
+        }
+    }
+
+    /**
+     * The excluded template is never a neighbor of itself
+     */
+    @Test
+    public void testLeaveOneOut() {
+        System.out.println("leaveOneOut");
+        TemplateIndex index = new TemplateIndex(templates(new Random(1)));
+        for (int i = 0; i < index.size(); ++i) {
+            KNN self = KNN.classifyFiltered(1, index.getFilteredAccel(i), index, -1);
+            assertEquals(0, self.getNeighborDist(0), 0);
+
+            KNN knn = KNN.classifyFiltered(3, index.getFilteredAccel(i), index, i);
+            assertTrue(knn.getNeighborDist(0) > 0);
+            assertEquals(index.get(i).command, knn.getBestClass());
+        }
+    }
+
+    /**
+     * The coarse-to-fine search gives the exact result when all the
+     * templates are refined, and the refined distances are exact
+     */
+    @Test
+    public void testCoarse() {
+        System.out.println("coarse");
+        Random rand = new Random(7);
+        TemplateIndex index = new TemplateIndex(templates(rand));
+        TemplateIndex all = index.withCoarse(4, index.size());
+        TemplateIndex few = index.withCoarse(4, 5);
+        for (int i = 0; i < 5; ++i) {
+            float[][] window = serie(rand, 0.1f * (i % 3 + 1), 40);
+            KNN expected = KNN.classify(3, window, index);
+            KNN knn = KNN.classify(3, window, all);
+            assertEquals(expected.nearest, knn.nearest);
+            assertEquals(expected.distsPerClass, knn.distsPerClass);
+
+            knn = KNN.classify(3, window, few);
+            assertEquals(5, knn.distsPerClass.size());
+            assertEquals(expected.getBestClass(), knn.getBestClass());
+            assertEquals(expected.getNeighborDist(0), knn.getNeighborDist(0), 0);
+        }
+    }
+
+    /**
+     * The prototypes only classify the windows within their max distance
+     */
+    @Test
+    public void testPrototypeMaxDist() {
+        System.out.println("prototypeMaxDist");
+        Random rand = new Random(44);
+        TemplateIndex index = new TemplateIndex(templates(rand));
+        GesturePipeline pipeline = new GesturePipeline(index, 40,
+                new HistoricalGestureDetector(), 3);
+        float[][] window = serie(rand, 0.1f, 40);
+        final float nearest = KNN.classifyPrototypes(3, index.filter(window),
+                                                     index).getNeighborDist(0);
+        assertTrue(nearest > 0);
+
+        // The templates as prototypes
+        pipeline.setPrototypes(index, 0, nearest);
+        pipeline.matchWindow(window);
+        assertEquals(1, pipeline.getPrototypeWindowCount());
+        pipeline.setPrototypes(index, 0, nearest / 2);
+        pipeline.matchWindow(window);
+        assertEquals(1, pipeline.getPrototypeWindowCount());
+        assertEquals(2, pipeline.getWindowCount());
+    }
+}
@@ -0,0 +1,154 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Random;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DTW;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SlidingWindowTest {
+    // Noisy sines of various frequencies
+    private static float[][] serie(Random rand, int len) {
+        final float freq = 0.05f + 0.2f * rand.nextFloat();
+        float[][] s = new float[3][len];
+        for (int a = 0; a < 3; ++a) {
+            for (int i = 0; i < len; ++i) {
+                s[a][i] = (float)(100 * Math.sin(freq * i + a)
+                        + 20 * rand.nextGaussian());
+            }
+        }
+        return s;
+    }
+
+    private static TemplateIndex index(Random rand) {
+        List<GestureTemplate> templates = Lists.newArrayList();
+        final ActionCommand[] commands = {ActionCommand.GOLEFT,
+            ActionCommand.GORIGHT, ActionCommand.NOTHING};
+        for (int i = 0; i < 12; ++i) {
+            float[][] accel = serie(rand, 30 + rand.nextInt(20));
+            templates.add(new GestureTemplate(commands[i % 3],
+                    new Gesture(i % 3, i, accel, accel)));
+        }
+        return new TemplateIndex(templates, 5);
+    }
+
+    private static float[][] window(float[][] stream, int start, int size) {
+        float[][] w = new float[3][size];
+        for (int a = 0; a < 3; ++a) {
+            System.arraycopy(stream[a], start, w[a], 0, size);
+        }
+        return w;
+    }
+
+    /**
+     * The incrementally updated window gives the same filtered values as
+     * filtering each window, valid bounds and the same neighbors as
+     * classifyFiltered
+     */
+    @Test
+    public void testSlide() {
+        System.out.println("slide");
+        Random rand = new Random(5);
+        TemplateIndex index = index(rand);
+        float[][] stream = serie(rand, 1000);
+        SlidingWindow sw = new SlidingWindow();
+        final int size = 40;
+        final int step = 7;
+        for (int start = 0; start + size <= stream[0].length; start += step) {
+            float[][] w = window(stream, start, size);
+            sw.update(w, step, index);
+            float[][] expected = index.filter(w);
+            for (int a = 0; a < 3; ++a) {
+                assertArrayEquals(expected[a], sw.getFiltered()[a], 0.0f);
+            }
+            for (int t = 0; t < index.size(); ++t) {
+                final float dist = DTW.allAxisDTW(expected, index.getFilteredAccel(t));
+                assertTrue(sw.windowBound(t) <= dist * 1.0001f);
+                assertTrue(sw.templateBound(t) <= dist * 1.0001f);
+            }
+            KNN full = KNN.classifyFiltered(3, expected, index, -1);
+            KNN pruned = KNN.classifyPruned(3, sw);
+            assertEquals(full.nearest, pruned.nearest);
+            assertEquals(full.votesPerClass, pruned.votesPerClass);
+        }
+    }
+
+    /**
+     * Bounds after sliding are the same as for a fresh window, and a window
+     * not overlapping the previous one is computed from scratch
+     */
+    @Test
+    public void testReset() {
+        System.out.println("reset");
+        Random rand = new Random(6);
+        TemplateIndex index = index(rand);
+        float[][] stream = serie(rand, 200);
+        SlidingWindow slid = new SlidingWindow();
+        slid.update(window(stream, 0, 50), 0, index);
+        slid.update(window(stream, 10, 50), 10, index);
+        // Claimed shift does not match the samples
+        slid.update(window(stream, 100, 50), 10, index);
+        SlidingWindow fresh = new SlidingWindow();
+        fresh.update(window(stream, 100, 50), 0, index);
+        for (int a = 0; a < 3; ++a) {
+            assertArrayEquals(fresh.getFiltered()[a], slid.getFiltered()[a], 0.0f);
+        }
+        for (int t = 0; t < index.size(); ++t) {
+            assertEquals(fresh.windowBound(t), slid.windowBound(t), 1e-3f);
+        }
+    }
+
+    /**
+     * With classMinDist, the pruned search still compares the nearest
+     * template of each class
+     */
+    @Test
+    public void testClassMinDist() {
+        System.out.println("classMinDist");
+        Random rand = new Random(7);
+        // Classes of sines of different amplitudes, so the bounds prune
+        List<GestureTemplate> templates = Lists.newArrayList();
+        final ActionCommand[] commands = {ActionCommand.GOLEFT,
+            ActionCommand.GORIGHT, ActionCommand.NOTHING};
+        for (int i = 0; i < 30; ++i) {
+            float[][] accel = new float[3][40];
+            for (int a = 0; a < 3; ++a) {
+                for (int j = 0; j < 40; ++j) {
+                    accel[a][j] = (float)(50 * (1 + i % 3) * Math.sin(0.2 * j + a)
+                            + 5 * rand.nextGaussian());
+                }
+            }
+            templates.add(new GestureTemplate(commands[i % 3],
+                    new Gesture(i % 3, i, accel, accel)));
+        }
+        TemplateIndex index = new TemplateIndex(templates, 5);
+        float[][] stream = new float[3][300];
+        for (int a = 0; a < 3; ++a) {
+            for (int j = 0; j < 300; ++j) {
+                stream[a][j] = (float)(50 * Math.sin(0.2 * j + a)
+                        + 5 * rand.nextGaussian());
+            }
+        }
+        SlidingWindow sw = new SlidingWindow();
+        final int size = 40;
+        final int step = 7;
+        int skipped = 0;
+        for (int start = 0; start + size <= stream[0].length; start += step) {
+            sw.update(window(stream, start, size), step, index);
+            KNN full = KNN.classifyFiltered(1, sw.getFiltered(), index, -1);
+            KNN knn = KNN.classifyPruned(1, sw, true);
+            assertEquals(full.nearest, knn.nearest);
+            assertEquals(full.getClassMinDist(), knn.getClassMinDist());
+            // Without it, the farthest classes are skipped
+            KNN pruned = KNN.classifyPruned(1, sw);
+            assertEquals(full.nearest, pruned.nearest);
+            skipped += full.getClassMinDist().size()
+                    - pruned.getClassMinDist().size();
+        }
+        assertTrue(skipped > 0);
+    }
+}
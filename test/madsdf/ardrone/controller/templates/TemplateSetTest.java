@@ -0,0 +1,53 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TemplateSetTest {
+    /**
+     * The gestures of the files read in parallel are in the order of the
+     * files
+     */
+    @Test
+    public void testReadMovementFiles() throws Exception {
+        System.out.println("readMovementFiles");
+        File dir = Files.createTempDir();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<File> files = Lists.newArrayList();
+            for (int i = 0; i < 20; ++i) {
+                File f = new File(dir, "ABCD_movement_" + i + "_1.txt");
+                StringBuilder sb = new StringBuilder();
+                sb.append("COMMAND ").append(i).append(" SAMPLE 1\n");
+                for (String axis : new String[]{"Accel X", "Accel Y", "Accel Z",
+                                                "Gyro X", "Gyro Y", "Gyro Z"}) {
+                    sb.append(axis).append(" : ").append(i).append(";1;2\n");
+                }
+                Files.write(sb, f, Charsets.UTF_8);
+                files.add(f);
+            }
+            List<List<Gesture>> gestures = TemplateSet.readMovementFiles(
+                    files, false, executor);
+            assertEquals(files.size(), gestures.size());
+            for (int i = 0; i < files.size(); ++i) {
+                assertEquals(1, gestures.get(i).size());
+                assertEquals(i, gestures.get(i).get(0).command);
+                assertEquals(i, gestures.get(i).get(0).gyro[2][0], 0);
+            }
+        } finally {
+            executor.shutdown();
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
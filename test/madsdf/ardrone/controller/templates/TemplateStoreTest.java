@@ -0,0 +1,131 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import madsdf.ardrone.ActionCommand;
+import madsdf.ardrone.controller.templates.KNNGestureController.GestureTemplate;
+import madsdf.ardrone.utils.DataFileReader.Gesture;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TemplateStoreTest {
+    private static TemplateSet set() {
+        List<GestureTemplate> templates = Lists.newArrayList();
+        for (int i = 0; i < 4; ++i) {
+            float[][] accel = new float[3][20 + i];
+            float[][] gyro = new float[3][20 + i];
+            for (int a = 0; a < 3; ++a) {
+                for (int j = 0; j < accel[a].length; ++j) {
+                    // Integers for even templates (stored as int16)
+                    accel[a][j] = i % 2 == 0 ? 2000 + j * a : 0.5f * j - a;
+                    gyro[a][j] = -j;
+                }
+            }
+            final int command = 1 + i % 2;
+            templates.add(new GestureTemplate(command == 1
+                    ? ActionCommand.GOLEFT : ActionCommand.GORIGHT,
+                    new Gesture(command, i, accel, gyro)));
+        }
+        return new TemplateSet(new File("data/test"), false,
+                ImmutableMap.of(1, ActionCommand.GOLEFT, 2, ActionCommand.GORIGHT),
+                15, HistoricalGestureDetector.class.getName(),
+                new TemplateIndex(templates, 3));
+    }
+
+    /**
+     * A set read from a store is the written set
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("roundTrip");
+        File file = File.createTempFile("templates", ".bin");
+        try {
+            TemplateSet set = set();
+            TemplateStore.write(set, 3, file);
+            TemplateSet read = TemplateStore.read(file);
+            assertEquals(set.calibrated, read.calibrated);
+            assertEquals(set.windowSize, read.windowSize);
+            assertEquals(set.detectorName, read.detectorName);
+            assertEquals(set.movementsMap, read.movementsMap);
+            assertEquals(set.directory, read.directory);
+
+            TemplateIndex index = set.getIndex();
+            TemplateIndex readIndex = read.getIndex();
+            assertEquals(3, readIndex.medianWidth);
+            assertEquals(index.size(), readIndex.size());
+            for (int i = 0; i < index.size(); ++i) {
+                assertEquals(index.get(i).command, readIndex.get(i).command);
+                assertEquals(index.get(i).gesture, readIndex.get(i).gesture);
+                for (int a = 0; a < 3; ++a) {
+                    assertArrayEquals(index.getFilteredAccel(i)[a],
+                                      readIndex.getFilteredAccel(i)[a], 0);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A corrupted store is rejected
+     */
+    @Test
+    public void testBadChecksum() throws Exception {
+        System.out.println("badChecksum");
+        File file = File.createTempFile("templates", ".bin");
+        try {
+            TemplateStore.write(set(), 3, file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length() - 1);
+                final int last = raf.read();
+                raf.seek(raf.length() - 1);
+                raf.write(last ^ 1);
+            }
+            try {
+                TemplateStore.read(file);
+                fail("Corrupted store read");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage().contains("checksum"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A store older than the files it was compiled from is detected
+     */
+    @Test
+    public void testOlder() throws Exception {
+        System.out.println("older");
+        File dir = File.createTempFile("templates", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File store = new File(dir, "templates.bin");
+        File desc = new File(dir, "desc.txt");
+        File movement = new File(dir, "A_movement_1_1.txt");
+        try {
+            assertTrue(store.createNewFile() && desc.createNewFile()
+                       && movement.createNewFile());
+            final long now = System.currentTimeMillis() / 1000 * 1000;
+            assertTrue(desc.setLastModified(now - 20000));
+            assertTrue(movement.setLastModified(now - 10000));
+            assertTrue(store.setLastModified(now));
+            assertFalse(TemplateSet.isOlder(store, dir, "desc.txt"));
+
+            assertTrue(movement.setLastModified(now + 10000));
+            assertTrue(TemplateSet.isOlder(store, dir, "desc.txt"));
+            assertTrue(movement.setLastModified(now - 10000));
+            assertTrue(desc.setLastModified(now + 10000));
+            assertTrue(TemplateSet.isOlder(store, dir, "desc.txt"));
+        } finally {
+            store.delete();
+            desc.delete();
+            movement.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package madsdf.ardrone.controller.templates;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import madsdf.ardrone.ActionCommand;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TemplateWatcherTest {
+    private static void writeMovement(File f, int command, int value)
+            throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("COMMAND ").append(command).append(" SAMPLE 1\n");
+        for (String axis : new String[]{"Accel X", "Accel Y", "Accel Z",
+                                        "Gyro X", "Gyro Y", "Gyro Z"}) {
+            sb.append(axis).append(" : ").append(value).append(";1;2\n");
+        }
+        Files.write(sb, f, Charsets.UTF_8);
+    }
+
+    /**
+     * Only the changed files are read again
+     */
+    @Test
+    public void testRebuild() throws Exception {
+        System.out.println("rebuild");
+        File dir = Files.createTempDir();
+        try {
+            File a = new File(dir, "ABCD_movement_1_1.txt");
+            File b = new File(dir, "ABCD_movement_2_1.txt");
+            writeMovement(a, 1, 10);
+            writeMovement(b, 2, 20);
+            TemplateSet set = new TemplateSet(dir, false,
+                    ImmutableMap.of(1, ActionCommand.GOLEFT, 2, ActionCommand.GORIGHT),
+                    3, HistoricalGestureDetector.class.getName());
+            TemplateWatcher watcher = new TemplateWatcher(set, 2, null);
+
+            TemplateIndex index = watcher.rebuild();
+            assertEquals(2, index.size());
+            assertEquals(ActionCommand.GOLEFT, index.get(0).command);
+            assertNull(watcher.rebuild());
+
+            writeMovement(b, 2, 30);
+            b.setLastModified(b.lastModified() + 2000);
+            TemplateIndex index2 = watcher.rebuild();
+            assertEquals(2, index2.size());
+            // The unchanged file is not read again
+            assertSame(index.get(0), index2.get(0));
+            assertSame(index.getFilteredAccel(0), index2.getFilteredAccel(0));
+            assertEquals(30, index2.get(1).gesture.accel[0][0], 0);
+
+            a.delete();
+            TemplateIndex index3 = watcher.rebuild();
+            assertEquals(1, index3.size());
+            assertEquals(ActionCommand.GORIGHT, index3.get(0).command);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * The watcher starts from the templates loaded by the set : the files
+     * changed since are read, the others are not
+     */
+    @Test
+    public void testSeed() throws Exception {
+        System.out.println("seed");
+        File dir = Files.createTempDir();
+        try {
+            File a = new File(dir, "ABCD_movement_1_1.txt");
+            File b = new File(dir, "ABCD_movement_2_1.txt");
+            writeMovement(a, 1, 10);
+            writeMovement(b, 2, 20);
+            TemplateSet set = new TemplateSet(dir, false,
+                    ImmutableMap.of(1, ActionCommand.GOLEFT, 2, ActionCommand.GORIGHT),
+                    3, HistoricalGestureDetector.class.getName());
+            TemplateIndex index = set.getIndex();
+
+            TemplateWatcher watcher = new TemplateWatcher(set, index.medianWidth, null);
+            assertTrue(watcher.seed(index));
+            assertNull(watcher.rebuild());
+
+            // Changed after the set was loaded, before the watcher started
+            watcher = new TemplateWatcher(set, index.medianWidth, null);
+            writeMovement(b, 2, 30);
+            b.setLastModified(b.lastModified() + 2000);
+            assertTrue(watcher.seed(index));
+            TemplateIndex index2 = watcher.rebuild();
+            assertEquals(2, index2.size());
+            assertSame(index.get(0), index2.get(0));
+            assertSame(index.getFilteredAccel(0), index2.getFilteredAccel(0));
+            assertEquals(30, index2.get(1).gesture.accel[0][0], 0);
+
+            // Not read from the files
+            watcher = new TemplateWatcher(set.withIndex(index), index.medianWidth, null);
+            assertFalse(watcher.seed(index));
+            assertFalse(new TemplateWatcher(set, index.medianWidth + 2, null).seed(index));
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * The templates of a TemplateStore are not replaced by those of the
+     * movement files
+     */
+    @Test
+    public void testStoreNotWatched() throws Exception {
+        System.out.println("storeNotWatched");
+        File dir = Files.createTempDir();
+        File store = File.createTempFile("templates", ".bin");
+        try {
+            File a = new File(dir, "ABCD_movement_1_1.txt");
+            writeMovement(a, 1, 10);
+            TemplateSet set = new TemplateSet(dir, false,
+                    ImmutableMap.of(1, ActionCommand.GOLEFT),
+                    3, HistoricalGestureDetector.class.getName());
+            TemplateStore.write(set, set.getIndex().medianWidth, store);
+            TemplateSet stored = TemplateStore.read(store);
+            assertNull(stored.getFileStamps());
+
+            final AtomicInteger reloads = new AtomicInteger();
+            TemplateWatcher watcher = new TemplateWatcher(stored,
+                    stored.getIndex().medianWidth, new TemplateWatcher.Listener() {
+                @Override
+                public void templatesReloaded(TemplateIndex index) {
+                    reloads.incrementAndGet();
+                }
+            });
+            assertFalse(watcher.start());
+            writeMovement(a, 1, 20);
+            a.setLastModified(a.lastModified() + 2000);
+            Thread.sleep(2 * TemplateWatcher.SETTLE_MS);
+            watcher.stop();
+            assertEquals(0, reloads.get());
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+            store.delete();
+        }
+    }
+}
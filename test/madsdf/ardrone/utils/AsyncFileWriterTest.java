@@ -0,0 +1,96 @@
+package madsdf.ardrone.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AsyncFileWriterTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("asyncwriter", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static boolean writeInts(AsyncFileWriter writer, int first, int n) {
+        synchronized (writer) {
+            ByteBuffer b = writer.claim(4 * n);
+            if (b == null) {
+                return false;
+            }
+            for (int i = 0; i < n; ++i) {
+                b.putInt(first + i);
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void testWriteAll() throws IOException {
+        System.out.println("writeAll");
+        AsyncFileWriter writer = new AsyncFileWriter(file, 64, 64);
+        // Records of 3 ints never span two buffers
+        for (int i = 0; i < 300; i += 3) {
+            assertTrue(writeInts(writer, i, 3));
+        }
+        writer.close();
+        assertEquals(0, writer.getDroppedCount());
+
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(300 * 4, b.remaining());
+        for (int i = 0; i < 300; ++i) {
+            assertEquals(i, b.getInt());
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() throws IOException {
+        System.out.println("dropWhenFull");
+        AsyncFileWriter writer = new AsyncFileWriter(file, 16, 2);
+        // Too big for a buffer
+        assertFalse(writeInts(writer, 0, 5));
+        int accepted = 0;
+        for (int i = 0; i < 10000; ++i) {
+            if (writeInts(writer, i, 4)) {
+                accepted++;
+            }
+        }
+        writer.close();
+        assertFalse(writeInts(writer, 0, 1));
+        assertEquals(10000 + 2 - accepted, writer.getDroppedCount());
+        assertEquals(accepted * 16, file.length());
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        System.out.println("writeFailure");
+        // Writes to a closed channel fail
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        channel.close();
+        AsyncFileWriter writer = new AsyncFileWriter(channel, "test", 16, 2);
+        assertTrue(writeInts(writer, 0, 4));
+        assertTrue(writeInts(writer, 4, 4));
+        try {
+            writer.close();
+            fail("close() should report the failed write");
+        } catch (IOException ex) {
+            assertNotNull(ex.getCause());
+        }
+        assertFalse(channel.isOpen());
+        assertFalse(writeInts(writer, 8, 1));
+    }
+}
@@ -0,0 +1,62 @@
+package madsdf.ardrone.utils;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DBATest {
+    /**
+     * The warping path goes from the start to the end of both series and
+     * its cost is the DTW distance
+     */
+    @Test
+    public void testWarpingPath() {
+        System.out.println("warpingPath");
+        float[] s1 = {0, 1, 2, 3, 2, 0};
+        float[] s2 = {0, 0, 1, 3, 3, 2, 1, 0};
+        int[][] path = DTW.warpingPath(s1, s2);
+        assertEquals(0, path[0][0]);
+        assertEquals(0, path[1][0]);
+        assertEquals(s1.length - 1, path[0][path[0].length - 1]);
+        assertEquals(s2.length - 1, path[1][path[1].length - 1]);
+        float cost = 0;
+        for (int k = 0; k < path[0].length; ++k) {
+            if (k > 0) {
+                assertTrue(path[0][k] - path[0][k - 1] <= 1);
+                assertTrue(path[1][k] - path[1][k - 1] <= 1);
+            }
+            cost += Math.abs(s1[path[0][k]] - s2[path[1][k]]);
+        }
+        assertEquals(DTW.dtwDistance(s1, s2), cost, 1e-5);
+    }
+
+    /**
+     * The average of shifted copies of a bump is a bump closer to all of
+     * them than the initial series
+     */
+    @Test
+    public void testAverage() {
+        System.out.println("average");
+        List<float[]> series = Lists.newArrayList();
+        for (int shift = 0; shift < 4; ++shift) {
+            float[] s = new float[20];
+            for (int i = 0; i < 5; ++i) {
+                s[5 + shift + i] = 10;
+            }
+            series.add(s);
+        }
+        final float[] init = series.get(0);
+        final float[] avg = DBA.average(init, series, 10);
+        assertEquals(init.length, avg.length);
+        float before = 0;
+        float after = 0;
+        for (float[] s : series) {
+            before += DTW.dtwDistance(init, s);
+            after += DTW.dtwDistance(avg, s);
+        }
+        assertTrue(after <= before);
+        // Same series : the average is the series
+        assertArrayEquals(init, DBA.average(init, Lists.newArrayList(init, init), 5), 0);
+    }
+}
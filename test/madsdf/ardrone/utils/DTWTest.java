@@ -100,4 +100,42 @@ public class DTWTest {
         float result = DTW.allAxisDTW(serie1, serie2);
         assertEquals(expResult, result, 0.0);
     }
+    
+    @Test
+    public void testDtwDistanceBand() {
+        System.out.println("dtwDistanceBand");
+        java.util.Random rand = new java.util.Random(3);
+        for (int t = 0; t < 20; ++t) {
+            float[] serie1 = new float[20 + rand.nextInt(40)];
+            float[] serie2 = new float[20 + rand.nextInt(40)];
+            for (int i = 0; i < serie1.length; ++i) {
+                serie1[i] = rand.nextInt(1000);
+            }
+            for (int i = 0; i < serie2.length; ++i) {
+                serie2[i] = rand.nextInt(1000);
+            }
+            final float full = DTW.dtwDistance(serie1, serie2);
+            // A band covering the whole matrix gives the unconstrained distance
+            assertEquals(full, DTW.dtwDistance(serie1, serie2, 100), 0.0);
+            // A narrower band can only give a longer path
+            assertTrue(DTW.dtwDistance(serie1, serie2, 3) >= full);
+            assertTrue(DTW.dtwCells(serie1.length, serie2.length, 3)
+                    < DTW.dtwCells(serie1.length, serie2.length, -1));
+        }
+        // With a band of 0, series of the same length are compared point by
+        // point
+        float[] serie1 = {0, 1, 2, 3};
+        float[] serie2 = {1, 1, 4, 0};
+        assertEquals(1 + 0 + 2 + 3, DTW.dtwDistance(serie1, serie2, 0), 0.0);
+    }
+    
+    @Test
+    public void testPaa() {
+        System.out.println("paa");
+        float[] serie = {1, 3, 2, 4, 6, 6, 9};
+        assertArrayEquals(new float[]{2, 3, 6, 9}, DTW.paa(serie, 2), 0.0f);
+        assertArrayEquals(new float[]{2, 16f / 3, 9}, DTW.paa(serie, 3), 1e-6f);
+        assertArrayEquals(serie, DTW.paa(serie, 1), 0.0f);
+        assertArrayEquals(new float[]{31f / 7}, DTW.paa(serie, 10), 1e-6f);
+    }
 }
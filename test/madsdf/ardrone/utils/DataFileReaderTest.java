@@ -59,4 +59,85 @@ public class DataFileReaderTest {
         List result = instance.readAll();
         assertEquals(expResult, result);
     }
+    
+    /**
+     * The values are parsed as Float.parseFloat does, with any line
+     * terminator
+     */
+    @Test
+    public void testReadValues() throws Exception {
+        System.out.println("readValues");
+        final String[] values = {"0", "-0", "+12", "-4095", "16777217",
+            "123456789012345678", "1234567890123456789012", "-0.54268770529442223",
+            "2400.00000000000", "1.000000059604644775390625", "1e3", "2.5E-2",
+            " 7 ", "0.1f"};
+        StringBuilder sb = new StringBuilder("COMMAND 1 SAMPLE 2\r\n");
+        for (String axis : new String[]{"Accel X : ", "Accel Y : ", "Accel Z : ",
+                                        "Gyro X : ", "Gyro Y : ", "Gyro Z : "}) {
+            sb.append(axis);
+            for (String v : values) {
+                sb.append(v).append(';');
+            }
+            sb.append("\r\n");
+        }
+        DataFileReader instance = new DataFileReader(new StringReader(sb.toString()));
+        List<DataFileReader.Gesture> result = instance.readAll();
+        assertEquals(1, result.size());
+        final DataFileReader.Gesture g = result.get(0);
+        for (int i = 0; i < values.length; ++i) {
+            final float expected = Float.parseFloat(values[i]);
+            assertEquals(Float.floatToIntBits(expected),
+                         Float.floatToIntBits(g.accel[0][i]));
+            assertEquals(Float.floatToIntBits(expected),
+                         Float.floatToIntBits(g.gyro[2][i]));
+        }
+    }
+    
+    /**
+     * The lines of long gestures are read entirely
+     */
+    @Test
+    public void testReadLongLines() throws Exception {
+        System.out.println("readLongLines");
+        final int n = 10000;
+        StringBuilder sb = new StringBuilder("COMMAND 1 SAMPLE 2\n");
+        for (String axis : new String[]{"Accel X : ", "Accel Y : ", "Accel Z : ",
+                                        "Gyro X : ", "Gyro Y : ", "Gyro Z : "}) {
+            sb.append(axis);
+            for (int i = 0; i < n; ++i) {
+                sb.append(i).append(i < n - 1 ? ";" : "");
+            }
+            sb.append("\n");
+        }
+        DataFileReader instance = new DataFileReader(new StringReader(sb.toString()));
+        final DataFileReader.Gesture g = instance.readAll().get(0);
+        assertEquals(n, g.accel[1].length);
+        assertEquals(n - 1, g.gyro[0][n - 1], 0);
+    }
+    
+    @Test
+    public void testReadErrors() throws Exception {
+        System.out.println("readErrors");
+        try {
+            new DataFileReader(new StringReader(
+                    "COMMAND 1 SAMPLE 2\nAccel Y : 1;2\n")).readAll();
+            fail("Wrong prefix accepted");
+        } catch (RuntimeException ex) {
+            assertEquals("Expected prefix : Accel X :  in line : Accel Y : 1;2",
+                         ex.getMessage());
+        }
+        try {
+            new DataFileReader(new StringReader(
+                    "COMMAND 1 SAMPLE 2\nAccel X : 1;;2\n")).readAll();
+            fail("Empty value accepted");
+        } catch (NumberFormatException ex) {
+        }
+        try {
+            new DataFileReader(new StringReader(
+                    "COMMAND 1 SAMPLE 2\nAccel X : 1;2\n")).readAll();
+            fail("Missing line accepted");
+        } catch (RuntimeException ex) {
+            assertEquals("No more lines to read", ex.getMessage());
+        }
+    }
 }
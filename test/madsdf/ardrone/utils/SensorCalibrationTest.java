@@ -0,0 +1,47 @@
+package madsdf.ardrone.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SensorCalibrationTest {
+    /**
+     * The batch and per-sample calibrations give the same values
+     */
+    @Test
+    public void testCalibrate() throws Exception {
+        System.out.println("calibrate");
+        SensorCalibration calib = new SensorCalibration(
+                new double[]{2000, 2100, 2200}, new double[]{900, 950, 1000},
+                new double[]{1843, 1843, 1843}, new double[]{156, 156, 156});
+        float[][] raw = {{2000, 2900, 1100}, {2100, 3050, 1150}, {2200, 3200, 1200}};
+        float[][] accel = calib.calibrateAccel(raw);
+        assertEquals(0, accel[0][0], 0);
+        assertEquals(9.81f, accel[0][1], 1e-5);
+        assertEquals(-9.81f, accel[2][2], 1e-5);
+
+        float[][] gyro = calib.calibrateGyro(raw);
+        assertEquals((2000 - 1843) / 156.0, gyro[0][0], 1e-5);
+
+        for (int i = 0; i < 3; ++i) {
+            final float[] sample = {raw[0][i], raw[1][i], raw[2][i]};
+            final float[] out = new float[3];
+            calib.calibrateAccel(sample, out);
+            assertArrayEquals(new float[]{accel[0][i], accel[1][i], accel[2][i]},
+                              out, 0);
+            // In place
+            calib.calibrateGyro(sample, sample);
+            assertArrayEquals(new float[]{gyro[0][i], gyro[1][i], gyro[2][i]},
+                              sample, 0);
+        }
+    }
+
+    /**
+     * The calibration of a sensor is read once
+     */
+    @Test
+    public void testGet() throws Exception {
+        System.out.println("get");
+        SensorCalibration calib = SensorCalibration.get("BDCD");
+        assertSame(calib, SensorCalibration.get("BDCD"));
+    }
+}
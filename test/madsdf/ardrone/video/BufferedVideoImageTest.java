@@ -0,0 +1,261 @@
+package madsdf.ardrone.video;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BufferedVideoImageTest {
+    // CRC32 of the pixels of 5 random pictures (seed 1) decoded by the
+    // original decoder, for CIF and QVGA at resolutions 1 and 2
+    private static final long[][] GOLDEN = {
+        {0xB5690DDCL, 0x898984B6L},
+        {0x54657C75L, 0xAF4DCB18L},
+    };
+    // CRC32 of the pixels of the VideoCorpus sequences decoded by the
+    // original decoder, for CIF and QVGA at resolution 2
+    private static final long[] CORPUS_GOLDEN = {0x6869CEEAL, 0xDA43AB11L};
+    private static final int CORPUS_FRAMES = 3;
+
+    private static void update(CRC32 crc, int[] pixels) {
+        for (int p : pixels) {
+            crc.update(p);
+            crc.update(p >> 8);
+            crc.update(p >> 16);
+        }
+    }
+
+    private static long decodeCrc(BufferedVideoImage decoder, int format,
+                                  int resolution) {
+        Random rand = new Random(1);
+        CRC32 crc = new CRC32();
+        for (int f = 0; f < 5; ++f) {
+            decoder.addImageStream(UvlcWriter.randomPicture(rand, format,
+                                                            resolution, f));
+            assertEquals(UvlcWriter.width(format, resolution), decoder.getWidth());
+            assertEquals(UvlcWriter.height(format, resolution), decoder.getHeight());
+            assertEquals(f, decoder.getFrameIndex());
+            update(crc, decoder.getJavaPixelData());
+        }
+        return crc.getValue();
+    }
+
+    private static long corpusCrc(BufferedVideoImage decoder, int format) {
+        CRC32 crc = new CRC32();
+        for (int kind = 0; kind < VideoCorpus.KINDS; ++kind) {
+            for (int f = 0; f < CORPUS_FRAMES; ++f) {
+                decoder.addImageStream(VideoCorpus.picture(kind, format, 2, f));
+                assertTrue(decoder.isPictureComplete());
+                update(crc, decoder.getJavaPixelData());
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The decoded pixels are the same as with the original decoder
+     */
+    @Test
+    public void testGolden() {
+        System.out.println("golden");
+        for (int format = 1; format <= 2; ++format) {
+            for (int resolution = 1; resolution <= 2; ++resolution) {
+                assertEquals(GOLDEN[format - 1][resolution - 1],
+                             decodeCrc(new BufferedVideoImage(), format, resolution));
+            }
+        }
+    }
+
+    /**
+     * With a frame pool, the pictures are decoded in pooled frames which
+     * are handed over once
+     */
+    @Test
+    public void testFramePool() {
+        System.out.println("framePool");
+        Random rand = new Random(1);
+        BufferedVideoImage decoder = new BufferedVideoImage();
+        FramePool pool = new FramePool(2);
+        decoder.setFramePool(pool);
+        CRC32 crc = new CRC32();
+        VideoFrame previous = null;
+        for (int f = 0; f < 5; ++f) {
+            decoder.addImageStream(UvlcWriter.randomPicture(rand,
+                    UvlcWriter.QVGA, 1, f));
+            VideoFrame frame = decoder.takeFrame();
+            assertNotNull(frame);
+            assertNull(decoder.takeFrame());
+            assertEquals(160, frame.width);
+            assertEquals(120, frame.height);
+            assertEquals(f, frame.getFrameIndex());
+            update(crc, frame.pixels);
+            if (previous != null) {
+                previous.release();
+            }
+            previous = frame;
+        }
+        assertEquals(GOLDEN[1][0], crc.getValue());
+        // One frame displayed while the next one is decoded
+        assertEquals(2, pool.getAllocatedCount());
+    }
+
+    /**
+     * Decoding the slices in parallel gives the same pixels
+     */
+    @Test
+    public void testParallel() {
+        System.out.println("parallel");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int format = 1; format <= 2; ++format) {
+                for (int resolution = 1; resolution <= 2; ++resolution) {
+                    BufferedVideoImage decoder = new BufferedVideoImage();
+                    decoder.setExecutor(executor);
+                    assertEquals(GOLDEN[format - 1][resolution - 1],
+                                 decodeCrc(decoder, format, resolution));
+                    assertEquals(0, decoder.getSequentialFallbacks());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Slices which can't be located are decoded sequentially
+     */
+    @Test
+    public void testParallelFallback() {
+        System.out.println("parallelFallback");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BufferedVideoImage parallel = new BufferedVideoImage();
+            parallel.setExecutor(executor);
+            BufferedVideoImage sequential = new BufferedVideoImage();
+            // The decoder doesn't check the slice numbers
+            int[] sliceNumbers = {0, 1, 3, 2, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14};
+            for (int f = 0; f < 3; ++f) {
+                final long seed = f;
+                parallel.addImageStream(UvlcWriter.randomPicture(new Random(seed),
+                        UvlcWriter.QVGA, 2, f, sliceNumbers));
+                sequential.addImageStream(UvlcWriter.randomPicture(new Random(seed),
+                        UvlcWriter.QVGA, 2, f, sliceNumbers));
+                assertArrayEquals(sequential.getJavaPixelData(),
+                                  parallel.getJavaPixelData());
+            }
+            assertEquals(3, parallel.getSequentialFallbacks());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The pictures encoded by UvlcWriter decode close to the source. The
+     * decoder maps the 8 bits components to 5/6/5 bits at half brightness.
+     */
+    @Test
+    public void testEncoder() {
+        System.out.println("encoder");
+        for (int format = 1; format <= 2; ++format) {
+            final int w = UvlcWriter.width(format, 2);
+            final int h = UvlcWriter.height(format, 2);
+            for (int kind = 0; kind < VideoCorpus.KINDS; ++kind) {
+                BufferedVideoImage decoder = new BufferedVideoImage();
+                decoder.addImageStream(VideoCorpus.picture(kind, format, 2, 0));
+                assertTrue(decoder.isPictureComplete());
+                assertEquals(w, decoder.getWidth());
+                assertEquals(h, decoder.getHeight());
+                final int[] source = VideoCorpus.image(kind, w, h, 0);
+                final int[] pixels = decoder.getJavaPixelData();
+                double error = 0;
+                for (int i = 0; i < source.length; ++i) {
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        final int c = (source[i] >> shift) & 0xFF;
+                        final int expected = shift == 8 ? (c >> 2) << 1 : (c >> 3) << 2;
+                        final int e = expected - ((pixels[i] >> shift) & 0xFF);
+                        error += e * e;
+                    }
+                }
+                error /= 3 * source.length;
+                // Noise loses most of its chroma to the subsampling
+                assertTrue(error < 127 * 127 / 30.0);
+            }
+        }
+    }
+
+    /**
+     * The regression corpus decodes to the same pixels, sequentially and
+     * in parallel
+     */
+    @Test
+    public void testCorpus() {
+        System.out.println("corpus");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int format = 1; format <= 2; ++format) {
+                assertEquals(CORPUS_GOLDEN[format - 1],
+                             corpusCrc(new BufferedVideoImage(), format));
+                BufferedVideoImage parallel = new BufferedVideoImage();
+                parallel.setExecutor(executor);
+                assertEquals(CORPUS_GOLDEN[format - 1], corpusCrc(parallel, format));
+                assertEquals(0, parallel.getSequentialFallbacks());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * In luma only mode, the luma plane is the luma of the pictures, in the
+     * same array from one picture to the next, also with the slices decoded
+     * in parallel
+     */
+    @Test
+    public void testLumaOnly() {
+        System.out.println("lumaOnly");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int format = 1; format <= 2; ++format) {
+                final int w = UvlcWriter.width(format, 2);
+                final int h = UvlcWriter.height(format, 2);
+                BufferedVideoImage sequential = new BufferedVideoImage();
+                sequential.setLumaOnly(true);
+                BufferedVideoImage parallel = new BufferedVideoImage();
+                parallel.setLumaOnly(true);
+                parallel.setExecutor(executor);
+                byte[] luma = null;
+                for (int kind = 0; kind < VideoCorpus.KINDS; ++kind) {
+                    for (int f = 0; f < CORPUS_FRAMES; ++f) {
+                        sequential.addImageStream(VideoCorpus.picture(kind, format, 2, f));
+                        parallel.addImageStream(VideoCorpus.picture(kind, format, 2, f));
+                        assertTrue(sequential.isPictureComplete());
+                        assertNull(sequential.getJavaPixelData());
+                        if (luma != null) {
+                            assertSame(luma, sequential.getLumaData());
+                        }
+                        luma = sequential.getLumaData();
+                        assertEquals(w * h, luma.length);
+                        assertArrayEquals(luma, parallel.getLumaData());
+
+                        final int[] source = VideoCorpus.image(kind, w, h, f);
+                        double error = 0;
+                        for (int i = 0; i < source.length; ++i) {
+                            final int r = (source[i] >> 16) & 0xFF;
+                            final int g = (source[i] >> 8) & 0xFF;
+                            final int b = source[i] & 0xFF;
+                            final double y = 0.299 * r + 0.587 * g + 0.114 * b;
+                            error += (y - (luma[i] & 0xFF)) * (y - (luma[i] & 0xFF));
+                        }
+                        // 30 dB
+                        assertTrue(error / source.length < 255 * 255 / 1000.0);
+                    }
+                }
+                assertEquals(0, parallel.getSequentialFallbacks());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package madsdf.ardrone.video;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FrameAssemblerTest {
+    private static byte[] picture(Random rand, int frameIndex) {
+        ByteBuffer b = UvlcWriter.randomPicture(rand, UvlcWriter.QVGA, 2, frameIndex);
+        return Arrays.copyOf(b.array(), b.limit());
+    }
+
+    private static byte[] contents(ByteBuffer b) {
+        return Arrays.copyOf(b.array(), b.limit());
+    }
+
+    /**
+     * A picture split in datagrams at any byte is complete with its last
+     * datagram, and decodes as the whole picture
+     */
+    @Test
+    public void testSplit() {
+        System.out.println("split");
+        Random rand = new Random(1);
+        FrameAssembler assembler = new FrameAssembler(2);
+        BufferedVideoImage direct = new BufferedVideoImage();
+        BufferedVideoImage decoder = new BufferedVideoImage();
+        for (int f = 0; f < 10; ++f) {
+            byte[] p = picture(rand, f);
+            direct.addImageStream(ByteBuffer.wrap(p));
+
+            int[] cuts = {rand.nextInt(p.length / 3), p.length / 3 + rand.nextInt(p.length / 3)};
+            assertNull(assembler.add(p, 0, cuts[0]));
+            assertNull(assembler.add(p, cuts[0], cuts[1] - cuts[0]));
+            ByteBuffer assembled = assembler.add(p, cuts[1], p.length - cuts[1]);
+            assertNotNull(assembled);
+            assertArrayEquals(p, contents(assembled));
+
+            decoder.addImageStream(assembled);
+            assertTrue(decoder.isPictureComplete());
+            assertEquals(f, decoder.getFrameIndex());
+            assertArrayEquals(direct.getJavaPixelData(), decoder.getJavaPixelData());
+            assembler.release(assembled);
+        }
+        assertEquals(10, assembler.getCompleteCount());
+    }
+
+    // Byte position of the end of picture code in the bit stream of p
+    private static int endCodePosition(byte[] p) {
+        for (int k = p.length - 3; k >= 0; k--) {
+            if (p[k ^ 3] == 0 && p[(k + 1) ^ 3] == 0 && (p[(k + 2) ^ 3] & 0xFF) == 0xFC) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An assembled picture, as long as its data, is complete when its end
+     * code shares the last word with the data of the last slice
+     */
+    @Test
+    public void testEndCodeInLastWord() {
+        System.out.println("endCodeInLastWord");
+        byte[] p = null;
+        for (int seed = 0; p == null && seed < 100; ++seed) {
+            ByteBuffer b = UvlcWriter.randomPicture(new Random(seed),
+                                                    UvlcWriter.QVGA, 1, seed);
+            final int end = endCodePosition(b.array());
+            if (end > b.limit() - 4 && (end & 3) != 0) {
+                p = Arrays.copyOf(b.array(), b.limit());
+            }
+        }
+        assertNotNull(p);
+
+        // The same picture followed by a zero word
+        BufferedVideoImage direct = new BufferedVideoImage();
+        direct.addImageStream(ByteBuffer.wrap(Arrays.copyOf(p, p.length + 4)));
+        assertTrue(direct.isPictureComplete());
+
+        FrameAssembler assembler = new FrameAssembler(2);
+        assertNull(assembler.add(p, 0, p.length / 2));
+        ByteBuffer assembled = assembler.add(p, p.length / 2, p.length - p.length / 2);
+        assertNotNull(assembled);
+        assertEquals(p.length, assembled.limit());
+        BufferedVideoImage decoder = new BufferedVideoImage();
+        decoder.addImageStream(assembled);
+        assertTrue(decoder.isPictureComplete());
+        assertArrayEquals(direct.getJavaPixelData(), decoder.getJavaPixelData());
+    }
+
+    /**
+     * Incomplete pictures, fragments without picture and old pictures are
+     * dropped
+     */
+    @Test
+    public void testDropped() {
+        System.out.println("dropped");
+        Random rand = new Random(2);
+        FrameAssembler assembler = new FrameAssembler(2);
+        byte[] p5 = picture(rand, 5);
+        byte[] p6 = picture(rand, 6);
+        byte[] p7 = picture(rand, 7);
+
+        // The end of picture 5 is lost
+        assertNull(assembler.add(p5, 0, p5.length / 2));
+        ByteBuffer b = assembler.add(p6, 0, p6.length);
+        assertArrayEquals(p6, contents(b));
+        assembler.release(b);
+        assertNull(assembler.add(p5, p5.length / 2, p5.length - p5.length / 2));
+
+        // Picture 5 arrives again, after 6
+        assertNull(assembler.add(p5, 0, p5.length));
+        assertNull(assembler.add(p6, 0, p6.length));
+        b = assembler.add(p7, 0, p7.length);
+        assertArrayEquals(p7, contents(b));
+
+        assertEquals(2, assembler.getCompleteCount());
+        assertEquals(1, assembler.getIncompleteCount());
+        assertEquals(2, assembler.getStaleCount());
+        assertEquals(1, assembler.getOrphanCount());
+
+        // A restarted stream is not stale
+        byte[] p1000 = picture(rand, 1000);
+        byte[] p0 = picture(rand, 0);
+        assembler.release(b);
+        b = assembler.add(p1000, 0, p1000.length);
+        assembler.release(b);
+        assertNotNull(assembler.add(p0, 0, p0.length));
+    }
+
+    /**
+     * The buffers are reused, and grow for big pictures
+     */
+    @Test
+    public void testBuffers() {
+        System.out.println("buffers");
+        Random rand = new Random(3);
+        FrameAssembler assembler = new FrameAssembler(1);
+        byte[] p = picture(rand, 1);
+        ByteBuffer first = assembler.add(p, 0, p.length);
+        assembler.release(first);
+        assembler.release(first);
+        p = picture(rand, 2);
+        assertSame(first, assembler.add(p, 0, p.length));
+
+        // Padded with fragments without end code
+        p = picture(rand, 3);
+        byte[] padding = new byte[40000];
+        assertNull(assembler.add(p, 0, p.length - 8));
+        assertNull(assembler.add(padding, 0, padding.length));
+        assertNull(assembler.add(padding, 0, padding.length));
+        byte[] end = Arrays.copyOfRange(p, p.length - 8, p.length);
+        ByteBuffer big = assembler.add(end, 0, end.length);
+        assertNotNull(big);
+        assertEquals(p.length + 2 * padding.length, big.limit());
+        assertTrue(big.capacity() > FrameAssembler.INITIAL_BUFFER_SIZE);
+    }
+}
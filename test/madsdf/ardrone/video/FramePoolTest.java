@@ -0,0 +1,46 @@
+package madsdf.ardrone.video;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+    /**
+     * Released frames are reused, frames of another size are not
+     */
+    @Test
+    public void testReuse() {
+        System.out.println("reuse");
+        FramePool pool = new FramePool(2);
+        VideoFrame a = pool.acquire(320, 240);
+        VideoFrame b = pool.acquire(320, 240);
+        assertNotSame(a, b);
+        assertEquals(320 * 240, a.pixels.length);
+        a.pixels[5] = 0x123456;
+        assertEquals(0x123456, a.image.getRGB(5, 0) & 0xFFFFFF);
+
+        a.release();
+        assertSame(a, pool.acquire(320, 240));
+        b.release();
+        // Releasing twice keeps a single copy in the pool
+        b.release();
+        assertEquals(1, pool.getFreeCount());
+        VideoFrame c = pool.acquire(176, 144);
+        assertEquals(176, c.width);
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(3, pool.getAllocatedCount());
+    }
+
+    /**
+     * At most 'capacity' free frames are kept
+     */
+    @Test
+    public void testCapacity() {
+        System.out.println("capacity");
+        FramePool pool = new FramePool(1);
+        VideoFrame a = pool.acquire(16, 16);
+        VideoFrame b = pool.acquire(16, 16);
+        a.release();
+        b.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+}
@@ -0,0 +1,74 @@
+package madsdf.ardrone.video;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FrameSlotTest {
+    /**
+     * The latest frame wins, the replaced ones go back to the pool
+     */
+    @Test
+    public void testLatestWins() {
+        System.out.println("latestWins");
+        FramePool pool = new FramePool(4);
+        FrameSlot slot = new FrameSlot();
+        assertNull(slot.take());
+
+        VideoFrame a = pool.acquire(16, 16);
+        VideoFrame b = pool.acquire(16, 16);
+        VideoFrame c = pool.acquire(16, 16);
+        assertTrue(slot.offer(a));
+        assertFalse(slot.offer(b));
+        assertFalse(slot.offer(c));
+        assertEquals(2, pool.getFreeCount());
+        assertSame(c, slot.take());
+        assertNull(slot.take());
+        assertTrue(slot.offer(pool.acquire(16, 16)));
+
+        assertEquals(4, slot.getDecodedCount());
+        assertEquals(1, slot.getDisplayedCount());
+        assertEquals(2, slot.getDroppedCount());
+    }
+
+    /**
+     * With a producer faster than the consumer, every frame is displayed or
+     * dropped, and at most one notification is pending
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        System.out.println("concurrent");
+        final FramePool pool = new FramePool(4);
+        final FrameSlot slot = new FrameSlot();
+        final AtomicLong notifications = new AtomicLong();
+        final int frames = 20000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < frames; ++i) {
+                    if (slot.offer(pool.acquire(4, 4))) {
+                        notifications.incrementAndGet();
+                    }
+                }
+            }
+        };
+        producer.start();
+        long taken = 0;
+        while (producer.isAlive() || taken < notifications.get()) {
+            if (taken < notifications.get()) {
+                // A notification is handled by a single take
+                VideoFrame frame = slot.take();
+                assertNotNull(frame);
+                frame.release();
+                taken++;
+            }
+        }
+        producer.join();
+        assertNull(slot.take());
+        assertEquals(frames, slot.getDecodedCount());
+        assertEquals(frames, slot.getDisplayedCount() + slot.getDroppedCount());
+        assertEquals(notifications.get(), slot.getDisplayedCount());
+        // One frame being displayed, one waiting, one being decoded
+        assertTrue(pool.getAllocatedCount() <= 3);
+    }
+}
@@ -0,0 +1,320 @@
+package madsdf.ardrone.video;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes pictures in the layout read by BufferedVideoImage : 32 bits
+ * little-endian words filled from the most significant bit, slices starting
+ * with a byte aligned 22 bits start code, macro blocks of 6 blocks of
+ * run/level coded coefficients. encode() intra codes RGB pictures.
+ */
+public class UvlcWriter {
+    public static final int CIF = 1;
+    public static final int QVGA = 2;
+    // The only quantizer mode the decoder supports
+    public static final int TABLE_QUANTIZATION_MODE = 31;
+
+    // Tables of BufferedVideoImage
+    private static final int[] ZIGZAG_POSITIONS = {0, 1, 8, 16, 9, 2, 3, 10,
+        17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20,
+        13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23,
+        30, 37, 44, 51, 58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47,
+        55, 62, 63};
+    private static final int[] QUANTIZER_VALUES = {3, 5, 7, 9, 11, 13, 15, 17,
+        5, 7, 9, 11, 13, 15, 17, 19, 7, 9, 11, 13, 15, 17, 19, 21, 9, 11, 13,
+        15, 17, 19, 21, 23, 11, 13, 15, 17, 19, 21, 23, 25, 13, 15, 17, 19, 21,
+        23, 25, 27, 15, 17, 19, 21, 23, 25, 27, 29, 17, 19, 21, 23, 25, 27, 29,
+        31};
+    // C(u) cos((2x + 1) u pi / 16) / 2 at [u][x]
+    private static final double[][] DCT = new double[8][8];
+
+    static {
+        for (int u = 0; u < 8; ++u) {
+            for (int x = 0; x < 8; ++x) {
+                DCT[u][x] = (u == 0 ? Math.sqrt(0.5) : 1)
+                        * Math.cos((2 * x + 1) * u * Math.PI / 16) / 2;
+            }
+        }
+    }
+
+    private int[] words = new int[1024];
+    private int numWords = 0;
+    private int current = 0;
+    private int currentBits = 0;
+
+    public static int width(int format, int resolution) {
+        return (format == CIF ? 88 : 160) << (resolution - 1);
+    }
+
+    public static int height(int format, int resolution) {
+        return (format == CIF ? 72 : 120) << (resolution - 1);
+    }
+
+    /**
+     * Write the 'bits' low bits of value, most significant first
+     */
+    public void put(int value, int bits) {
+        for (int i = bits - 1; i >= 0; --i) {
+            current = (current << 1) | ((value >>> i) & 1);
+            currentBits++;
+            if (currentBits == 32) {
+                if (numWords == words.length) {
+                    words = Arrays.copyOf(words, 2 * words.length);
+                }
+                words[numWords++] = current;
+                current = 0;
+                currentBits = 0;
+            }
+        }
+    }
+
+    public void align() {
+        while (currentBits % 8 != 0) {
+            put(0, 1);
+        }
+    }
+
+    public void pictureHeader(int format, int resolution, int pictureType,
+                              int frameIndex) {
+        align();
+        put(32, 22);
+        put(format, 2);
+        put(resolution, 3);
+        put(pictureType, 3);
+        put(TABLE_QUANTIZATION_MODE, 5);
+        put(frameIndex, 32);
+    }
+
+    public void sliceHeader(int slice) {
+        align();
+        put(32 | slice, 22);
+        put(TABLE_QUANTIZATION_MODE, 5);
+    }
+
+    public void endOfPicture() {
+        align();
+        put(32 | 0x1F, 22);
+    }
+
+    public void emptyMacroBlock() {
+        put(1, 1);
+    }
+
+    /**
+     * @param blocks the quantized coefficients of the 6 blocks (Y0, Y1, Y2,
+     * Y3, Cb, Cr) in zigzag order. The DC is in [0, 1024).
+     */
+    public void macroBlock(int[][] blocks) {
+        put(0, 1);
+        int ac = 0;
+        for (int b = 0; b < 6; ++b) {
+            for (int i = 1; i < 64; ++i) {
+                if (blocks[b][i] != 0) {
+                    ac |= 1 << b;
+                    break;
+                }
+            }
+        }
+        put(ac, 8);
+        for (int b = 0; b < 6; ++b) {
+            put(blocks[b][0], 10);
+            if ((ac & (1 << b)) == 0) {
+                continue;
+            }
+            int run = 0;
+            for (int i = 1; i < 64; ++i) {
+                if (blocks[b][i] == 0) {
+                    run++;
+                } else {
+                    putRun(run);
+                    putLevel(blocks[b][i]);
+                    run = 0;
+                }
+            }
+            // End of block : no run, level coarse value 01
+            putRun(0);
+            put(1, 2);
+        }
+    }
+
+    // Leading zeros, a one, then zeros - 1 additional bits
+    private void putRun(int run) {
+        if (run <= 1) {
+            put(0, run);
+            put(1, 1);
+            return;
+        }
+        final int zeros = 32 - Integer.numberOfLeadingZeros(run);
+        put(0, zeros);
+        put(1, 1);
+        put(run - (1 << (zeros - 1)), zeros - 1);
+    }
+
+    // Leading zeros, a one, then zeros additional bits, the last one being
+    // the sign
+    private void putLevel(int level) {
+        final int magnitude = Math.abs(level);
+        final int sign = level < 0 ? 1 : 0;
+        if (magnitude == 1) {
+            put(1, 1);
+            put(sign, 1);
+            return;
+        }
+        final int zeros = 32 - Integer.numberOfLeadingZeros(magnitude);
+        put(0, zeros);
+        put(1, 1);
+        put(((magnitude - (1 << (zeros - 1))) << 1) | sign, zeros);
+    }
+
+    /**
+     * @return the stream written so far, padded to a whole word
+     */
+    public ByteBuffer toByteBuffer() {
+        final int total = numWords + (currentBits > 0 ? 1 : 0);
+        ByteBuffer b = ByteBuffer.allocate(total * 4);
+        for (int i = 0; i < total; ++i) {
+            final int w = i < numWords ? words[i] : current << (32 - currentBits);
+            b.put((byte)w).put((byte)(w >> 8)).put((byte)(w >> 16)).put((byte)(w >> 24));
+        }
+        b.clear();
+        return b;
+    }
+
+    /**
+     * A picture of random coefficients : some empty macro blocks, DC-only
+     * blocks and blocks with a few or many AC coefficients
+     */
+    public static ByteBuffer randomPicture(Random rand, int format,
+                                           int resolution, int frameIndex) {
+        final int slices = height(format, resolution) >> 4;
+        int[] sliceNumbers = new int[slices];
+        for (int s = 0; s < slices; ++s) {
+            sliceNumbers[s] = s;
+        }
+        return randomPicture(rand, format, resolution, frameIndex, sliceNumbers);
+    }
+
+    /**
+     * @param sliceNumbers the numbers written in the slice headers, the
+     * first one being ignored
+     */
+    public static ByteBuffer randomPicture(Random rand, int format,
+                                           int resolution, int frameIndex,
+                                           int[] sliceNumbers) {
+        UvlcWriter w = new UvlcWriter();
+        final int blocks = width(format, resolution) >> 4;
+        for (int s = 0; s < sliceNumbers.length; ++s) {
+            if (s == 0) {
+                w.pictureHeader(format, resolution, 0, frameIndex);
+            } else {
+                w.sliceHeader(sliceNumbers[s]);
+            }
+            for (int m = 0; m < blocks; ++m) {
+                w.randomMacroBlock(rand);
+            }
+        }
+        w.endOfPicture();
+        return w.toByteBuffer();
+    }
+
+    private void randomMacroBlock(Random rand) {
+        if (rand.nextInt(8) == 0) {
+            emptyMacroBlock();
+            return;
+        }
+        int[][] coefs = new int[6][64];
+        for (int b = 0; b < 6; ++b) {
+            coefs[b][0] = rand.nextInt(1024) / (rand.nextBoolean() ? 1 : 8);
+            final int kind = rand.nextInt(3);
+            final int count = kind == 0 ? 0 : kind == 1 ? 1 + rand.nextInt(3)
+                                                        : 4 + rand.nextInt(30);
+            for (int c = 0; c < count; ++c) {
+                final int level = 1 + rand.nextInt(rand.nextBoolean() ? 3 : 100);
+                coefs[b][1 + rand.nextInt(kind == 1 ? 9 : 63)] =
+                        rand.nextBoolean() ? level : -level;
+            }
+        }
+        macroBlock(coefs);
+    }
+
+    /**
+     * Intra code a picture as the drone does : JFIF YCbCr with 4:2:0
+     * chroma, 8x8 DCT and the quantizer table of the decoder
+     * @param rgb the 0xRRGGBB pixels, row by row, of a picture of the size
+     * of the format and resolution
+     */
+    public static ByteBuffer encode(int[] rgb, int format, int resolution,
+                                    int frameIndex) {
+        final int width = width(format, resolution);
+        final int height = height(format, resolution);
+        if (rgb.length != width * height) {
+            throw new IllegalArgumentException("Picture of " + rgb.length
+                    + " pixels, expected " + width + "x" + height);
+        }
+        UvlcWriter w = new UvlcWriter();
+        double[][] blocks = new double[6][64];
+        for (int s = 0; s < height / 16; ++s) {
+            if (s == 0) {
+                w.pictureHeader(format, resolution, 0, frameIndex);
+            } else {
+                w.sliceHeader(s);
+            }
+            for (int m = 0; m < width / 16; ++m) {
+                for (double[] b : blocks) {
+                    Arrays.fill(b, 0);
+                }
+                for (int y = 0; y < 16; ++y) {
+                    for (int x = 0; x < 16; ++x) {
+                        final int p = rgb[(s * 16 + y) * width + m * 16 + x];
+                        final int r = (p >> 16) & 0xFF;
+                        final int g = (p >> 8) & 0xFF;
+                        final int b = p & 0xFF;
+                        // Y0 Y1 on top of Y2 Y3
+                        final int block = (y / 8) * 2 + x / 8;
+                        blocks[block][(y % 8) * 8 + x % 8] =
+                                0.299 * r + 0.587 * g + 0.114 * b;
+                        // Mean of 2x2 pixels
+                        final int c = (y / 2) * 8 + x / 2;
+                        blocks[4][c] += (128 - 0.168736 * r - 0.331264 * g + 0.5 * b) / 4;
+                        blocks[5][c] += (128 + 0.5 * r - 0.418688 * g - 0.081312 * b) / 4;
+                    }
+                }
+                int[][] coefs = new int[6][64];
+                for (int b = 0; b < 6; ++b) {
+                    quantize(forwardTransform(blocks[b]), coefs[b]);
+                }
+                w.macroBlock(coefs);
+            }
+        }
+        w.endOfPicture();
+        return w.toByteBuffer();
+    }
+
+    private static double[] forwardTransform(double[] block) {
+        double[] out = new double[64];
+        for (int v = 0; v < 8; ++v) {
+            for (int u = 0; u < 8; ++u) {
+                double sum = 0;
+                for (int y = 0; y < 8; ++y) {
+                    for (int x = 0; x < 8; ++x) {
+                        sum += DCT[v][y] * DCT[u][x] * block[y * 8 + x];
+                    }
+                }
+                out[v * 8 + u] = sum;
+            }
+        }
+        return out;
+    }
+
+    // Quantized coefficients in zigzag order, in the ranges the decoder reads
+    private static void quantize(double[] transformed, int[] zigzag) {
+        for (int i = 0; i < 64; ++i) {
+            final int position = ZIGZAG_POSITIONS[i];
+            final long level = Math.round(transformed[position] / QUANTIZER_VALUES[position]);
+            zigzag[i] = i == 0 ? (int)Math.max(0, Math.min(1023, level))
+                               : (int)Math.max(-511, Math.min(511, level));
+        }
+    }
+}
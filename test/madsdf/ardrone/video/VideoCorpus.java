@@ -0,0 +1,72 @@
+package madsdf.ardrone.video;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic pictures, intra coded with UvlcWriter.encode, to check and
+ * benchmark the decoder without a drone. The pictures are the same on
+ * every run.
+ */
+public class VideoCorpus {
+    public static final int GRADIENT = 0;
+    public static final int BARS = 1;
+    public static final int CHECKERBOARD = 2;
+    public static final int DISCS = 3;
+    public static final int NOISE = 4;
+    public static final int KINDS = 5;
+
+    /**
+     * @param frame moves the pattern, for sequences
+     * @return the 0xRRGGBB pixels of a picture, row by row
+     */
+    public static int[] image(int kind, int width, int height, int frame) {
+        int[] rgb = new int[width * height];
+        Random rand = new Random(kind * 1000 + frame);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int xs = x + 3 * frame;
+                int r, g, b;
+                switch (kind) {
+                    case GRADIENT:
+                        r = 255 * x / width;
+                        g = 255 * y / height;
+                        b = (r + g + frame) / 2 & 0xFF;
+                        break;
+                    case BARS:
+                        final int bar = 8 * xs / width % 8;
+                        r = (bar & 1) != 0 ? 255 : 0;
+                        g = (bar & 2) != 0 ? 255 : 0;
+                        b = (bar & 4) != 0 ? 255 : 0;
+                        break;
+                    case CHECKERBOARD:
+                        r = g = b = ((xs / 8 + y / 8) & 1) != 0 ? 230 : 20;
+                        break;
+                    case DISCS:
+                        final double d = Math.hypot((xs % 64) - 32, (y % 64) - 32);
+                        r = (int)(127 + 127 * Math.cos(d / 4));
+                        g = (int)(127 + 127 * Math.sin(d / 6));
+                        b = d < 20 ? 200 : 40;
+                        break;
+                    default:
+                        r = rand.nextInt(256);
+                        g = (r + rand.nextInt(64)) & 0xFF;
+                        b = (x * 2) & 0xFF;
+                        break;
+                }
+                rgb[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return rgb;
+    }
+
+    /**
+     * @return the encoded picture
+     */
+    public static ByteBuffer picture(int kind, int format, int resolution,
+                                     int frame) {
+        return UvlcWriter.encode(image(kind, UvlcWriter.width(format, resolution),
+                UvlcWriter.height(format, resolution), frame),
+                format, resolution, frame);
+    }
+}
@@ -0,0 +1,87 @@
+package madsdf.ardrone.video;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VideoRecordingTest {
+    /**
+     * Pictures recorded by VideoRecorder are indexed, seeked and decoded by
+     * VideoRecording
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("roundTrip");
+        File file = File.createTempFile("video", ".log");
+        try {
+            Random rand = new Random(1);
+            ByteBuffer[] pictures = new ByteBuffer[20];
+            VideoRecorder rec = VideoRecorder.get();
+            rec.start(file);
+            for (int f = 0; f < pictures.length; ++f) {
+                pictures[f] = UvlcWriter.randomPicture(rand, UvlcWriter.QVGA,
+                                                       1 + f % 2, 100 + f);
+                rec.picture(100 + f, pictures[f]);
+            }
+            rec.stop();
+            assertFalse(rec.isEnabled());
+
+            VideoRecording recording = new VideoRecording(file);
+            assertEquals(pictures.length, recording.size());
+            BufferedVideoImage live = new BufferedVideoImage();
+            BufferedVideoImage replay = new BufferedVideoImage();
+            ByteBuffer picture = null;
+            for (int f = 0; f < pictures.length; ++f) {
+                assertEquals(100 + f, recording.getFrameIndex(f));
+                if (f > 0) {
+                    assertTrue(recording.getNanoTime(f) >= recording.getNanoTime(f - 1));
+                }
+                picture = recording.getPicture(f, picture);
+                assertEquals(pictures[f].limit(), picture.limit());
+                assertArrayEquals(Arrays.copyOf(pictures[f].array(), pictures[f].limit()),
+                                  Arrays.copyOf(picture.array(), picture.limit()));
+                live.addImageStream(pictures[f]);
+                replay.addImageStream(picture);
+                assertArrayEquals(live.getJavaPixelData(), replay.getJavaPixelData());
+            }
+
+            assertEquals(0, recording.seek(recording.getNanoTime(0) - 1));
+            assertEquals(pictures.length - 1, recording.seek(Long.MAX_VALUE));
+            for (int f = 0; f < pictures.length; ++f) {
+                final int s = recording.seek(recording.getNanoTime(f));
+                assertEquals(recording.getNanoTime(f), recording.getNanoTime(s));
+                assertTrue(s >= f);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A truncated last picture is ignored
+     */
+    @Test
+    public void testTruncated() throws Exception {
+        System.out.println("truncated");
+        File file = File.createTempFile("video", ".log");
+        try {
+            Random rand = new Random(2);
+            VideoRecorder rec = VideoRecorder.get();
+            rec.start(file);
+            for (int f = 0; f < 3; ++f) {
+                rec.picture(f, UvlcWriter.randomPicture(rand, UvlcWriter.CIF, 1, f));
+            }
+            rec.stop();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 10);
+            }
+            assertEquals(2, new VideoRecording(file).size());
+        } finally {
+            file.delete();
+        }
+    }
+}